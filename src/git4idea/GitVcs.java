@@ -33,6 +33,7 @@ import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsConfiguration;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vcs.VcsShowConfirmationOption;
+import com.intellij.openapi.vcs.CommittedChangesProvider;
 import com.intellij.openapi.vcs.changes.ChangeProvider;
 import com.intellij.openapi.vcs.checkin.CheckinEnvironment;
 import com.intellij.openapi.vcs.diff.DiffProvider;
@@ -51,13 +52,18 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.Date;
 import java.util.Iterator;
+import java.util.Map;
 
 import git4idea.providers.GitAnnotationProvider;
 import git4idea.providers.GitChangeProvider;
 import git4idea.providers.GitDiffProvider;
 import git4idea.providers.GitHistoryProvider;
 import git4idea.providers.GitRefactoringListenerProvider;
+import git4idea.vfs.GitBlobCache;
+import git4idea.vfs.GitFileSystem;
+import git4idea.vfs.GitIgnore;
 import git4idea.vfs.GitRevisionNumber;
+import git4idea.vfs.GitRevisionGraphFile;
 import git4idea.vfs.GitRevisionSelector;
 import git4idea.vfs.GitVirtualFile;
 import git4idea.vfs.GitVirtualFileAdapter;
@@ -67,6 +73,15 @@ import git4idea.envs.GitUpdateEnvironment;
 import git4idea.config.GitVcsConfigurable;
 import git4idea.config.GitVcsSettings;
 import git4idea.changes.ChangeMonitor;
+import git4idea.changes.FetchMonitor;
+import git4idea.changes.GitBranchTracker;
+import git4idea.changes.GitHeadTree;
+import git4idea.changes.GitRefListener;
+import git4idea.changes.GitStashService;
+import git4idea.changes.GitStatCache;
+import git4idea.changes.GitUntrackedFiles;
+import git4idea.changes.GitCommittedChangesProvider;
+import git4idea.changes.GitCommitIndex;
 
 /**
  * Git VCS implementation
@@ -80,6 +95,7 @@ public class GitVcs extends AbstractVcs implements Disposable {
     private CheckinEnvironment checkinEnvironment;
     private RollbackEnvironment rollbackEnvironment;
     private GitUpdateEnvironment updateEnvironment;
+    private GitCommittedChangesProvider committedChangesProvider;
 
     private GitAnnotationProvider annotationProvider;
     private DiffProvider diffProvider;
@@ -123,6 +139,7 @@ public class GitVcs extends AbstractVcs implements Disposable {
         revSelector = new GitRevisionSelector();
         configurable = new GitVcsConfigurable(settings, myProject);
         updateEnvironment = new GitUpdateEnvironment(myProject, settings, configurable);
+        committedChangesProvider = new GitCommittedChangesProvider(myProject, this);
 
         ((GitCheckinEnvironment) checkinEnvironment).setProject(myProject);
         ((GitCheckinEnvironment) checkinEnvironment).setSettings(settings);
@@ -170,6 +187,17 @@ public class GitVcs extends AbstractVcs implements Disposable {
         return getUpdateEnvironment();
     }
 
+    @Override
+    @Nullable
+    public CommittedChangesProvider getCommittedChangesProvider() {
+        return committedChangesProvider;
+    }
+
+    @NotNull
+    public GitCommittedChangesProvider getGitCommittedChangesProvider() {
+        return committedChangesProvider;
+    }
+
     @Override
     @NotNull
     public GitAnnotationProvider getAnnotationProvider() {
@@ -230,24 +258,54 @@ public class GitVcs extends AbstractVcs implements Disposable {
         };
         gitFileAdapter = new GitVirtualFileAdapter(this, myProject);
         VirtualFileManager.getInstance().addVirtualFileListener(gitFileAdapter, activationDisposable);
+        VirtualFileManager.getInstance().addVirtualFileListener(GitStatCache.getInstance(myProject), activationDisposable);
+        VirtualFileManager.getInstance().addVirtualFileListener(GitUntrackedFiles.getInstance(myProject), activationDisposable);
         LocalFileSystem.getInstance().registerAuxiliaryFileOperationsHandler(gitFileAdapter);
         RefactoringListenerManager.getInstance(myProject).addListenerProvider(renameListenerProvider);
         ChangeMonitor mon = ChangeMonitor.getInstance(myProject);
         mon.setGitVcsSettings(settings);
         mon.start();
+        FetchMonitor fetchMon = FetchMonitor.getInstance(myProject);
+        fetchMon.setGitVcsSettings(settings);
+        fetchMon.addRefListener(new GitRefListener() {
+            public void refsMoved(@NotNull VirtualFile root, @NotNull Map<String, String> moved) {
+                StringBuilder sb = new StringBuilder("Fetched " + root.getPath() + ":");
+                for (Map.Entry<String, String> ref : moved.entrySet())
+                    sb.append("\n  ").append(ref.getKey()).append(" -> ").append(ref.getValue() != null ? ref.getValue() : "(deleted)");
+                showMessages(sb.toString());
+            }
+        });
+        fetchMon.addRefListener(GitBranchTracker.getInstance(myProject));
+        fetchMon.start();
+        GitBranchTracker.getInstance(myProject).updateStatusBar();  // a first state for the Pull & Push dialogs
     }
 
     @Override
     public void deactivate() {
         super.deactivate();
+        VirtualFile[] roots = ProjectLevelVcsManager.getInstance(myProject).getRootsUnderVcs(this);
+        GitCommitIndex.getInstance().forgetRoots(roots);
+        GitIgnore.forgetRoots(roots);
         LocalFileSystem.getInstance().unregisterAuxiliaryFileOperationsHandler(gitFileAdapter);
         RefactoringListenerManager.getInstance(myProject).removeListenerProvider(renameListenerProvider);
         VirtualFileManager.getInstance().removeVirtualFileListener(gitFileAdapter);
+        VirtualFileManager.getInstance().removeVirtualFileListener(GitStatCache.getInstance(myProject));
+        VirtualFileManager.getInstance().removeVirtualFileListener(GitUntrackedFiles.getInstance(myProject));
         assert activationDisposable != null;
         Disposer.dispose(activationDisposable);
         activationDisposable = null;
         ChangeMonitor.getInstance(myProject).stopRunning();
         ChangeMonitor.removeInstance(myProject); // re-using threads is too hard... start over
+        FetchMonitor.getInstance(myProject).stopRunning();
+        FetchMonitor.removeInstance(myProject);
+        GitBranchTracker.removeInstance(myProject);
+        GitBlobCache.removeInstance(myProject);
+        GitHeadTree.removeInstance(myProject);
+        GitStashService.removeInstance(myProject);
+        GitStatCache.removeInstance(myProject);
+        GitUntrackedFiles.removeInstance(myProject);
+        GitFileSystem.getInstance().forgetProject(myProject);
+        GitRevisionGraphFile.forgetProject(myProject);
     }
 
     @NotNull
@@ -16,7 +16,9 @@ package git4idea.actions;
  *
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
+import git4idea.GitUtil;
 import git4idea.GitVcs;
+import git4idea.changes.GitOperationRefresher;
 import com.intellij.openapi.actionSystem.*;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.fileEditor.FileDocumentManager;
@@ -61,7 +63,11 @@ public abstract class BasicAction extends AnAction {
         List<VcsException> exceptions = helper.runTransactionRunnable(
                 vcs, new TransactionRunnable() {
             public void run(List<VcsException> exceptions) {
-                final VirtualFile[] affectedFiles = collectAffectedFiles(project, vFiles);
+                // only the roots of the selection can move, don't ask git about every root of the project
+                final GitOperationRefresher refresher = refreshesFromHead() ? new GitOperationRefresher(project,
+                        vcs.getSettings(), GitUtil.getVcsRootsForFiles(project, vFiles)) : null;
+                // the roots of the selection are all an operation refreshed from HEAD needs
+                final VirtualFile[] affectedFiles = refresher != null ? vFiles : collectAffectedFiles(project, vFiles);
                 //noinspection unchecked
                 try {
                     perform(project, vcs, exceptions, affectedFiles);
@@ -69,7 +75,10 @@ public abstract class BasicAction extends AnAction {
                 catch (VcsException e) {
                     exceptions.add(e);
                 }
-                refreshFiles(project, affectedFiles);
+                if (refresher != null)
+                    refresher.refresh();
+                else
+                    refreshFiles(project, affectedFiles);
             }
 
         }, null);
@@ -142,6 +151,17 @@ public abstract class BasicAction extends AnAction {
     @NotNull
     protected abstract String getActionName(@NotNull AbstractVcs abstractvcs);
 
+    /**
+     * Tells whether this action changes the working tree by moving HEAD or merging (checkout, merge, pull...). If so,
+     * HEAD is captured before {@link #perform} and only the files that differ between the old & new HEAD are
+     * refreshed afterwards, instead of every selected file.
+     *
+     * @return True to refresh from the HEAD diff
+     */
+    protected boolean refreshesFromHead() {
+        return false;
+    }
+
     protected boolean isRecursive() {
         return true;
     }
@@ -102,6 +102,11 @@ public class Checkout extends BasicAction {
         }
     }
 
+    @Override
+    protected boolean refreshesFromHead() {
+        return true;
+    }
+
     @Override
     @NotNull
     protected String getActionName(@NotNull AbstractVcs abstractvcs) {
@@ -22,13 +22,13 @@ import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.ui.Messages;
-import com.intellij.openapi.progress.ProgressManager;
 import git4idea.GitVcs;
 import git4idea.GitUtil;
 import git4idea.commands.GitCommand;
-import git4idea.commands.GitCommandRunnable;
+import git4idea.commands.GitRemoteCommandRunner;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -48,25 +48,18 @@ public class Fetch extends BasicAction {
                     roots.add(root);
             }
         }
+        GitRemoteCommandRunner runner = new GitRemoteCommandRunner(project, vcs.getSettings(), GitCommand.FETCH_CMD);
         for (VirtualFile root : roots) {
             String initialValue = null;
             String repo = Messages.showInputDialog(project,
                     "Enter repository & refspec to fetch (empty for default/origin):",
                     "Fetch <repository> <refspec>... --> " + root.getPath(), Messages.getQuestionIcon(), initialValue, null);
+            runner.addRoot(root, repo);
+        }
 
-            GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
-            cmdr.setCommand(GitCommand.FETCH_CMD);
-            if(repo != null)
-                cmdr.setArgs(new String[]{repo});
-
-            ProgressManager manager = ProgressManager.getInstance();
-            manager.runProcessWithProgressSynchronously(cmdr, "Fetching...", false, project);
-
-            VcsException ex = cmdr.getException();
-            if (ex != null) {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git fetch'");
-                return;
-            }
+        Map<VirtualFile, VcsException> errors = runner.run("Fetching...");
+        if (errors.size() > 0) {
+            Messages.showErrorDialog(project, GitRemoteCommandRunner.formatErrors(errors), "Error occurred during 'git fetch'");
         }
     }
 
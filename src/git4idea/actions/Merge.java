@@ -89,6 +89,11 @@ public class Merge extends BasicAction {
         }
     }
 
+    @Override
+    protected boolean refreshesFromHead() {
+        return true;
+    }
+
     @Override
     @NotNull
     protected String getActionName(@NotNull AbstractVcs abstractvcs) {
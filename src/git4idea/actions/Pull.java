@@ -18,8 +18,9 @@ package git4idea.actions;
  */
 import git4idea.GitVcs;
 import git4idea.GitUtil;
+import git4idea.changes.GitBranchTracker;
 import git4idea.commands.GitCommand;
-import git4idea.commands.GitCommandRunnable;
+import git4idea.commands.GitRemoteCommandRunner;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
@@ -27,9 +28,9 @@ import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 import com.intellij.openapi.ui.Messages;
-import com.intellij.openapi.progress.ProgressManager;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -49,26 +50,27 @@ public class Pull extends BasicAction {
                     roots.add(root);
             }
         }
+        GitRemoteCommandRunner runner = new GitRemoteCommandRunner(project, vcs.getSettings(), GitCommand.PULL_CMD);
+        GitBranchTracker tracker = GitBranchTracker.getInstance(project);
         for (VirtualFile root : roots) {
             String initialValue = null;
             String repo = Messages.showInputDialog(project,
+                    tracker.describeCurrent(root) +
                     "Enter repository & refspec to pull/merge (empty for default/origin):",
                     "Pull <repository> <refspec>... --> " + root.getPath(), Messages.getQuestionIcon(), initialValue, null);
+            runner.addRoot(root, repo);
+        }
 
-            GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
-            cmdr.setCommand(GitCommand.PULL_CMD);
-            if(repo != null)
-                cmdr.setArgs(new String[] { repo });
-
-            ProgressManager manager = ProgressManager.getInstance();
-            manager.runProcessWithProgressSynchronously(cmdr, "Pulling... ", false, project);
+        Map<VirtualFile, VcsException> errors = runner.run("Pulling...");
+        if (errors.size() > 0) {
+            Messages.showErrorDialog(project, GitRemoteCommandRunner.formatErrors(errors), "Error occurred during 'git pull'");
+        }
+        tracker.updateStatusBar();
+    }
 
-            VcsException ex = cmdr.getException();
-            if(ex != null)  {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git pull'");
-                return;
-            }
-        }        
+    @Override
+    protected boolean refreshesFromHead() {
+        return true;
     }
 
     @Override
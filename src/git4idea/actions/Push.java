@@ -17,7 +17,6 @@ package git4idea.actions;
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
 
-import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.openapi.vcs.AbstractVcs;
@@ -26,11 +25,13 @@ import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
 import git4idea.GitUtil;
 import git4idea.GitVcs;
+import git4idea.changes.GitBranchTracker;
 import git4idea.commands.GitCommand;
-import git4idea.commands.GitCommandRunnable;
+import git4idea.commands.GitRemoteCommandRunner;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -50,26 +51,23 @@ public class Push extends BasicAction {
                     roots.add(root);
             }
         }
+        GitRemoteCommandRunner runner = new GitRemoteCommandRunner(project, vcs.getSettings(), GitCommand.PUSH_CMD);
+        GitBranchTracker tracker = GitBranchTracker.getInstance(project);
         for (VirtualFile root : roots) {
             if (root == null) continue;
             String initialValue = null;
             String repo = Messages.showInputDialog(project,
+                    tracker.describeCurrent(root) +
                     "Enter repository & refspec to push to (empty for default/origin):",
                     "Push <repository> <refspec>... To Repo <-- " + root.getPath(), Messages.getQuestionIcon(), initialValue, null);
+            runner.addRoot(root, repo);
+        }
 
-            GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
-            cmdr.setCommand(GitCommand.PUSH_CMD);
-            if (repo != null)
-                cmdr.setArgs(new String[]{ repo });
-
-            ProgressManager manager = ProgressManager.getInstance();
-            manager.runProcessWithProgressSynchronously(cmdr, "Pushing...", false, project);
-
-            VcsException ex = cmdr.getException();
-            if (ex != null) {
-                Messages.showErrorDialog(project, ex.getMessage(), "Error occurred during 'git push'");
-            }
+        Map<VirtualFile, VcsException> errors = runner.run("Pushing...");
+        if (errors.size() > 0) {
+            Messages.showErrorDialog(project, GitRemoteCommandRunner.formatErrors(errors), "Error occurred during 'git push'");
         }
+        tracker.updateStatusBar();
     }
 
     @Override
@@ -19,6 +19,8 @@ package git4idea.actions;
 import git4idea.GitVcs;
 import git4idea.GitUtil;
 import git4idea.commands.GitCommand;
+import git4idea.vfs.GitRevisionGraphFile;
+import com.intellij.openapi.fileEditor.FileEditorManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.vcs.AbstractVcs;
 import com.intellij.openapi.vcs.VcsException;
@@ -26,11 +28,14 @@ import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vfs.VirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- * Git revision graph action
+ * Git revision graph action: opens the revision graph of the selected files in an editor, or of their whole VCS root
+ * if a root is selected
  */
 public class RevisionGraph extends BasicAction {
     @Override
@@ -43,16 +48,30 @@ public class RevisionGraph extends BasicAction {
 
         final Map<VirtualFile, List<VirtualFile>> roots = GitUtil.sortFilesByVcsRoot(project, affectedFiles);
 
-        for (VirtualFile root : roots.keySet()) {
+        for (Map.Entry<VirtualFile, List<VirtualFile>> entry : roots.entrySet()) {
+            VirtualFile root = entry.getKey();
             GitCommand command = new GitCommand(project, vcs.getSettings(), root);
-            List<VirtualFile> list = roots.get(root);
-            VirtualFile[] vfiles = list.toArray(new VirtualFile[list.size()]);
-            for(VirtualFile vfile: vfiles) {
-                command.revisionGraph(vfile);
+            Set<String> paths = new HashSet<String>();
+            for (VirtualFile file : entry.getValue()) {
+                if (file.equals(root)) {
+                    paths.clear();      // the whole root is selected
+                    break;
+                }
+                paths.add(command.getRelativeFilePath(file, root));
             }
+            FileEditorManager.getInstance(project).openFile(GitRevisionGraphFile.getInstance(project, root, paths), true);
         }
     }
 
+    /**
+     * The graph is limited to the selected files & directories themselves, their contents need not be listed.
+     */
+    @Override
+    @NotNull
+    protected VirtualFile[] collectAffectedFiles(@NotNull Project project, @NotNull VirtualFile[] files) {
+        return files;
+    }
+
     @Override
     @NotNull
     protected String getActionName(@NotNull AbstractVcs abstractvcs) {
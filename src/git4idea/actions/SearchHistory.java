@@ -0,0 +1,131 @@
+package git4idea.actions;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.DataKeys;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vcs.AbstractVcsHelper;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.versionBrowser.CommittedChangeList;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsRunnable;
+import com.intellij.vcsUtil.VcsUtil;
+import git4idea.GitVcs;
+import git4idea.changes.GitCommitChangeList;
+import git4idea.changes.GitCommitIndex;
+import git4idea.commands.GitCommand;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Searches the history of all Git roots of the project for commits by message words, author, touched paths & date,
+ * through the {@link GitCommitIndex}, and shows the newest matches in a changes browser.
+ */
+public class SearchHistory extends AnAction {
+    private static final int MAX_RESULTS = 100;
+    private static final String TITLE = "Search History";
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        final Project project = event.getData(DataKeys.PROJECT);
+        if (project == null) return;
+        final String query = Messages.showInputDialog(project,
+                "Find commits by message words, author or file. Use author:<name>, path:<path>,\n" +
+                        "after:<yyyy-mm-dd> & before:<yyyy-mm-dd> to narrow the search.", TITLE, Messages.getQuestionIcon());
+        if (query == null || query.trim().length() == 0) return;
+
+        final GitVcs vcs = GitVcs.getInstance(project);
+        final VirtualFile[] roots = ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(vcs);
+        final List<CommittedChangeList> changeLists = new ArrayList<CommittedChangeList>();
+        try {
+            boolean completed = VcsUtil.runVcsProcessWithProgress(new VcsRunnable() {
+                public void run() throws VcsException {
+                    changeLists.addAll(search(project, vcs, roots, query));
+                }
+            }, TITLE, true, project);
+            if (!completed) return;
+        } catch (VcsException e) {
+            Messages.showErrorDialog(project, e.getMessage(), TITLE);
+            return;
+        }
+
+        if (changeLists.size() == 0)
+            Messages.showInfoMessage(project, "No commits match \"" + query.trim() + "\"", TITLE);
+        else
+            AbstractVcsHelper.getInstance(project).showChangesBrowser(changeLists, "Commits matching \"" + query.trim() + "\"");
+    }
+
+    private static List<GitCommitChangeList> search(Project project, GitVcs vcs, VirtualFile[] roots, String query)
+            throws VcsException {
+        ProgressIndicator progress = ProgressManager.getInstance().getProgressIndicator();
+        GitCommitIndex index = GitCommitIndex.getInstance();
+        List<GitCommitIndex.Match> matches = new ArrayList<GitCommitIndex.Match>();
+        for (VirtualFile root : roots) {
+            if (progress != null)
+                progress.setText("Indexing new commits of " + root.getPresentableUrl());
+            GitCommand command = new GitCommand(project, vcs.getSettings(), root);
+            command.setTimeout(0);      // the first update reads the whole history, the user can cancel it
+            index.update(command, root);
+            matches.addAll(index.search(root, query, MAX_RESULTS));
+        }
+        Collections.sort(matches, new Comparator<GitCommitIndex.Match>() {
+            public int compare(GitCommitIndex.Match m1, GitCommitIndex.Match m2) {
+                return m2.getDate().compareTo(m1.getDate());
+            }
+        });
+        if (matches.size() > MAX_RESULTS)
+            matches = matches.subList(0, MAX_RESULTS);
+
+        if (progress != null)
+            progress.setText("Loading matching commits");
+        Map<VirtualFile, List<String>> idsByRoot = new HashMap<VirtualFile, List<String>>();
+        for (GitCommitIndex.Match match : matches) {
+            List<String> ids = idsByRoot.get(match.getRoot());
+            if (ids == null) {
+                ids = new ArrayList<String>();
+                idsByRoot.put(match.getRoot(), ids);
+            }
+            ids.add(match.getCommitId());
+        }
+        Map<String, GitCommitChangeList> loaded = new HashMap<String, GitCommitChangeList>();
+        for (Map.Entry<VirtualFile, List<String>> entry : idsByRoot.entrySet()) {
+            for (GitCommitChangeList changeList : vcs.getGitCommittedChangesProvider().getChangeLists(entry.getKey(), entry.getValue()))
+                loaded.put(changeList.getCommitId(), changeList);
+        }
+        List<GitCommitChangeList> result = new ArrayList<GitCommitChangeList>(matches.size());
+        for (GitCommitIndex.Match match : matches) {
+            GitCommitChangeList changeList = loaded.get(match.getCommitId());
+            if (changeList != null)
+                result.add(changeList);
+        }
+        return result;
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent event) {
+        Project project = event.getData(DataKeys.PROJECT);
+        event.getPresentation().setEnabled(project != null
+                && ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(GitVcs.getInstance(project)).length > 0);
+    }
+}
@@ -22,8 +22,8 @@ import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vcs.AbstractVcsHelper;
 import com.intellij.openapi.vcs.VcsDataKeys;
 import com.intellij.openapi.vcs.VcsException;
-import com.intellij.openapi.vcs.changes.Change;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsRunnable;
 import com.intellij.vcsUtil.VcsUtil;
 import git4idea.i18n.GitBundle;
@@ -31,9 +31,6 @@ import git4idea.changes.GitCommitChangeList;
 import git4idea.vfs.GitFileRevision;
 import git4idea.vfs.GitRevisionNumber;
 import git4idea.GitVcs;
-import git4idea.commands.GitCommand;
-
-import java.util.Collection;
 
 /**
  * IDEA action that shows all files changed in the given revision.
@@ -76,12 +73,9 @@ public class ShowAllSubmittedFiles extends AnAction {
 
             final boolean result = VcsUtil.runVcsProcessWithProgress(new VcsRunnable() {
                 public void run() throws VcsException {
-                    GitCommand command = new GitCommand(proj, GitVcs.getInstance(project).getSettings(),
-                            VcsUtil.getVcsRootFor(project, gfr.getFilePath()));
-                    Collection<Change> changes = command.getChangesForCommit(revisionNumber.getRev());
-
                     GitVcs vcs = GitVcs.getInstance(proj);
-                    cl.set(new GitCommitChangeList(vcs, gitRevision, changes));
+                    VirtualFile root = VcsUtil.getVcsRootFor(project, gfr.getFilePath());
+                    cl.set(vcs.getGitCommittedChangesProvider().getChangeList(root, revisionNumber.getRev()));
                 }
             }, GitBundle.message("show.all.files.from.change.list.searching.for.changed.files.progress.title"), true, project);
             if (result) {
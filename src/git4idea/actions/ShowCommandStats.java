@@ -0,0 +1,40 @@
+package git4idea.actions;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.DataKeys;
+import com.intellij.openapi.project.Project;
+import git4idea.GitVcs;
+import git4idea.commands.GitCommandStats;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Dumps the git command execution statistics to the version control console. Holding shift resets them afterwards,
+ * so the cost of a single refresh or commit can be measured.
+ */
+public class ShowCommandStats extends AnAction {
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent event) {
+        Project project = event.getData(DataKeys.PROJECT);
+        if (project == null) return;
+        GitVcs.getInstance(project).showMessages(GitCommandStats.dump());
+        if (event.getInputEvent() != null && event.getInputEvent().isShiftDown())
+            GitCommandStats.reset();
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent event) {
+        event.getPresentation().setEnabled(event.getData(DataKeys.PROJECT) != null);
+    }
+}
@@ -16,12 +16,18 @@ package git4idea.actions;
 import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.util.Ref;
 import com.intellij.openapi.vcs.AbstractVcs;
+import com.intellij.openapi.vcs.AbstractVcsHelper;
 import com.intellij.openapi.vcs.ProjectLevelVcsManager;
 import com.intellij.openapi.vcs.VcsException;
 import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsRunnable;
+import com.intellij.vcsUtil.VcsUtil;
 import git4idea.GitUtil;
 import git4idea.GitVcs;
+import git4idea.changes.GitCommitChangeList;
+import git4idea.changes.GitStashService;
 import git4idea.commands.GitCommand;
 import git4idea.commands.GitCommandRunnable;
 import org.jetbrains.annotations.NotNull;
@@ -42,19 +48,30 @@ public class Unstash extends BasicAction {
 
         final Set<VirtualFile> roots = GitUtil.getVcsRootsForFiles(project, affectedFiles);
 
+        GitStashService stashService = GitStashService.getInstance(project);
         for (VirtualFile root : roots) {
-            GitCommand command = new GitCommand(project, vcs.getSettings(), root);
-            String[] stashList = command.stashList();
-            if (stashList == null || stashList.length == 0) continue;
+            List<GitStashService.StashEntry> stashes = stashService.getStashes(root);
+            if (stashes.size() == 0) continue;
+            String[] stashList = new String[stashes.size()];
+            for (int i = 0; i < stashList.length; i++)
+                stashList[i] = stashes.get(i).toString();
             int stashIndex = Messages.showChooseDialog("Select stash to restore: ",
                     "UnStash Changes for " + root.getPath(), stashList, stashList[0], Messages.getQuestionIcon());
             if (stashIndex < 0)
                 continue;
+            GitStashService.StashEntry stash = stashes.get(stashIndex);
+
+            int choice;
+            while ((choice = Messages.showDialog(project, "Restore " + stash + "?", "UnStash Changes for " + root.getPath(),
+                    new String[]{"Apply", "Preview", "Cancel"}, 0, Messages.getQuestionIcon())) == 1) {
+                preview(project, root, stash);
+            }
+            if (choice != 0)
+                continue;
 
             GitCommandRunnable cmdr = new GitCommandRunnable(project, vcs.getSettings(), root);
             cmdr.setCommand(GitCommand.STASH_CMD);
-            String stashName = stashList[stashIndex].split(":")[0];
-            cmdr.setArgs(new String[]{"apply", stashName});
+            cmdr.setArgs(new String[]{"apply", stash.getName()});
 
             ProgressManager manager = ProgressManager.getInstance();
             //TODO: make this async so the git command output can be seen in the version control window as it happens...
@@ -68,6 +85,29 @@ public class Unstash extends BasicAction {
         }
     }
 
+    /**
+     * Shows the changes recorded by a stash, without applying it.
+     */
+    private static void preview(final Project project, final VirtualFile root, final GitStashService.StashEntry stash) {
+        final Ref<GitCommitChangeList> changeList = new Ref<GitCommitChangeList>();
+        try {
+            boolean loaded = VcsUtil.runVcsProcessWithProgress(new VcsRunnable() {
+                public void run() throws VcsException {
+                    changeList.set(GitStashService.getInstance(project).getChangeList(root, stash));
+                }
+            }, "Loading " + stash.getName() + "...", true, project);
+            if (loaded)
+                AbstractVcsHelper.getInstance(project).showChangesBrowser(changeList.get(), stash.toString());
+        } catch (VcsException e) {
+            Messages.showErrorDialog(project, e.getMessage(), "Error occurred loading " + stash.getName());
+        }
+    }
+
+    @Override
+    protected boolean refreshesFromHead() {
+        return true;
+    }
+
     @NotNull
     protected String getActionName(@NotNull AbstractVcs abstractvcs) {
         return "UnStash";
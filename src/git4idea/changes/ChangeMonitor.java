@@ -157,8 +157,8 @@ public class ChangeMonitor extends Thread {
                     GitVcs.getInstance(project).showMessages("DEBUG: ChangeMonitor root:" + root.getName());
                 }
                 final GitCommand cmd = new GitCommand(project, settings, root);
-                uncachedFiles.put(root, cmd.gitUnCachedFiles());
-                otherFiles.put(root, cmd.gitOtherFiles());
+                uncachedFiles.put(root, GitStatCache.getInstance(project).getUncachedFiles(root, cmd));
+                otherFiles.put(root, GitUntrackedFiles.getInstance(project).getUntrackedFiles(root, cmd));
                 //ignoredFiles.put(root, cmd.gitIgnoredFiles());
             }
             Thread.sleep(5000);
@@ -0,0 +1,221 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.RuntimeInterruptedException;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitVcs;
+import git4idea.commands.GitCommand;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Periodically fetches every Git VCS root in the background, so remote-tracking refs stay fresh. Fetch intervals are
+ * jittered so several projects & roots don't hit a server in lock step, and back off exponentially while a root keeps
+ * failing (e.g. offline). Only refs which actually moved are published to the registered {@link GitRefListener}s.
+ */
+public class FetchMonitor extends Thread {
+    private static final Logger LOG = Logger.getInstance("#git4idea.changes.FetchMonitor");
+    private static final Map<Project, FetchMonitor> instances = new HashMap<Project, FetchMonitor>();
+    private static final long IDLE_INTERVAL = 60 * 1000L;  // re-check the settings when auto-fetch is disabled
+    private static final int MAX_BACKOFF_SHIFT = 4;         // back off to at most 16 times the interval
+    private static final double JITTER = 0.2;
+    private static final String[] REF_PATTERNS = {"refs/remotes", "refs/tags"};
+
+    private final Project project;
+    private final Map<VirtualFile, RootState> states = new HashMap<VirtualFile, RootState>();
+    private final List<GitRefListener> listeners = new CopyOnWriteArrayList<GitRefListener>();
+    private final Random random = new Random();
+    private GitVcsSettings settings;
+    private volatile boolean running = false;
+
+    public static synchronized FetchMonitor getInstance(Project proj) {
+        FetchMonitor monitor = instances.get(proj);
+        if (monitor == null) {
+            monitor = new FetchMonitor(proj);
+            instances.put(proj, monitor);
+        }
+        return monitor;
+    }
+
+    public static synchronized void removeInstance(Project proj) {
+        instances.remove(proj);
+    }
+
+    /**
+     * Create a Git fetch monitor thread.
+     *
+     * @param project the VCS project to fetch for
+     */
+    private FetchMonitor(Project project) {
+        super("FetchMonitor");
+        setDaemon(true);
+        setPriority(Thread.MIN_PRIORITY);
+        this.project = project;
+    }
+
+    /**
+     * Halt the fetch monitor
+     */
+    public void stopRunning() {
+        running = false;
+        interrupt();
+    }
+
+    /**
+     * Set the Git VCS settings for this fetch monitor
+     *
+     * @param gsettings The settings to use
+     */
+    public void setGitVcsSettings(GitVcsSettings gsettings) {
+        settings = gsettings;
+    }
+
+    public void addRefListener(@NotNull GitRefListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeRefListener(@NotNull GitRefListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void start() {
+        if (running) return;
+
+        if (project == null || settings == null)
+            throw new IllegalStateException("Project & VCS settings not set!");
+        running = true;
+        super.start();
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    public void run() {
+        while (running) {
+            try {
+                Thread.sleep(fetchDueRoots());
+            } catch (InterruptedException ie) {
+            } catch (RuntimeInterruptedException rie) {
+            } catch (Throwable t) {
+                LOG.error(t);
+            }
+        }
+    }
+
+    /**
+     * Fetches the roots whose next fetch time has passed.
+     *
+     * @return The time in milliseconds until the next root is due
+     * @throws InterruptedException If the monitor was stopped
+     */
+    private long fetchDueRoots() throws InterruptedException {
+        long interval = settings.AUTO_FETCH_INTERVAL * 60 * 1000L;
+        if (interval <= 0)
+            return IDLE_INTERVAL;
+
+        GitVcs vcs = GitVcs.getInstance(project);
+        VirtualFile[] roots = ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(vcs);
+        long now = System.currentTimeMillis();
+        long nextDue = now + interval;
+        for (VirtualFile root : roots) {
+            if (isInterrupted()) throw new InterruptedException("Fetch interrupted!");
+            if (root == null) continue;
+            RootState state = states.get(root);
+            if (state == null) {
+                // spread the first fetches over the interval instead of fetching everything on startup
+                state = new RootState(now + jitter(interval) / 2);
+                states.put(root, state);
+            }
+            if (state.next <= now) {
+                boolean fetched = fetch(root, state);
+                long delay = fetched ? interval << Math.min(state.failures, MAX_BACKOFF_SHIFT) : IDLE_INTERVAL;
+                now = System.currentTimeMillis();
+                state.next = now + jitter(delay);
+            }
+            nextDue = Math.min(nextDue, state.next);
+        }
+        return Math.max(1000L, nextDue - now);
+    }
+
+    private long jitter(long delay) {
+        return (long) (delay * (1 - JITTER + 2 * JITTER * random.nextDouble()));
+    }
+
+    /**
+     * Fetches a root & publishes the refs which moved, unless the user is fetching, pulling or pushing it right now.
+     *
+     * @param root  The VCS root
+     * @param state The fetch schedule of the root
+     * @return False if the root is busy and should be fetched again soon
+     */
+    private boolean fetch(final VirtualFile root, RootState state) {
+        Lock lock = GitCommand.getRemoteLock(root);
+        if (!lock.tryLock())
+            return false;
+        GitCommand command = new GitCommand(project, settings, root);
+        try {
+            Map<String, String> before = command.refs(REF_PATTERNS);
+            command.backgroundFetch();
+            Map<String, String> after = command.refs(REF_PATTERNS);
+            state.failures = 0;
+
+            final Map<String, String> moved = new HashMap<String, String>();
+            for (Map.Entry<String, String> ref : after.entrySet()) {
+                if (!ref.getValue().equals(before.get(ref.getKey())))
+                    moved.put(ref.getKey(), ref.getValue());
+            }
+            for (String ref : before.keySet()) {
+                if (!after.containsKey(ref))
+                    moved.put(ref, null);
+            }
+            if (moved.size() == 0 || listeners.size() == 0) return true;
+
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+                public void run() {
+                    if (project.isDisposed()) return;
+                    for (GitRefListener listener : listeners)
+                        listener.refsMoved(root, moved);
+                }
+            });
+        } catch (VcsException e) {
+            LOG.debug("Background fetch of " + root.getPath() + " failed", e);
+            state.failures++;
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    /**
+     * Fetch schedule of a single VCS root
+     */
+    private static class RootState {
+        long next;
+        int failures = 0;
+
+        RootState(long next) {
+            this.next = next;
+        }
+    }
+}
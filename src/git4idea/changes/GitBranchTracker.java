@@ -0,0 +1,269 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.ProjectLevelVcsManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.WindowManager;
+import git4idea.GitVcs;
+import git4idea.commands.GitCommand;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tracks the incoming & outgoing commits of every local branch against its upstream branch. Results are cached by the
+ * pair of commit ids the two refs point to, so git is only asked again when one of the refs actually moved.
+ */
+public class GitBranchTracker implements GitRefListener {
+    private static final Map<Project, GitBranchTracker> instances = new HashMap<Project, GitBranchTracker>();
+    private static final String HEADS_PREFIX = "refs/heads/";
+    private static final String REMOTES_PREFIX = "refs/remotes/";
+    private static final int MAX_CACHED = 256;
+
+    private final Project project;
+    private final Map<String, Tracking> results = new HashMap<String, Tracking>();
+    private final Map<VirtualFile, Tracking> current = new HashMap<VirtualFile, Tracking>();
+    private String shownInfo = null;    // the status bar text last set, accessed from the event dispatch thread only
+
+    public static synchronized GitBranchTracker getInstance(Project proj) {
+        GitBranchTracker tracker = instances.get(proj);
+        if (tracker == null) {
+            tracker = new GitBranchTracker(proj);
+            instances.put(proj, tracker);
+        }
+        return tracker;
+    }
+
+    public static synchronized void removeInstance(Project proj) {
+        instances.remove(proj);
+    }
+
+    private GitBranchTracker(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Returns the tracking state of every local branch with an upstream branch.
+     *
+     * @param root The VCS root
+     * @return The tracking states, keyed by local branch name
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, Tracking> getTracking(@NotNull VirtualFile root) throws VcsException {
+        GitCommand command = new GitCommand(project, GitVcs.getInstance(project).getSettings(), root);
+        Map<String, String> upstreams = command.upstreams();
+        Map<String, Tracking> tracking = new HashMap<String, Tracking>();
+        if (upstreams.size() == 0) return tracking;
+
+        Map<String, String> refs = command.refs("refs/heads", "refs/remotes");
+        for (Map.Entry<String, String> entry : upstreams.entrySet()) {
+            String localId = refs.get(entry.getKey());
+            String upstreamId = refs.get(entry.getValue());
+            if (localId == null || upstreamId == null) continue;    // upstream not fetched yet
+            Tracking t = getTracking(command, shortName(entry.getKey()), shortName(entry.getValue()), localId, upstreamId);
+            tracking.put(t.getBranch(), t);
+        }
+        return tracking;
+    }
+
+    /**
+     * Returns the tracking state of the checked out branch.
+     *
+     * @param root The VCS root
+     * @return The tracking state, or null if the current branch has no upstream
+     * @throws VcsException If an error occurs
+     */
+    @Nullable
+    public Tracking getCurrentTracking(@NotNull VirtualFile root) throws VcsException {
+        GitCommand command = new GitCommand(project, GitVcs.getInstance(project).getSettings(), root);
+        return getTracking(root).get(command.currentBranch().trim());
+    }
+
+    /**
+     * Describes the tracking state of the checked out branch for a dialog, e.g. "master: 2 ahead, 1 behind origin/master".
+     * This does not run git, so it may be called from the event dispatch thread: the state is the one last computed
+     * by {@link #updateStatusBar()}.
+     *
+     * @param root The VCS root
+     * @return The description followed by a line break, or an empty string if there is nothing to tell
+     */
+    @NotNull
+    public synchronized String describeCurrent(@NotNull VirtualFile root) {
+        Tracking tracking = current.get(root);
+        return tracking == null ? "" : tracking + "\n";
+    }
+
+    private Tracking getTracking(GitCommand command, String branch, String upstream, String localId, String upstreamId)
+            throws VcsException {
+        String key = localId + ":" + upstreamId;
+        synchronized (this) {
+            Tracking cached = results.get(key);
+            if (cached != null && cached.branch.equals(branch) && cached.upstream.equals(upstream))
+                return cached;
+        }
+
+        // ranges exclude everything reachable from the other side, right with criss-cross merges & unrelated histories
+        List<String> outgoing = localId.equals(upstreamId) ? Collections.<String>emptyList() :
+                command.revisionList(upstreamId + ".." + localId, null, null, 0);
+        List<String> incoming = localId.equals(upstreamId) ? Collections.<String>emptyList() :
+                command.revisionList(localId + ".." + upstreamId, null, null, 0);
+        Tracking tracking = new Tracking(branch, upstream, localId, upstreamId, incoming, outgoing);
+        synchronized (this) {
+            if (results.size() >= MAX_CACHED)
+                results.clear();
+            results.put(key, tracking);
+        }
+        return tracking;
+    }
+
+    private static String shortName(String ref) {
+        if (ref.startsWith(HEADS_PREFIX))
+            return ref.substring(HEADS_PREFIX.length());
+        if (ref.startsWith(REMOTES_PREFIX))
+            return ref.substring(REMOTES_PREFIX.length());
+        return ref;
+    }
+
+    public void refsMoved(@NotNull VirtualFile root, @NotNull Map<String, String> moved) {
+        updateStatusBar();
+    }
+
+    /**
+     * Recomputes the tracking state of the checked out branches in the background & shows it in the status bar, or
+     * clears the status bar text shown before when all branches are up to date.
+     */
+    public void updateStatusBar() {
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                final List<String> states = new ArrayList<String>();
+                Map<VirtualFile, Tracking> computed = new HashMap<VirtualFile, Tracking>();
+                GitVcs vcs = GitVcs.getInstance(project);
+                for (VirtualFile root : ProjectLevelVcsManager.getInstance(project).getRootsUnderVcs(vcs)) {
+                    try {
+                        Tracking tracking = getCurrentTracking(root);
+                        if (tracking == null) continue;
+                        computed.put(root, tracking);
+                        if (tracking.getAhead() > 0 || tracking.getBehind() > 0)
+                            states.add(root.getName() + " " + tracking);
+                    } catch (VcsException e) {
+                        // not worth bothering the user, the status bar is informational only
+                    }
+                }
+                synchronized (GitBranchTracker.this) {
+                    current.clear();
+                    current.putAll(computed);
+                }
+                ApplicationManager.getApplication().invokeLater(new Runnable() {
+                    public void run() {
+                        if (project.isDisposed()) return;
+                        StatusBar statusBar = WindowManager.getInstance().getStatusBar(project);
+                        if (statusBar == null) return;
+                        if (states.size() == 0) {
+                            // back in sync, e.g. after a pull or push: drop the stale counts, if still shown
+                            if (shownInfo != null)
+                                statusBar.setInfo("");
+                            shownInfo = null;
+                            return;
+                        }
+                        StringBuilder sb = new StringBuilder("Git:");
+                        for (String state : states)
+                            sb.append(' ').append(state).append(';');
+                        shownInfo = sb.substring(0, sb.length() - 1);
+                        statusBar.setInfo(shownInfo);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Incoming & outgoing commits of a local branch relative to its upstream branch
+     */
+    public static class Tracking {
+        private final String branch;
+        private final String upstream;
+        private final String localId;
+        private final String upstreamId;
+        private final List<String> incoming;
+        private final List<String> outgoing;
+
+        Tracking(String branch, String upstream, String localId, String upstreamId, List<String> incoming,
+                 List<String> outgoing) {
+            this.branch = branch;
+            this.upstream = upstream;
+            this.localId = localId;
+            this.upstreamId = upstreamId;
+            this.incoming = Collections.unmodifiableList(incoming);
+            this.outgoing = Collections.unmodifiableList(outgoing);
+        }
+
+        @NotNull
+        public String getBranch() {
+            return branch;
+        }
+
+        @NotNull
+        public String getUpstream() {
+            return upstream;
+        }
+
+        @NotNull
+        public String getLocalId() {
+            return localId;
+        }
+
+        @NotNull
+        public String getUpstreamId() {
+            return upstreamId;
+        }
+
+        /**
+         * @return The ids of the upstream commits missing locally, newest first
+         */
+        @NotNull
+        public List<String> getIncoming() {
+            return incoming;
+        }
+
+        /**
+         * @return The ids of the local commits missing upstream, newest first
+         */
+        @NotNull
+        public List<String> getOutgoing() {
+            return outgoing;
+        }
+
+        public int getAhead() {
+            return outgoing.size();
+        }
+
+        public int getBehind() {
+            return incoming.size();
+        }
+
+        public String toString() {
+            return branch + ": " + getAhead() + " ahead, " + getBehind() + " behind " + upstream;
+        }
+    }
+}
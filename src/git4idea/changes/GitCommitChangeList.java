@@ -30,6 +30,7 @@ public class GitCommitChangeList implements CommittedChangeList {
     private final GitVcs vcs;
     private final Collection<Change> changes;
     private final String comment;
+    private final String commitId;
 
     public GitCommitChangeList(GitVcs vcs, GitFileRevision gitRevision, Collection<Change> changes) {
         this.vcs = vcs;
@@ -37,6 +38,35 @@ public class GitCommitChangeList implements CommittedChangeList {
         this.commitDate = gitRevision.getRevisionDate();
         this.changes = changes;
         this.comment = gitRevision.getCommitMessage();
+        this.commitId = gitRevision.getRevisionNumber().asString();
+    }
+
+    public GitCommitChangeList(GitVcs vcs, GitCommitRecord record, Collection<Change> changes) {
+        this.vcs = vcs;
+        this.commiterName = record.getAuthor();
+        this.commitDate = record.getDate();
+        this.changes = changes;
+        this.comment = record.getMessage();
+        this.commitId = record.getId();
+    }
+
+    public GitCommitChangeList(GitVcs vcs, String commitId, String author, Date date, String comment,
+                               Collection<Change> changes) {
+        this.vcs = vcs;
+        this.commiterName = author;
+        this.commitDate = date;
+        this.changes = changes;
+        this.comment = comment;
+        this.commitId = commitId;
+    }
+
+    /**
+     * Returns the id of the commit this change list represents.
+     *
+     * @return The commit id
+     */
+    public String getCommitId() {
+        return commitId;
     }
 
     public String getCommitterName() {
@@ -0,0 +1,265 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact, append-only commit graph with an incremental lane layout. Commits must be added children first, as
+ * "git rev-list --topo-order" lists them. Per commit only its binary id & its parents are kept; the lanes crossing
+ * a row are recomputed on demand from a snapshot taken every {@link #CHECKPOINT_INTERVAL} rows, so memory use doesn't
+ * grow with the width of the graph.
+ */
+public class GitCommitGraph {
+    static final int CHECKPOINT_INTERVAL = 256;
+    /* lane state value of a lane not leading to any commit */
+    public static final int FREE = -1;
+
+    /* nodes are all commit ids seen, as a commit or as a parent; rows are the commits in the order added */
+    private final GitCommitIds ids = new GitCommitIds();
+    private int[] rowOfNode = new int[1024];
+
+    private int[] nodeOfRow = new int[1024];
+    private int[] parentStart = new int[1025];
+    private int[] parents = new int[1024];
+    private int rowCount = 0;
+
+    private int[] lanes = new int[0];
+    private final List<int[]> checkpoints = new ArrayList<int[]>();
+    private int maxLanes = 0;
+
+    /* the lanes after the last row laid out on demand, sequential painting continues from there */
+    private int cachedRow = -1;
+    private int[] cachedLanes = null;
+
+    /**
+     * Adds the next commit.
+     *
+     * @param id        The commit id
+     * @param parentIds The ids of its parents
+     */
+    public synchronized void add(@NotNull String id, @NotNull String[] parentIds) {
+        if (rowCount % CHECKPOINT_INTERVAL == 0)
+            checkpoints.add(lanes);
+        int node = intern(id);
+        int[] parentNodes = new int[parentIds.length];
+        for (int i = 0; i < parentIds.length; i++)
+            parentNodes[i] = intern(parentIds[i]);
+
+        if (rowCount == nodeOfRow.length) {
+            nodeOfRow = grow(nodeOfRow);
+            parentStart = grow(parentStart);
+        }
+        while (parentStart[rowCount] + parentNodes.length > parents.length)
+            parents = grow(parents);
+        System.arraycopy(parentNodes, 0, parents, parentStart[rowCount], parentNodes.length);
+        parentStart[rowCount + 1] = parentStart[rowCount] + parentNodes.length;
+        nodeOfRow[rowCount] = node;
+        rowOfNode[node] = rowCount;
+
+        Layout layout = step(lanes, node, parentNodes);
+        lanes = layout.lanesOut;
+        maxLanes = Math.max(maxLanes, Math.max(lanes.length, layout.lane + 1));
+        rowCount++;
+    }
+
+    public synchronized int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return The highest number of lanes of any row so far
+     */
+    public synchronized int getMaxLanes() {
+        return maxLanes;
+    }
+
+    /**
+     * @param row The row
+     * @return The id of the commit shown in the row
+     */
+    @NotNull
+    public synchronized String getId(int row) {
+        return ids.get(nodeOfRow[row]);
+    }
+
+    /**
+     * @param id The commit id
+     * @return The row of the commit, or -1 if it hasn't been added
+     */
+    public synchronized int getRow(@NotNull String id) {
+        int node = ids.find(id);
+        return node < 0 ? -1 : rowOfNode[node];
+    }
+
+    /**
+     * Lays out a single row: the lanes entering it from above, the lane of its commit & the lanes its parent edges
+     * leave through. Rows painted in sequence take a single step each, others at most {@link #CHECKPOINT_INTERVAL}.
+     *
+     * @param row The row
+     * @return The layout
+     */
+    @NotNull
+    public synchronized Layout getLayout(int row) {
+        int[] state;
+        int from;
+        if (cachedLanes != null && cachedRow < row && row - cachedRow <= CHECKPOINT_INTERVAL) {
+            state = cachedLanes;
+            from = cachedRow + 1;
+        } else {
+            state = checkpoints.get(row / CHECKPOINT_INTERVAL);
+            from = row - row % CHECKPOINT_INTERVAL;
+        }
+        for (int r = from; r < row; r++)
+            state = step(state, nodeOfRow[r], parentsOf(r)).lanesOut;
+        Layout layout = step(state, nodeOfRow[row], parentsOf(row));
+        cachedRow = row;
+        cachedLanes = layout.lanesOut;
+        return layout;
+    }
+
+    private int[] parentsOf(int row) {
+        int[] result = new int[parentStart[row + 1] - parentStart[row]];
+        System.arraycopy(parents, parentStart[row], result, 0, result.length);
+        return result;
+    }
+
+    /**
+     * Advances the lane state over one commit. Lanes never move sideways: all lanes leading to the commit end in it,
+     * its first parent continues in the commit's lane, & other parents join a lane already leading to them or start
+     * in the leftmost free lane.
+     */
+    private static Layout step(int[] lanesIn, int node, int[] parentNodes) {
+        int[] out = new int[lanesIn.length + parentNodes.length + 1];
+        System.arraycopy(lanesIn, 0, out, 0, lanesIn.length);
+        for (int i = lanesIn.length; i < out.length; i++)
+            out[i] = FREE;
+
+        int lane = -1;
+        for (int i = 0; i < lanesIn.length; i++) {
+            if (out[i] != node) continue;
+            if (lane < 0) lane = i;
+            out[i] = FREE;
+        }
+        if (lane < 0)
+            lane = indexOf(out, FREE);
+
+        int[] parentLanes = new int[parentNodes.length];
+        for (int k = 0; k < parentNodes.length; k++) {
+            int target = k == 0 ? lane : indexOf(out, parentNodes[k]);
+            if (target < 0)
+                target = indexOf(out, FREE);
+            out[target] = parentNodes[k];
+            parentLanes[k] = target;
+        }
+
+        int len = out.length;
+        while (len > 0 && out[len - 1] == FREE)
+            len--;
+        int[] lanesOut = new int[len];
+        System.arraycopy(out, 0, lanesOut, 0, len);
+        return new Layout(lanesIn, node, lane, parentLanes, lanesOut);
+    }
+
+    private static int indexOf(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value)
+                return i;
+        }
+        return -1;
+    }
+
+    private int intern(String id) {
+        int known = ids.size();
+        int node = ids.intern(id);
+        if (node == known) {
+            if (node == rowOfNode.length)
+                rowOfNode = grow(rowOfNode);
+            rowOfNode[node] = -1;
+        }
+        return node;
+    }
+
+    private static int[] grow(int[] array) {
+        int[] result = new int[array.length * 2];
+        System.arraycopy(array, 0, result, 0, array.length);
+        return result;
+    }
+
+    /**
+     * The lanes of a single row
+     */
+    public static class Layout {
+        private final int[] lanesIn;
+        private final int node;
+        private final int lane;
+        private final int[] parentLanes;
+        private final int[] lanesOut;
+
+        Layout(int[] lanesIn, int node, int lane, int[] parentLanes, int[] lanesOut) {
+            this.lanesIn = lanesIn;
+            this.node = node;
+            this.lane = lane;
+            this.parentLanes = parentLanes;
+            this.lanesOut = lanesOut;
+        }
+
+        /**
+         * @return The lane of the commit
+         */
+        public int getLane() {
+            return lane;
+        }
+
+        /**
+         * @return The number of lanes the row uses
+         */
+        public int getWidth() {
+            return Math.max(Math.max(lanesIn.length, lanesOut.length), lane + 1);
+        }
+
+        /**
+         * @param i The lane
+         * @return True if the lane enters the row from above & ends in the commit
+         */
+        public boolean endsInCommit(int i) {
+            return i < lanesIn.length && lanesIn[i] == node;
+        }
+
+        /**
+         * @param i The lane
+         * @return True if the lane crosses the row without touching the commit
+         */
+        public boolean passesThrough(int i) {
+            return i < lanesIn.length && lanesIn[i] != FREE && lanesIn[i] != node;
+        }
+
+        /**
+         * @return The lanes the edges to the parents leave the row through, first parent first
+         */
+        @NotNull
+        public int[] getParentLanes() {
+            return parentLanes;
+        }
+    }
+
+    /**
+     * Receives the commits of a graph listing, children first
+     */
+    public interface Consumer {
+        void consume(@NotNull String id, @NotNull String[] parentIds);
+    }
+}
@@ -0,0 +1,135 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Numbers commit ids in the order they are first seen. The ids are kept as packed 20 byte binaries with an open
+ * addressing hash over them, about 28 bytes per commit instead of the 100 or so a String in a HashMap takes. Not
+ * thread safe.
+ */
+class GitCommitIds {
+    static final int ID_LENGTH = 20;
+
+    private byte[] ids = new byte[ID_LENGTH * 1024];
+    private int count = 0;
+    private int[] hashTable = new int[2048];        // number + 1, zero for an empty slot
+
+    /**
+     * @param id The commit id
+     * @return The number of the id, numbering it first if it wasn't seen before
+     */
+    int intern(@NotNull String id) {
+        return intern(toBytes(id));
+    }
+
+    /**
+     * @param id The binary commit id
+     * @return The number of the id, numbering it first if it wasn't seen before
+     */
+    int intern(@NotNull byte[] id) {
+        int n = find(id);
+        if (n >= 0) return n;
+
+        if ((count + 1) * 2 > hashTable.length)
+            rehash(hashTable.length * 2);
+        n = count++;
+        if (n * ID_LENGTH == ids.length) {
+            byte[] grown = new byte[ids.length * 2];
+            System.arraycopy(ids, 0, grown, 0, ids.length);
+            ids = grown;
+        }
+        System.arraycopy(id, 0, ids, n * ID_LENGTH, ID_LENGTH);
+        int slot = hash(id, 0) & (hashTable.length - 1);
+        while (hashTable[slot] != 0)
+            slot = (slot + 1) & (hashTable.length - 1);
+        hashTable[slot] = n + 1;
+        return n;
+    }
+
+    /**
+     * @param id The commit id
+     * @return The number of the id, or -1 if it wasn't seen
+     */
+    int find(@NotNull String id) {
+        return id.length() == ID_LENGTH * 2 ? find(toBytes(id)) : -1;
+    }
+
+    /**
+     * @param id The binary commit id
+     * @return The number of the id, or -1 if it wasn't seen
+     */
+    int find(@NotNull byte[] id) {
+        int slot = hash(id, 0) & (hashTable.length - 1);
+        while (hashTable[slot] != 0) {
+            int n = hashTable[slot] - 1;
+            if (equals(id, n))
+                return n;
+            slot = (slot + 1) & (hashTable.length - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * @param n The number of an id
+     * @return The id
+     */
+    @NotNull
+    String get(int n) {
+        int offset = n * ID_LENGTH;
+        StringBuilder sb = new StringBuilder(ID_LENGTH * 2);
+        for (int i = 0; i < ID_LENGTH; i++) {
+            int b = ids[offset + i] & 0xff;
+            sb.append(Character.forDigit(b >> 4, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    int size() {
+        return count;
+    }
+
+    private boolean equals(byte[] id, int n) {
+        int offset = n * ID_LENGTH;
+        for (int i = 0; i < ID_LENGTH; i++) {
+            if (ids[offset + i] != id[i])
+                return false;
+        }
+        return true;
+    }
+
+    private void rehash(int size) {
+        hashTable = new int[size];
+        for (int n = 0; n < count; n++) {
+            int slot = hash(ids, n * ID_LENGTH) & (size - 1);
+            while (hashTable[slot] != 0)
+                slot = (slot + 1) & (size - 1);
+            hashTable[slot] = n + 1;
+        }
+    }
+
+    /* commit ids are uniformly distributed already */
+    private static int hash(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) << 24 | (bytes[offset + 1] & 0xff) << 16 | (bytes[offset + 2] & 0xff) << 8
+                | (bytes[offset + 3] & 0xff);
+    }
+
+    @NotNull
+    static byte[] toBytes(@NotNull String id) {
+        byte[] bytes = new byte[ID_LENGTH];
+        for (int i = 0; i < ID_LENGTH && i * 2 + 1 < id.length(); i++)
+            bytes[i] = (byte) (Character.digit(id.charAt(i * 2), 16) << 4 | Character.digit(id.charAt(i * 2 + 1), 16));
+        return bytes;
+    }
+}
@@ -0,0 +1,626 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Full-text index of the history of every VCS root: the message words, author, date & touched paths of each commit,
+ * keyed by commit id. An update only walks the commits reachable from refs that appeared or moved since the last
+ * one, and appends them to a per-root file under the IDEA system directory, so the history is read from git once.
+ * Searches intersect delta-encoded posting lists in memory and don't run git at all. The in-memory index of a root
+ * is only softly reachable between searches: it is dropped under memory pressure or when its project closes, and
+ * read back from the file by the next search.
+ */
+public class GitCommitIndex {
+    private static final int MAGIC = 0x47495449; // "GITI"
+    private static final int VERSION = 1;
+    private static final byte COMMIT_RECORD = 1;
+    private static final byte TIPS_RECORD = 2;
+    private static final byte TERM_RECORD = 3;
+    /* terms are prefixed with the field they were found in */
+    private static final char MESSAGE = 'm';
+    private static final char AUTHOR = 'a';
+    private static final char PATH = 'p';
+    private static final int MAX_WORD_LENGTH = 64;
+    private static final GitCommitIndex instance = new GitCommitIndex();
+
+    private final File indexDir;
+    private final Map<String, SoftReference<RootIndex>> roots = new HashMap<String, SoftReference<RootIndex>>();
+
+    public static GitCommitIndex getInstance() {
+        return instance;
+    }
+
+    private GitCommitIndex() {
+        indexDir = new File(PathManager.getSystemPath(), "git4idea" + File.separator + "index");
+    }
+
+    /**
+     * Indexes the commits reachable from the refs (& HEAD) of a VCS root which aren't indexed yet. The first update
+     * of a root reads its whole history; commits read before a cancel are kept.
+     *
+     * @param command The git command for the root
+     * @param root    The VCS root
+     * @throws VcsException If the history could not be read
+     */
+    public void update(@NotNull GitCommand command, @NotNull VirtualFile root) throws VcsException {
+        final RootIndex index = getRootIndex(root);
+        synchronized (index) {
+            Set<String> tips = new HashSet<String>(command.refs("refs/heads", "refs/remotes", "refs/tags").values());
+            String[] head = command.headIds();
+            if (head != null)
+                tips.add(head[0]);
+            Set<String> include = new HashSet<String>(tips);
+            include.removeAll(index.tips);
+            if (include.size() == 0) return;
+
+            GitCommitRecord.Consumer consumer = new GitCommitRecord.Consumer() {
+                public void consume(@NotNull GitCommitRecord record) {
+                    index.add(record);
+                }
+            };
+            index.beginAppend();
+            try {
+                try {
+                    command.reachableCommitRecords(include, index.tips, consumer);
+                } catch (VcsException e) {
+                    // tips indexed earlier may be gone (e.g. a deleted & garbage collected branch), exclude the
+                    // current refs only; commits already indexed are skipped
+                    Set<String> exclude = new HashSet<String>(index.tips);
+                    exclude.retainAll(tips);
+                    if (exclude.size() == index.tips.size()) throw e;
+                    command.reachableCommitRecords(include, exclude, consumer);
+                }
+                index.setTips(tips);
+            } finally {
+                index.endAppend();
+            }
+        }
+    }
+
+    /**
+     * Searches the indexed commits of a VCS root. Words must all match, each in the message, the author or a touched
+     * path (a file name, a directory or a full path relative to the root). "author:" & "path:" restrict a word to
+     * one field; "after:yyyy-mm-dd" & "before:yyyy-mm-dd" restrict the commit date.
+     *
+     * @param root       The VCS root
+     * @param query      The query
+     * @param maxResults The maximum number of matches to return
+     * @return The newest matching commits, newest first
+     * @throws VcsException If the query is malformed
+     */
+    @NotNull
+    public List<Match> search(@NotNull VirtualFile root, @NotNull String query, int maxResults) throws VcsException {
+        List<String[]> clauses = new ArrayList<String[]>();
+        int after = Integer.MIN_VALUE;
+        int before = Integer.MAX_VALUE;
+        for (String token : query.trim().split("\\s+")) {
+            String lower = token.toLowerCase();
+            List<String> words = new ArrayList<String>();
+            if (lower.startsWith("author:")) {
+                addWords(words, AUTHOR, lower.substring("author:".length()));
+                for (String word : words)
+                    clauses.add(new String[]{word});
+            } else if (lower.startsWith("path:")) {
+                String path = lower.substring("path:".length()).replaceAll("^/+|/+$", "");
+                if (path.length() > 0)
+                    clauses.add(new String[]{PATH + path});
+            } else if (lower.startsWith("after:")) {
+                after = Math.max(after, parseDate(token.substring("after:".length())));
+            } else if (lower.startsWith("before:")) {
+                before = Math.min(before, parseDate(token.substring("before:".length())));
+            } else {
+                addWords(words, MESSAGE, lower);
+                for (String word : words) {
+                    String text = word.substring(1);
+                    clauses.add(new String[]{word, AUTHOR + text, PATH + text});
+                }
+            }
+        }
+        if (clauses.size() == 0 && after == Integer.MIN_VALUE && before == Integer.MAX_VALUE)
+            return new ArrayList<Match>();
+
+        RootIndex index = getRootIndex(root);
+        synchronized (index) {
+            return index.search(root, clauses, after, before, maxResults);
+        }
+    }
+
+    private static int parseDate(String date) throws VcsException {
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd");
+            format.setLenient(false);
+            return (int) (format.parse(date).getTime() / 1000);
+        } catch (ParseException e) {
+            throw new VcsException("Invalid date, expected yyyy-mm-dd: " + date);
+        }
+    }
+
+    /**
+     * Drops the in-memory index of the specified VCS roots, e.g. when their project is closed. The index files are
+     * kept.
+     *
+     * @param vcsRoots The VCS roots
+     */
+    public synchronized void forgetRoots(@NotNull VirtualFile[] vcsRoots) {
+        for (VirtualFile root : vcsRoots)
+            roots.remove(root.getPath());
+    }
+
+    private synchronized RootIndex getRootIndex(VirtualFile root) {
+        String path = root.getPath();
+        SoftReference<RootIndex> ref = roots.get(path);
+        RootIndex index = ref != null ? ref.get() : null;
+        if (index == null) {
+            String name = Integer.toHexString(path.hashCode()) + "_" + root.getName() + ".index";
+            index = new RootIndex(new File(indexDir, name), path);
+            index.load();
+            roots.put(path, new SoftReference<RootIndex>(index));
+        }
+        return index;
+    }
+
+    /**
+     * Splits text into lower case words of letters & digits, at least 2 characters long.
+     */
+    private static void addWords(Collection<String> terms, char field, String text) {
+        String lower = text.toLowerCase();
+        int start = -1;
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean inWord = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                if (i - start > 1 && i - start <= MAX_WORD_LENGTH)
+                    terms.add(field + lower.substring(start, i));
+                start = -1;
+            }
+        }
+    }
+
+    /**
+     * Adds the full path, every directory on it, the file name & the words of the file name.
+     */
+    private static void addPath(Collection<String> terms, String path) {
+        String lower = path.toLowerCase();
+        for (int slash = lower.indexOf('/'); slash >= 0; slash = lower.indexOf('/', slash + 1))
+            terms.add(PATH + lower.substring(0, slash));
+        terms.add(PATH + lower);
+        String name = lower.substring(lower.lastIndexOf('/') + 1);
+        terms.add(PATH + name);
+        addWords(terms, PATH, name);
+    }
+
+    /**
+     * A commit matching a search
+     */
+    public static class Match {
+        private final VirtualFile root;
+        private final String commitId;
+        private final Date date;
+
+        Match(VirtualFile root, String commitId, Date date) {
+            this.root = root;
+            this.commitId = commitId;
+            this.date = date;
+        }
+
+        @NotNull
+        public VirtualFile getRoot() {
+            return root;
+        }
+
+        @NotNull
+        public String getCommitId() {
+            return commitId;
+        }
+
+        /**
+         * @return The commit date
+         */
+        @NotNull
+        public Date getDate() {
+            return date;
+        }
+    }
+
+    /**
+     * Ascending commit numbers, stored as variable length deltas
+     */
+    private static class Postings {
+        private final int number;
+        private byte[] data = new byte[4];
+        private int length = 0;
+        private int count = 0;
+        private int last = -1;
+
+        private static byte[] grow(byte[] array, int length) {
+            byte[] result = new byte[length];
+            System.arraycopy(array, 0, result, 0, array.length);
+            return result;
+        }
+
+        Postings(int number) {
+            this.number = number;
+        }
+
+        void add(int n) {
+            if (n == last) return;
+            if (length + 5 > data.length)
+                data = grow(data, data.length * 2);
+            int delta = n - last;
+            while (delta >= 0x80) {
+                data[length++] = (byte) (delta | 0x80);
+                delta >>>= 7;
+            }
+            data[length++] = (byte) delta;
+            last = n;
+            count++;
+        }
+
+        int[] decode() {
+            int[] result = new int[count];
+            int n = -1;
+            int pos = 0;
+            for (int i = 0; i < count; i++) {
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[pos++];
+                    delta |= (b & 0x7f) << shift;
+                    shift += 7;
+                } while (b < 0);
+                n += delta;
+                result[i] = n;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * The index of a single VCS root
+     */
+    private static class RootIndex {
+        private final File file;
+        private final String rootPath;
+        private final GitCommitIds ids = new GitCommitIds();
+        private int[] dates = new int[1024];
+        private final Map<String, Postings> terms = new HashMap<String, Postings>();
+        /* the terms by number, the index file refers to them by number after their first use */
+        private final List<Postings> termList = new ArrayList<Postings>();
+        private final List<String> termNames = new ArrayList<String>();
+        private int writtenTerms = 0;
+        private Set<String> tips = new HashSet<String>();
+        private DataOutputStream out = null;
+
+        RootIndex(File file, String rootPath) {
+            this.file = file;
+            this.rootPath = rootPath;
+        }
+
+        void add(GitCommitRecord record) {
+            byte[] id = GitCommitIds.toBytes(record.getId());
+            if (ids.find(id) >= 0) return;
+            Set<String> commitTerms = new HashSet<String>();
+            addWords(commitTerms, MESSAGE, record.getMessage());
+            addWords(commitTerms, AUTHOR, record.getAuthor());
+            for (GitCommitRecord.Entry entry : record.getEntries()) {
+                addPath(commitTerms, entry.getPath());
+                if (entry.getNewPath() != null)
+                    addPath(commitTerms, entry.getNewPath());
+            }
+            int date = (int) (record.getDate().getTime() / 1000);
+            int[] termNumbers = new int[commitTerms.size()];
+            int i = 0;
+            for (String term : commitTerms)
+                termNumbers[i++] = getTermNumber(term);
+            add(id, date, termNumbers);
+            append(id, date, termNumbers);
+        }
+
+        private int getTermNumber(String term) {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                postings = new Postings(termList.size());
+                terms.put(term, postings);
+                termList.add(postings);
+                termNames.add(term);
+            }
+            return postings.number;
+        }
+
+        private void add(byte[] id, int date, int[] termNumbers) {
+            int n = ids.intern(id);
+            if (n == dates.length)
+                dates = resize(dates, dates.length * 2);
+            dates[n] = date;
+            for (int term : termNumbers)
+                termList.get(term).add(n);
+        }
+
+        List<Match> search(VirtualFile root, List<String[]> clauses, int after, int before, int maxResults) {
+            // intersect the clauses, each the union of its alternatives, rarest first
+            int[] result = null;
+            List<int[]> sorted = new ArrayList<int[]>();
+            for (String[] clause : clauses) {
+                int[] union = new int[0];
+                for (String term : clause) {
+                    Postings postings = terms.get(term);
+                    if (postings != null)
+                        union = union(union, postings.decode());
+                }
+                sorted.add(union);
+            }
+            int[][] lists = sorted.toArray(new int[sorted.size()][]);
+            Arrays.sort(lists, new Comparator<int[]>() {
+                public int compare(int[] a, int[] b) {
+                    return a.length - b.length;
+                }
+            });
+            for (int[] list : lists) {
+                result = result == null ? list : intersect(result, list);
+                if (result.length == 0) break;
+            }
+
+            // newest first: sort by date, then by commit number
+            int size = result != null ? result.length : ids.size();
+            long[] keys = new long[size];
+            int count = 0;
+            for (int i = 0; i < size; i++) {
+                int n = result != null ? result[i] : i;
+                if (dates[n] < after || dates[n] >= before) continue;
+                keys[count++] = (long) dates[n] << 32 | n;
+            }
+            Arrays.sort(keys, 0, count);
+            List<Match> matches = new ArrayList<Match>();
+            for (int i = count - 1; i >= 0 && matches.size() < maxResults; i--) {
+                int n = (int) keys[i];
+                matches.add(new Match(root, ids.get(n), new Date(dates[n] * 1000L)));
+            }
+            return matches;
+        }
+
+        private static int[] union(int[] a, int[] b) {
+            if (a.length == 0) return b;
+            int[] result = new int[a.length + b.length];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length || j < b.length) {
+                int n = j == b.length || (i < a.length && a[i] <= b[j]) ? a[i] : b[j];
+                if (i < a.length && a[i] == n) i++;
+                if (j < b.length && b[j] == n) j++;
+                result[k++] = n;
+            }
+            return resize(result, k);
+        }
+
+        private static int[] intersect(int[] a, int[] b) {
+            int[] result = new int[Math.min(a.length, b.length)];
+            int i = 0, j = 0, k = 0;
+            while (i < a.length && j < b.length) {
+                if (a[i] < b[j]) i++;
+                else if (a[i] > b[j]) j++;
+                else {
+                    result[k++] = a[i];
+                    i++;
+                    j++;
+                }
+            }
+            return resize(result, k);
+        }
+
+        void setTips(Set<String> tips) {
+            this.tips = tips;
+            if (out == null) return;
+            try {
+                out.writeByte(TIPS_RECORD);
+                out.writeInt(tips.size());
+                for (String tip : tips)
+                    out.write(GitCommitIds.toBytes(tip));
+            } catch (IOException e) {
+                discardFile();
+            }
+        }
+
+        void beginAppend() {
+            try {
+                boolean newFile = !file.exists() || file.length() == 0;
+                if (newFile && ids.size() > 0)
+                    return;     // the file was discarded this session, it would miss what is indexed already
+                if (newFile)
+                    file.getParentFile().mkdirs();
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+                if (newFile) {
+                    out.writeInt(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeUTF(rootPath);
+                }
+            } catch (IOException e) {
+                discardFile();
+            }
+        }
+
+        private void append(byte[] id, int date, int[] termNumbers) {
+            if (out == null) return;
+            try {
+                for (; writtenTerms < termNames.size(); writtenTerms++) {
+                    out.writeByte(TERM_RECORD);
+                    out.writeUTF(termNames.get(writtenTerms));
+                }
+                out.writeByte(COMMIT_RECORD);
+                out.write(id);
+                out.writeInt(date);
+                writeVarInt(out, termNumbers.length);
+                for (int term : termNumbers)
+                    writeVarInt(out, term);
+            } catch (IOException e) {
+                discardFile();
+            }
+        }
+
+        void endAppend() {
+            if (out == null) return;
+            try {
+                out.close();
+                out = null;
+            } catch (IOException e) {
+                discardFile();
+            }
+        }
+
+        /**
+         * Gives up persisting the index after a write error; it is rebuilt from git next session.
+         */
+        @SuppressWarnings({"EmptyCatchBlock"})
+        private void discardFile() {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {}
+            out = null;
+            file.delete();
+        }
+
+        @SuppressWarnings({"EmptyCatchBlock"})
+        void load() {
+            if (!file.exists()) return;
+            long validLength = 0;
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(rootPath)) {
+                    in.close();
+                    in = null;
+                    file.delete();
+                    return;
+                }
+                validLength = file.length() - in.available();
+                byte[] id = new byte[GitCommitIds.ID_LENGTH];
+                while (true) {
+                    byte type = in.readByte();
+                    if (type == TERM_RECORD) {
+                        getTermNumber(in.readUTF());
+                        writtenTerms = termList.size();
+                    } else if (type == COMMIT_RECORD) {
+                        in.readFully(id);
+                        int date = in.readInt();
+                        int[] termNumbers = new int[readVarInt(in)];
+                        for (int i = 0; i < termNumbers.length; i++) {
+                            termNumbers[i] = readVarInt(in);
+                            if (termNumbers[i] >= termList.size())
+                                throw new IOException("Unknown term " + termNumbers[i]);
+                        }
+                        if (ids.find(id) < 0)
+                            add(id.clone(), date, termNumbers);
+                    } else if (type == TIPS_RECORD) {
+                        Set<String> loaded = new HashSet<String>();
+                        for (int n = in.readInt(); n > 0; n--) {
+                            in.readFully(id);
+                            loaded.add(toHex(id));
+                        }
+                        tips = loaded;
+                    } else {
+                        break;
+                    }
+                    validLength = file.length() - in.available();
+                }
+            } catch (EOFException e) {
+                // end of file, or a record truncated by a crash: cut it off below
+            } catch (IOException e) {
+            } finally {
+                try {
+                    if (in != null) in.close();
+                } catch (IOException e) {}
+            }
+            truncate(validLength);
+        }
+
+        @SuppressWarnings({"EmptyCatchBlock"})
+        private void truncate(long validLength) {
+            if (file.length() <= validLength) return;
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(validLength);
+            } catch (IOException e) {
+                file.delete();
+            } finally {
+                try {
+                    if (raf != null) raf.close();
+                } catch (IOException e) {}
+            }
+        }
+
+        private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+            while ((value & ~0x7f) != 0) {
+                out.writeByte(value & 0x7f | 0x80);
+                value >>>= 7;
+            }
+            out.writeByte(value);
+        }
+
+        private static int readVarInt(DataInputStream in) throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = in.readByte();
+                value |= (b & 0x7f) << shift;
+                if (b >= 0)
+                    return value;
+            }
+            throw new IOException("Malformed number");
+        }
+
+        private static int[] resize(int[] array, int length) {
+            int[] result = new int[length];
+            System.arraycopy(array, 0, result, 0, Math.min(array.length, length));
+            return result;
+        }
+
+        private static String toHex(byte[] id) {
+            StringBuilder sb = new StringBuilder(40);
+            for (byte b : id) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+                sb.append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        }
+    }
+}
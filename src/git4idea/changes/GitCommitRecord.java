@@ -0,0 +1,329 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.vfs.GitContentRevision;
+import git4idea.vfs.GitRevisionNumber;
+import git4idea.vfs.GitVirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable commit header & raw change entries, as parsed from "git log --raw -z" output.
+ */
+public class GitCommitRecord {
+    public static final String ENCODING = "UTF-8";
+    public static final byte RECORD_START = 1;
+    /** The git log pretty format matching {@link #parse(byte[], int)}, every record starts with a 0x01 byte */
+    public static final String LOG_FORMAT = "%x01%H%x00%P%x00%an <%ae>%x00%ct%x00%B%x00";
+
+    private final String id;
+    private final String[] parents;
+    private final String author;
+    private final long date;
+    private final String message;
+    private final List<Entry> entries;
+
+    public GitCommitRecord(@NotNull String id, @NotNull String[] parents, @NotNull String author, long date,
+                           @NotNull String message, @NotNull List<Entry> entries) {
+        this.id = id;
+        this.parents = parents;
+        this.author = author;
+        this.date = date;
+        this.message = message;
+        this.entries = entries;
+    }
+
+    @NotNull
+    public String getId() {
+        return id;
+    }
+
+    @NotNull
+    public String[] getParents() {
+        return parents;
+    }
+
+    @NotNull
+    public String getAuthor() {
+        return author;
+    }
+
+    @NotNull
+    public Date getDate() {
+        return new Date(date);
+    }
+
+    @NotNull
+    public String getMessage() {
+        return message;
+    }
+
+    @NotNull
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Builds the IDEA changes for this commit.
+     *
+     * @param project The project
+     * @param vcsRoot The VCS root the commit belongs to
+     * @return The list of changes
+     */
+    @NotNull
+    public List<Change> createChanges(@NotNull Project project, @NotNull VirtualFile vcsRoot) {
+        List<Change> changes = new ArrayList<Change>(entries.size());
+        GitRevisionNumber revision = new GitRevisionNumber(id, getDate());
+        GitRevisionNumber parentRevision = parents.length > 0 ? new GitRevisionNumber(parents[0]) : null;
+        String basePath = vcsRoot.getPath() + "/";
+
+        for (Entry entry : entries) {
+            ContentRevision before = null;
+            ContentRevision after = null;
+            FileStatus fileStatus;
+            GitVirtualFile file = new GitVirtualFile(project, basePath + entry.path);
+
+            switch (entry.status) {
+                case 'A':
+                    after = new GitContentRevision(file, revision, project);
+                    fileStatus = FileStatus.ADDED;
+                    break;
+                case 'D':
+                    if (parentRevision != null)
+                        before = new GitContentRevision(file, parentRevision, project);
+                    fileStatus = FileStatus.DELETED;
+                    break;
+                case 'R':
+                case 'C':
+                    if (parentRevision != null)
+                        before = new GitContentRevision(file, parentRevision, project);
+                    after = new GitContentRevision(new GitVirtualFile(project, basePath + entry.newPath), revision, project);
+                    fileStatus = FileStatus.MODIFIED;
+                    break;
+                default:
+                    if (parentRevision != null)
+                        before = new GitContentRevision(file, parentRevision, project);
+                    after = new GitContentRevision(file, revision, project);
+                    fileStatus = FileStatus.MODIFIED;
+            }
+            changes.add(new Change(before, after, fileStatus));
+        }
+        return changes;
+    }
+
+    /**
+     * Parses a single commit record (without the leading 0x01 marker) produced with {@link #LOG_FORMAT}.
+     *
+     * @param buf The record bytes
+     * @param len The number of valid bytes in the buffer
+     * @return The parsed record
+     * @throws IOException If the record is malformed
+     */
+    @NotNull
+    public static GitCommitRecord parse(@NotNull byte[] buf, int len) throws IOException {
+        List<String> tokens = tokenize(buf, len);
+        if (tokens.size() < 5)
+            throw new IOException("Framing error: unexpected number of commit fields");
+
+        String id = tokens.get(0);
+        String parentStr = tokens.get(1).trim();
+        String[] parents = parentStr.length() == 0 ? new String[0] : parentStr.split(" ");
+        long date = Long.parseLong(tokens.get(3).trim()) * 1000;
+        String message = tokens.get(4).trim();
+
+        List<Entry> entries = parseEntries(tokens, 5);
+        return new GitCommitRecord(id, parents, tokens.get(2), date, message, Collections.unmodifiableList(entries));
+    }
+
+    /**
+     * Parses the NUL separated raw change entries of "git diff-tree -r -z" output.
+     *
+     * @param buf The output bytes
+     * @param len The number of valid bytes in the buffer
+     * @return The change entries
+     * @throws IOException If the output is malformed
+     */
+    @NotNull
+    public static List<Entry> parseRawEntries(@NotNull byte[] buf, int len) throws IOException {
+        return parseEntries(tokenize(buf, len), 0);
+    }
+
+    private static List<String> tokenize(byte[] buf, int len) throws UnsupportedEncodingException {
+        List<String> tokens = new ArrayList<String>();
+        int start = 0;
+        for (int i = 0; i < len; i++) {
+            if (buf[i] == 0) {
+                tokens.add(decode(buf, start, i));
+                start = i + 1;
+            }
+        }
+        if (start < len)
+            tokens.add(decode(buf, start, len));
+        return tokens;
+    }
+
+    private static List<Entry> parseEntries(List<String> tokens, int first) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (int i = first; i < tokens.size(); i++) {
+            String meta = tokens.get(i).trim();
+            if (meta.length() == 0) continue;
+            if (meta.charAt(0) != ':' || i + 1 >= tokens.size())
+                throw new IOException("Framing error: unexpected raw entry: " + meta);
+
+            // format for meta is: ":100644 100644 <before-blob> <after-blob> <status>[<similarity>]"
+            String[] values = meta.split(" ");
+            if (values.length < 5)
+                throw new IOException("Framing error: unexpected raw entry: " + meta);
+            char status = values[4].charAt(0);
+            String path = tokens.get(++i);
+            String newPath = null;
+            if ((status == 'R' || status == 'C') && i + 1 < tokens.size())
+                newPath = tokens.get(++i);
+            entries.add(new Entry(status, values[2], values[3], path, newPath));
+        }
+        return entries;
+    }
+
+    /**
+     * Reads a record written by {@link #write(DataOutput)}.
+     */
+    @NotNull
+    public static GitCommitRecord read(@NotNull DataInput in) throws IOException {
+        String id = in.readUTF();
+        String[] parents = new String[in.readByte()];
+        for (int i = 0; i < parents.length; i++)
+            parents[i] = in.readUTF();
+        String author = in.readUTF();
+        long date = in.readLong();
+        String message = readLongString(in);
+
+        int count = in.readInt();
+        List<Entry> entries = new ArrayList<Entry>(count);
+        for (int i = 0; i < count; i++) {
+            char status = in.readChar();
+            String before = in.readUTF();
+            String after = in.readUTF();
+            String path = in.readUTF();
+            String newPath = in.readBoolean() ? in.readUTF() : null;
+            entries.add(new Entry(status, before, after, path, newPath));
+        }
+        return new GitCommitRecord(id, parents, author, date, message, Collections.unmodifiableList(entries));
+    }
+
+    /**
+     * Writes this record in a compact binary form.
+     */
+    public void write(@NotNull DataOutput out) throws IOException {
+        out.writeUTF(id);
+        out.writeByte(parents.length);
+        for (String parent : parents)
+            out.writeUTF(parent);
+        out.writeUTF(author);
+        out.writeLong(date);
+        writeLongString(out, message);
+
+        out.writeInt(entries.size());
+        for (Entry entry : entries) {
+            out.writeChar(entry.status);
+            out.writeUTF(entry.beforeBlob);
+            out.writeUTF(entry.afterBlob);
+            out.writeUTF(entry.path);
+            out.writeBoolean(entry.newPath != null);
+            if (entry.newPath != null)
+                out.writeUTF(entry.newPath);
+        }
+    }
+
+    // writeUTF() is limited to 64KB, commit messages are not
+    private static void writeLongString(DataOutput out, String str) throws IOException {
+        byte[] bytes = str.getBytes(ENCODING);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readLongString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, ENCODING);
+    }
+
+    private static String decode(byte[] buf, int start, int end) throws UnsupportedEncodingException {
+        return new String(buf, start, end - start, ENCODING);
+    }
+
+    /**
+     * A single raw change entry of a commit
+     */
+    public static class Entry {
+        private final char status;
+        private final String beforeBlob;
+        private final String afterBlob;
+        private final String path;
+        private final String newPath;
+
+        public Entry(char status, @NotNull String beforeBlob, @NotNull String afterBlob, @NotNull String path,
+                     @Nullable String newPath) {
+            this.status = status;
+            this.beforeBlob = beforeBlob;
+            this.afterBlob = afterBlob;
+            this.path = path;
+            this.newPath = newPath;
+        }
+
+        public char getStatus() {
+            return status;
+        }
+
+        @NotNull
+        public String getBeforeBlob() {
+            return beforeBlob;
+        }
+
+        @NotNull
+        public String getAfterBlob() {
+            return afterBlob;
+        }
+
+        @NotNull
+        public String getPath() {
+            return path;
+        }
+
+        @Nullable
+        public String getNewPath() {
+            return newPath;
+        }
+    }
+
+    /**
+     * Receives commit records as they are parsed from the git output stream.
+     */
+    public interface Consumer {
+        void consume(@NotNull GitCommitRecord record) throws IOException;
+    }
+}
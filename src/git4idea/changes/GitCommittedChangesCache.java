@@ -0,0 +1,189 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * On-disk cache of parsed commit records, keyed by commit id. Every VCS root gets its own append-only file under the
+ * IDEA system directory, so after a restart only commits never seen before need to be read from git.
+ */
+public class GitCommittedChangesCache {
+    private static final int MAGIC = 0x47495443; // "GITC"
+    private static final int VERSION = 1;
+    private static final GitCommittedChangesCache instance = new GitCommittedChangesCache();
+
+    private final File cacheDir;
+    private final Map<String, RootCache> roots = new HashMap<String, RootCache>();
+
+    public static GitCommittedChangesCache getInstance() {
+        return instance;
+    }
+
+    private GitCommittedChangesCache() {
+        cacheDir = new File(PathManager.getSystemPath(), "git4idea" + File.separator + "changes");
+    }
+
+    /**
+     * Returns the cached record for the specified commit, or null if the commit has not been cached yet.
+     *
+     * @param vcsRoot  The VCS root
+     * @param commitId The commit id
+     * @return The cached record, else null
+     */
+    @Nullable
+    public synchronized GitCommitRecord get(@NotNull VirtualFile vcsRoot, @NotNull String commitId) {
+        return getRootCache(vcsRoot).records.get(commitId);
+    }
+
+    /**
+     * Returns the ids in the specified list which are not cached yet, preserving their order.
+     *
+     * @param vcsRoot   The VCS root
+     * @param commitIds The commit ids to check
+     * @return The missing commit ids
+     */
+    @NotNull
+    public synchronized List<String> getMissing(@NotNull VirtualFile vcsRoot, @NotNull Collection<String> commitIds) {
+        Map<String, GitCommitRecord> records = getRootCache(vcsRoot).records;
+        List<String> missing = new ArrayList<String>();
+        for (String id : commitIds) {
+            if (!records.containsKey(id))
+                missing.add(id);
+        }
+        return missing;
+    }
+
+    /**
+     * Adds the records to the in-memory cache & appends them to the root's cache file.
+     *
+     * @param vcsRoot The VCS root
+     * @param records The records to add
+     */
+    public synchronized void addAll(@NotNull VirtualFile vcsRoot, @NotNull Collection<GitCommitRecord> records) {
+        if (records.size() == 0) return;
+        RootCache cache = getRootCache(vcsRoot);
+        DataOutputStream out = null;
+        try {
+            boolean newFile = !cache.file.exists() || cache.file.length() == 0;
+            if (newFile)
+                cache.file.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(cache.file, true)));
+            if (newFile) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+            }
+            for (GitCommitRecord record : records) {
+                if (cache.records.containsKey(record.getId())) continue;
+                cache.records.put(record.getId(), record);
+                record.write(out);
+            }
+        } catch (IOException e) {
+            cache.file.delete();   // a partially written cache is useless, start over next time
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private RootCache getRootCache(VirtualFile vcsRoot) {
+        String path = vcsRoot.getPath();
+        RootCache cache = roots.get(path);
+        if (cache == null) {
+            String name = Integer.toHexString(path.hashCode()) + "_" + vcsRoot.getName() + ".changes";
+            cache = new RootCache(new File(cacheDir, name));
+            cache.load();
+            roots.put(path, cache);
+        }
+        return cache;
+    }
+
+    /**
+     * Cached commit records of a single VCS root
+     */
+    private static class RootCache {
+        private final File file;
+        private final Map<String, GitCommitRecord> records = new HashMap<String, GitCommitRecord>();
+
+        RootCache(File file) {
+            this.file = file;
+        }
+
+        @SuppressWarnings({"EmptyCatchBlock"})
+        void load() {
+            if (!file.exists()) return;
+            long validLength = 0;
+            DataInputStream in = null;
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    in.close();
+                    in = null;
+                    file.delete();
+                    return;
+                }
+                validLength = 8;
+                while (true) {
+                    GitCommitRecord record = GitCommitRecord.read(in);
+                    records.put(record.getId(), record);
+                    validLength = file.length() - in.available();
+                }
+            } catch (EOFException e) {
+                // end of file, or a record truncated by a crash: cut it off below
+            } catch (IOException e) {
+            } finally {
+                try {
+                    if (in != null) in.close();
+                } catch (IOException e) {}
+            }
+            truncate(validLength);
+        }
+
+        @SuppressWarnings({"EmptyCatchBlock"})
+        private void truncate(long validLength) {
+            if (file.length() <= validLength) return;
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(validLength);
+            } catch (IOException e) {
+                file.delete();
+                records.clear();
+            } finally {
+                try {
+                    if (raf != null) raf.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+}
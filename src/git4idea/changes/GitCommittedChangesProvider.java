@@ -0,0 +1,160 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.ChangeListColumn;
+import com.intellij.openapi.vcs.CommittedChangesProvider;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.RepositoryLocation;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.versionBrowser.ChangeBrowserSettings;
+import com.intellij.openapi.vcs.versionBrowser.ChangesBrowserSettingsEditor;
+import com.intellij.openapi.vcs.versionBrowser.StandardVersionFilterComponent;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitUtil;
+import git4idea.GitVcs;
+import git4idea.commands.GitCommand;
+import git4idea.vfs.GitRevisionNumber;
+import org.jetbrains.annotations.NotNull;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Committed changes provider for Git, backing the "Repository" changes view. Commit lists are read with a cheap
+ * "git rev-list" and only commits missing from the {@link GitCommittedChangesCache} are streamed through
+ * "git log --raw -z".
+ */
+public class GitCommittedChangesProvider implements CommittedChangesProvider<GitCommitChangeList, ChangeBrowserSettings> {
+    private final Project project;
+    private final GitVcs vcs;
+
+    public GitCommittedChangesProvider(@NotNull Project project, @NotNull GitVcs vcs) {
+        this.project = project;
+        this.vcs = vcs;
+    }
+
+    public ChangeBrowserSettings createDefaultSettings() {
+        return new ChangeBrowserSettings();
+    }
+
+    public ChangesBrowserSettingsEditor<ChangeBrowserSettings> createFilterUI(boolean showDateFilter) {
+        return new StandardVersionFilterComponent<ChangeBrowserSettings>(showDateFilter) {
+            public JComponent getComponent() {
+                return (JComponent) getStandardPanel();
+            }
+        };
+    }
+
+    public RepositoryLocation getLocationFor(FilePath root) {
+        return new GitRepositoryLocation(GitUtil.getVcsRoot(project, root), GitRevisionNumber.TIP);
+    }
+
+    public ChangeListColumn[] getColumns() {
+        return new ChangeListColumn[]{ChangeListColumn.NAME, ChangeListColumn.DATE, ChangeListColumn.DESCRIPTION};
+    }
+
+    public int getUnlimitedCountValue() {
+        return 0;
+    }
+
+    public List<GitCommitChangeList> getCommittedChanges(ChangeBrowserSettings settings, RepositoryLocation location,
+                                                         int maxCount) throws VcsException {
+        GitRepositoryLocation gitLocation = (GitRepositoryLocation) location;
+        VirtualFile root = gitLocation.getRoot();
+        GitCommand command = new GitCommand(project, vcs.getSettings(), root);
+
+        Date since = settings.getDateAfterFilter();
+        Date until = settings.getDateBeforeFilter();
+        String user = settings.getUserFilter();
+
+        List<String> ids = command.revisionList(gitLocation.getBranch(), since, until, user, maxCount);
+        loadMissing(command, root, ids);
+
+        GitCommittedChangesCache cache = GitCommittedChangesCache.getInstance();
+        List<GitCommitChangeList> result = new ArrayList<GitCommitChangeList>(ids.size());
+        for (String id : ids) {
+            GitCommitRecord record = cache.get(root, id);
+            if (record == null) continue;
+            result.add(new GitCommitChangeList(vcs, record, record.createChanges(project, root)));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the change list of a single commit, from the cache when possible.
+     *
+     * @param root     The VCS root
+     * @param commitId The commit id
+     * @return The commit change list
+     * @throws VcsException If the commit could not be loaded
+     */
+    @NotNull
+    public GitCommitChangeList getChangeList(@NotNull VirtualFile root, @NotNull String commitId) throws VcsException {
+        GitCommittedChangesCache cache = GitCommittedChangesCache.getInstance();
+        GitCommitRecord record = cache.get(root, commitId);
+        if (record == null) {
+            loadMissing(new GitCommand(project, vcs.getSettings(), root), root, Collections.singletonList(commitId));
+            record = cache.get(root, commitId);
+            if (record == null)
+                throw new VcsException("Unknown commit: " + commitId);
+        }
+        return new GitCommitChangeList(vcs, record, record.createChanges(project, root));
+    }
+
+    /**
+     * Returns the change lists of several commits of a VCS root, loading the commits missing from the cache in one
+     * batch.
+     *
+     * @param root      The VCS root
+     * @param commitIds The commit ids
+     * @return The change lists, in the order of the ids; unknown commits are left out
+     * @throws VcsException If the commits could not be loaded
+     */
+    @NotNull
+    public List<GitCommitChangeList> getChangeLists(@NotNull VirtualFile root, @NotNull List<String> commitIds)
+            throws VcsException {
+        loadMissing(new GitCommand(project, vcs.getSettings(), root), root, commitIds);
+        GitCommittedChangesCache cache = GitCommittedChangesCache.getInstance();
+        List<GitCommitChangeList> result = new ArrayList<GitCommitChangeList>(commitIds.size());
+        for (String id : commitIds) {
+            GitCommitRecord record = cache.get(root, id);
+            if (record != null)
+                result.add(new GitCommitChangeList(vcs, record, record.createChanges(project, root)));
+        }
+        return result;
+    }
+
+    private static void loadMissing(GitCommand command, final VirtualFile root, List<String> ids) throws VcsException {
+        final GitCommittedChangesCache cache = GitCommittedChangesCache.getInstance();
+        List<String> missing = cache.getMissing(root, ids);
+        if (missing.size() == 0) return;
+
+        final List<GitCommitRecord> page = new ArrayList<GitCommitRecord>();
+        command.commitRecords(missing, new GitCommitRecord.Consumer() {
+            public void consume(@NotNull GitCommitRecord record) throws IOException {
+                page.add(record);
+                if (page.size() >= 100) {
+                    cache.addAll(root, page);
+                    page.clear();
+                }
+            }
+        });
+        cache.addAll(root, page);
+    }
+}
@@ -0,0 +1,220 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import git4idea.vfs.GitRevisionNumber;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Snapshot of the tree HEAD points to, per VCS root: the blob id & mode of every file. A snapshot is read with a
+ * single streamed "git ls-tree" and only replaced when HEAD moves to another tree, so "before" revisions in the
+ * changes view are resolved without asking git, and carry concrete blob ids that stay the same across refreshes.
+ */
+public class GitHeadTree {
+    private static final Map<Project, GitHeadTree> instances = new HashMap<Project, GitHeadTree>();
+    private static final String REF_PREFIX = "ref: ";
+
+    private final Map<VirtualFile, Snapshot> snapshots = new HashMap<VirtualFile, Snapshot>();
+
+    public static synchronized GitHeadTree getInstance(Project proj) {
+        GitHeadTree tree = instances.get(proj);
+        if (tree == null) {
+            tree = new GitHeadTree();
+            instances.put(proj, tree);
+        }
+        return tree;
+    }
+
+    public static synchronized void removeInstance(Project proj) {
+        instances.remove(proj);
+    }
+
+    /**
+     * Returns the snapshot of the HEAD tree of a VCS root, reading it first if HEAD moved since the last call.
+     *
+     * @param root    The VCS root
+     * @param command The git command to use for the root
+     * @return The snapshot, or null if HEAD doesn't point to a commit yet
+     * @throws VcsException If the tree could not be read
+     */
+    @Nullable
+    public Snapshot getSnapshot(@NotNull VirtualFile root, @NotNull GitCommand command) throws VcsException {
+        String signature = headSignature(root);
+        Snapshot old;
+        synchronized (this) {
+            old = snapshots.get(root);
+        }
+        if (old != null && signature != null && signature.equals(old.signature))
+            return old;
+
+        String[] ids = command.headIds();
+        if (ids == null) {
+            synchronized (this) {
+                snapshots.remove(root);
+            }
+            return null;
+        }
+
+        final Map<String, Entry> entries;
+        if (old != null && old.treeId.equals(ids[1])) {
+            entries = old.entries;      // e.g. an amended commit message, the files are the same
+        } else {
+            final Map<String, Entry> previous = old != null ? old.entries : Collections.<String, Entry>emptyMap();
+            entries = new HashMap<String, Entry>(Math.max(16, previous.size() * 4 / 3));
+            command.treeEntries(ids[1], new Consumer() {
+                public void consume(@NotNull String path, int mode, @NotNull String blobId) {
+                    // share the entries of unchanged files with the previous snapshot
+                    Entry entry = previous.get(path);
+                    if (entry == null || entry.mode != mode || !entry.blobId.equals(blobId))
+                        entry = new Entry(blobId, mode);
+                    entries.put(path, entry);
+                }
+            });
+        }
+        Snapshot snapshot = new Snapshot(signature, ids[0], ids[1], entries);
+        synchronized (this) {
+            snapshots.put(root, snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Describes where HEAD points to without running git: the contents of HEAD & of the loose ref it names, or the
+     * timestamp of packed-refs if there's no loose ref.
+     *
+     * @return The signature, or null if the repository layout isn't understood (e.g. ".git" is a file)
+     */
+    private static String headSignature(VirtualFile root) {
+        File gitDir = new File(root.getPath(), ".git");
+        if (!gitDir.isDirectory()) return null;
+        String head = read(new File(gitDir, "HEAD"));
+        if (head == null) return null;
+        if (!head.startsWith(REF_PREFIX))
+            return head;            // detached
+        String ref = read(new File(gitDir, head.substring(REF_PREFIX.length())));
+        if (ref != null)
+            return head + "\n" + ref;
+        File packed = new File(gitDir, "packed-refs");
+        return head + "\npacked " + packed.lastModified() + " " + packed.length();
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private static String read(File file) {
+        if (!file.isFile()) return null;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            byte[] buf = new byte[(int) Math.min(file.length(), 1024)];
+            int len = 0;
+            while (len < buf.length) {
+                int rlen = in.read(buf, len, buf.length - len);
+                if (rlen == -1) break;
+                len += rlen;
+            }
+            return new String(buf, 0, len, "UTF-8").trim();
+        } catch (IOException e) {
+            return null;
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    /**
+     * The files of the HEAD tree of a VCS root
+     */
+    public static class Snapshot {
+        private final String signature;
+        private final String treeId;
+        private final Map<String, Entry> entries;
+        private final GitRevisionNumber revision;
+
+        Snapshot(String signature, String commitId, String treeId, Map<String, Entry> entries) {
+            this.signature = signature;
+            this.treeId = treeId;
+            this.entries = entries;
+            this.revision = new GitRevisionNumber(commitId);
+        }
+
+        /**
+         * @return The revision of the HEAD commit, shared by all files of the snapshot
+         */
+        @NotNull
+        public GitRevisionNumber getRevision() {
+            return revision;
+        }
+
+        @NotNull
+        public String getTreeId() {
+            return treeId;
+        }
+
+        /**
+         * @param relativePath The path relative to the VCS root, with "/" separators
+         * @return The file entry, or null if HEAD doesn't contain the file
+         */
+        @Nullable
+        public Entry get(@NotNull String relativePath) {
+            return entries.get(relativePath);
+        }
+
+        public int size() {
+            return entries.size();
+        }
+    }
+
+    /**
+     * A file of the HEAD tree
+     */
+    public static class Entry {
+        private final String blobId;
+        private final int mode;
+
+        Entry(String blobId, int mode) {
+            this.blobId = blobId;
+            this.mode = mode;
+        }
+
+        @NotNull
+        public String getBlobId() {
+            return blobId;
+        }
+
+        /**
+         * @return The file mode, e.g. 0100644, 0100755 or 0120000 for a symbolic link
+         */
+        public int getMode() {
+            return mode;
+        }
+    }
+
+    /**
+     * Receives the file entries of a tree listing
+     */
+    public interface Consumer {
+        void consume(@NotNull String path, int mode, @NotNull String blobId);
+    }
+}
@@ -0,0 +1,158 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
+import com.intellij.openapi.vfs.LocalFileSystem;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.newvfs.RefreshQueue;
+import com.intellij.vcsUtil.VcsUtil;
+import git4idea.commands.GitCommand;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Refreshes exactly the files a working tree operation (checkout, merge, pull, unstash...) touched. HEAD of every
+ * root, & the files modified relative to it, are captured before the operation; afterwards the old & new HEAD trees
+ * are diffed, and only the differing files are refreshed, in a single asynchronous VFS refresh, & marked dirty. If
+ * HEAD didn't move, or an operation is still in progress (e.g. stopped at conflicts), the files modified relative to
+ * HEAD are refreshed too. The files modified before the operation always are, since it may have reverted them.
+ */
+public class GitOperationRefresher {
+    private final Project project;
+    private final GitVcsSettings settings;
+    private final Map<VirtualFile, String> heads = new LinkedHashMap<VirtualFile, String>();
+    private final Map<VirtualFile, List<String>> modifiedBefore = new HashMap<VirtualFile, List<String>>();
+
+    /**
+     * Captures HEAD & the modified files of the given roots. Must be created before the operation starts.
+     *
+     * @param project  The project
+     * @param settings The Git VCS settings
+     * @param roots    The VCS roots the operation may change
+     */
+    public GitOperationRefresher(@NotNull Project project, @NotNull GitVcsSettings settings,
+                                 @NotNull Collection<VirtualFile> roots) {
+        this.project = project;
+        this.settings = settings;
+        for (VirtualFile root : roots) {
+            GitCommand command = new GitCommand(project, settings, root);
+            String[] ids = command.headIds();
+            heads.put(root, ids != null ? ids[0] : null);
+            if (ids != null) {
+                try {
+                    modifiedBefore.put(root, command.modifiedPaths());
+                } catch (VcsException e) {
+                    // the files are still refreshed if the operation changes them
+                }
+            }
+        }
+    }
+
+    /**
+     * Refreshes the files the operation changed. The VFS refresh runs asynchronously; the changed files are marked
+     * dirty once it is done.
+     */
+    public void refresh() {
+        final List<FilePath> dirtyFiles = new ArrayList<FilePath>();
+        final List<VirtualFile> dirtyRoots = new ArrayList<VirtualFile>();
+        Set<VirtualFile> toRefresh = new LinkedHashSet<VirtualFile>();
+        LocalFileSystem lfs = LocalFileSystem.getInstance();
+
+        for (Map.Entry<VirtualFile, String> entry : heads.entrySet()) {
+            VirtualFile root = entry.getKey();
+            Set<String> paths;
+            try {
+                paths = getChangedPaths(root, entry.getValue());
+            } catch (VcsException e) {
+                paths = null;
+            }
+            if (paths == null) {
+                // no commits before or after, or git failed: fall back to the whole root
+                dirtyRoots.add(root);
+                root.refresh(true, true);
+                continue;
+            }
+            for (String path : paths) {
+                File file = new File(root.getPath(), path);
+                dirtyFiles.add(VcsUtil.getFilePath(file));
+                // created files are found by refreshing the nearest directory the VFS already knows
+                VirtualFile vfile = lfs.findFileByIoFile(file);
+                for (File parent = file.getParentFile(); vfile == null && parent != null; parent = parent.getParentFile())
+                    vfile = lfs.findFileByIoFile(parent);
+                if (vfile != null)
+                    toRefresh.add(vfile);
+            }
+        }
+
+        Runnable markDirty = new Runnable() {
+            public void run() {
+                if (project.isDisposed()) return;
+                VcsDirtyScopeManager mgr = VcsDirtyScopeManager.getInstance(project);
+                for (FilePath path : dirtyFiles)
+                    mgr.fileDirty(path);
+                for (VirtualFile root : dirtyRoots)
+                    mgr.dirDirtyRecursively(root);
+            }
+        };
+        if (toRefresh.size() > 0)
+            RefreshQueue.getInstance().refresh(true, false, markDirty, toRefresh.toArray(new VirtualFile[toRefresh.size()]));
+        else
+            markDirty.run();
+    }
+
+    /**
+     * @return The paths (relative to the root) the operation changed, or null if they can't be told
+     */
+    private Set<String> getChangedPaths(VirtualFile root, String oldHead) throws VcsException {
+        GitCommand command = new GitCommand(project, settings, root);
+        String[] ids = command.headIds();
+        String newHead = ids != null ? ids[0] : null;
+        if (oldHead == null || newHead == null)
+            return null;
+        Set<String> paths = new LinkedHashSet<String>();
+        if (!oldHead.equals(newHead))
+            paths.addAll(command.changedPaths(oldHead, newHead));
+        if (oldHead.equals(newHead) || isOperationInProgress(root))
+            paths.addAll(command.modifiedPaths());
+        List<String> before = modifiedBefore.get(root);
+        if (before != null)
+            paths.addAll(before);      // e.g. reset back to their HEAD content, no diff against HEAD shows them
+        return paths;
+    }
+
+    /**
+     * Tells whether a merge, rebase or cherry-pick of the root stopped half way, e.g. at conflicts.
+     *
+     * @param root The VCS root
+     * @return True if the operation still has to be committed or aborted
+     */
+    public static boolean isOperationInProgress(@NotNull VirtualFile root) {
+        File gitDir = new File(root.getPath(), ".git");
+        return new File(gitDir, "MERGE_HEAD").exists() || new File(gitDir, "rebase-merge").exists()
+                || new File(gitDir, "rebase-apply").exists() || new File(gitDir, "CHERRY_PICK_HEAD").exists();
+    }
+}
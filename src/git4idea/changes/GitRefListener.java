@@ -0,0 +1,31 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+
+/**
+ * Notified on the event dispatch thread when a background fetch moved refs of a VCS root
+ */
+public interface GitRefListener {
+    /**
+     * Called with the refs a fetch created, moved or deleted; refs which did not change are never reported.
+     *
+     * @param root  The VCS root
+     * @param moved The new commit ids keyed by full ref name, null values for deleted refs
+     */
+    void refsMoved(@NotNull VirtualFile root, @NotNull Map<String, String> moved);
+}
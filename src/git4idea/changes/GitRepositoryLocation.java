@@ -0,0 +1,48 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.vcs.RepositoryLocation;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A branch of a Git repository, as browsed in the committed changes view
+ */
+public class GitRepositoryLocation implements RepositoryLocation {
+    private final VirtualFile root;
+    private final String branch;
+
+    public GitRepositoryLocation(@NotNull VirtualFile root, @NotNull String branch) {
+        this.root = root;
+        this.branch = branch;
+    }
+
+    @NotNull
+    public VirtualFile getRoot() {
+        return root;
+    }
+
+    @NotNull
+    public String getBranch() {
+        return branch;
+    }
+
+    public String toPresentableString() {
+        return root.getPath() + " (" + branch + ")";
+    }
+
+    public String toString() {
+        return toPresentableString();
+    }
+}
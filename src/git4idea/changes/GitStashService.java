@@ -0,0 +1,239 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FileStatus;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.Change;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.vcsUtil.VcsUtil;
+import git4idea.GitVcs;
+import git4idea.commands.GitCommand;
+import git4idea.vfs.GitBlobContentRevision;
+import git4idea.vfs.GitRevisionNumber;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the stashes of a VCS root straight from the reflog of refs/stash, without spawning git, and builds change
+ * lists of stashed changes from lazily loaded blobs, so a stash can be previewed without applying it.
+ */
+public class GitStashService {
+    private static final Map<Project, GitStashService> instances = new HashMap<Project, GitStashService>();
+    private static final String NO_BLOB = "0000000000000000000000000000000000000000";
+
+    private final Project project;
+    private final Map<String, StashList> stashLists = new HashMap<String, StashList>();
+    private final Map<String, GitCommitChangeList> changeLists = new HashMap<String, GitCommitChangeList>();
+
+    public static synchronized GitStashService getInstance(Project proj) {
+        GitStashService service = instances.get(proj);
+        if (service == null) {
+            service = new GitStashService(proj);
+            instances.put(proj, service);
+        }
+        return service;
+    }
+
+    public static synchronized void removeInstance(Project proj) {
+        instances.remove(proj);
+    }
+
+    private GitStashService(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Returns the stashes of the VCS root, newest (stash@{0}) first. The reflog is only re-read after it changed.
+     *
+     * @param root The VCS root
+     * @return The stashes
+     * @throws VcsException If the reflog could not be read
+     */
+    @NotNull
+    public synchronized List<StashEntry> getStashes(@NotNull VirtualFile root) throws VcsException {
+        File reflog = new File(root.getPath(), ".git" + File.separator + "logs" + File.separator + "refs" +
+                File.separator + "stash");
+        if (!reflog.isFile()) {
+            stashLists.remove(root.getPath());
+            return Collections.emptyList();
+        }
+        StashList cached = stashLists.get(root.getPath());
+        if (cached != null && cached.lastModified == reflog.lastModified() && cached.length == reflog.length())
+            return cached.entries;
+
+        StashList list = new StashList(reflog.lastModified(), reflog.length(), readReflog(reflog));
+        stashLists.put(root.getPath(), list);
+        return list.entries;
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private static List<StashEntry> readReflog(File reflog) throws VcsException {
+        List<StashEntry> entries = new ArrayList<StashEntry>();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(reflog), GitCommitRecord.ENCODING));
+            String line;
+            while ((line = in.readLine()) != null) {
+                // format is: "<old-id> <new-id> <name> <<email>> <timestamp> <tz>\t<message>"
+                int tab = line.indexOf('\t');
+                int emailEnd = line.lastIndexOf("> ", tab < 0 ? line.length() : tab);
+                if (line.length() < 82 || emailEnd < 82) continue;
+                String commitId = line.substring(41, 81);
+                String author = line.substring(82, emailEnd + 1);
+                String[] time = line.substring(emailEnd + 2, tab < 0 ? line.length() : tab).split(" ");
+                Date date;
+                try {
+                    date = new Date(Long.parseLong(time[0]) * 1000);
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                String message = tab < 0 ? "" : line.substring(tab + 1);
+                entries.add(new StashEntry(commitId, author, date, message));
+            }
+        } catch (IOException e) {
+            throw new VcsException(e);
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+
+        // the reflog is oldest first, stash@{0} is the newest
+        Collections.reverse(entries);
+        for (int i = 0; i < entries.size(); i++)
+            entries.get(i).index = i;
+        return Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * Returns the working tree changes recorded by a stash. File contents are only loaded when they are viewed.
+     *
+     * @param root  The VCS root
+     * @param stash The stash
+     * @return The stashed changes
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public GitCommitChangeList getChangeList(@NotNull VirtualFile root, @NotNull StashEntry stash) throws VcsException {
+        synchronized (this) {
+            GitCommitChangeList cached = changeLists.get(stash.getCommitId());
+            if (cached != null) return cached;
+        }
+
+        // a stash commit is a merge of the stashed HEAD (first parent) and the stashed index
+        GitCommand command = new GitCommand(project, GitVcs.getInstance(project).getSettings(), root);
+        List<GitCommitRecord.Entry> entries = command.diffTree(stash.getCommitId() + "^1", stash.getCommitId());
+
+        GitRevisionNumber baseRevision = new GitRevisionNumber(stash.getCommitId() + "^1");
+        GitRevisionNumber stashRevision = new GitRevisionNumber(stash.getCommitId(), stash.getDate());
+        String basePath = root.getPath() + "/";
+        List<Change> changes = new ArrayList<Change>(entries.size());
+        for (GitCommitRecord.Entry entry : entries) {
+            String afterPath = entry.getNewPath() != null ? entry.getNewPath() : entry.getPath();
+            ContentRevision before = NO_BLOB.equals(entry.getBeforeBlob()) ? null :
+                    new GitBlobContentRevision(project, root, VcsUtil.getFilePath(basePath + entry.getPath()),
+                            entry.getBeforeBlob(), baseRevision);
+            ContentRevision after = NO_BLOB.equals(entry.getAfterBlob()) ? null :
+                    new GitBlobContentRevision(project, root, VcsUtil.getFilePath(basePath + afterPath),
+                            entry.getAfterBlob(), stashRevision);
+            FileStatus status = before == null ? FileStatus.ADDED : after == null ? FileStatus.DELETED : FileStatus.MODIFIED;
+            changes.add(new Change(before, after, status));
+        }
+
+        GitCommitChangeList changeList = new GitCommitChangeList(GitVcs.getInstance(project), stash.getCommitId(),
+                stash.getAuthor(), stash.getDate(), stash.getMessage(), changes);
+        synchronized (this) {
+            changeLists.put(stash.getCommitId(), changeList);    // stash commits never change
+        }
+        return changeList;
+    }
+
+    /**
+     * A single stash
+     */
+    public static class StashEntry {
+        private final String commitId;
+        private final String author;
+        private final Date date;
+        private final String message;
+        private int index;
+
+        StashEntry(String commitId, String author, Date date, String message) {
+            this.commitId = commitId;
+            this.author = author;
+            this.date = date;
+            this.message = message;
+        }
+
+        /**
+         * @return The stash name, e.g. "stash@{0}"
+         */
+        @NotNull
+        public String getName() {
+            return "stash@{" + index + "}";
+        }
+
+        @NotNull
+        public String getCommitId() {
+            return commitId;
+        }
+
+        @NotNull
+        public String getAuthor() {
+            return author;
+        }
+
+        @NotNull
+        public Date getDate() {
+            return date;
+        }
+
+        @NotNull
+        public String getMessage() {
+            return message;
+        }
+
+        public String toString() {
+            return getName() + ": " + message;
+        }
+    }
+
+    /**
+     * Parsed reflog of a VCS root, with the reflog file state it was read from
+     */
+    private static class StashList {
+        final long lastModified;
+        final long length;
+        final List<StashEntry> entries;
+
+        StashList(long lastModified, long length, List<StashEntry> entries) {
+            this.lastModified = lastModified;
+            this.length = length;
+            this.entries = entries;
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileMoveEvent;
+import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+import git4idea.commands.GitCommand;
+import git4idea.vfs.GitVirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Caches the size & modification time of every tracked file of a VCS root, along with its index blob id & whether
+ * git considered it modified. Once a snapshot exists, only files reported by VFS events are stat'ed again, and git is
+ * only asked about those whose stat data actually changed. A full "git diff" is only needed when the index itself
+ * changes. Snapshots are persisted per root in a compact binary file, so they survive restarts.
+ */
+public class GitStatCache extends VirtualFileAdapter {
+    private static final Map<Project, GitStatCache> instances = new HashMap<Project, GitStatCache>();
+    private static final int MAGIC = 0x47535443;    // "GSTC"
+    private static final int VERSION = 1;
+    /* files modified this close to the snapshot may have changed again within the same timestamp */
+    private static final long RACY_MILLIS = 2000;
+
+    private final Project project;
+    private final Map<VirtualFile, Snapshot> snapshots = new HashMap<VirtualFile, Snapshot>();
+    private final Set<String> dirtyPaths = new HashSet<String>();
+
+    public static synchronized GitStatCache getInstance(Project proj) {
+        GitStatCache cache = instances.get(proj);
+        if (cache == null) {
+            cache = new GitStatCache(proj);
+            instances.put(proj, cache);
+        }
+        return cache;
+    }
+
+    public static synchronized void removeInstance(Project proj) {
+        instances.remove(proj);
+    }
+
+    private GitStatCache(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Returns the tracked files whose working copy differs from the index, like {@link GitCommand#gitUnCachedFiles()}.
+     *
+     * @param root    The root to check
+     * @param command A git command for the root
+     * @return The absolute paths of the modified files
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Set<String> getUncachedFiles(@NotNull VirtualFile root, @NotNull GitCommand command) throws VcsException {
+        File index = new File(root.getPath(), ".git" + File.separator + "index");
+        if (!index.isFile())
+            return command.gitUnCachedFiles();      // not the top of a repository, nothing to cache against
+
+        long indexStamp = index.lastModified() ^ index.length();
+        Snapshot snapshot;
+        synchronized (this) {
+            snapshot = snapshots.get(root);
+            if (snapshot == null) {
+                snapshot = load(root);
+                if (snapshot != null)
+                    snapshots.put(root, snapshot);
+            }
+        }
+        if (snapshot == null || snapshot.indexStamp != indexStamp) {
+            snapshot = createSnapshot(root, command, indexStamp);
+        } else {
+            // right after loading from disk every file needs checking, the working tree may have changed meanwhile
+            Collection<String> candidates = snapshot.verified ? takeDirtyPaths(root)
+                    : new ArrayList<String>(snapshot.entries.keySet());
+            List<String> changed = new ArrayList<String>();
+            for (String path : candidates) {
+                Entry entry = snapshot.entries.get(path);
+                if (entry == null) continue;        // not tracked, "git diff" doesn't report it anyway
+                File file = new File(root.getPath(), path);
+                long size = file.isFile() ? file.length() : -1;
+                long mtime = file.lastModified();
+                if (entry.size != size || entry.mtime != mtime || mtime >= snapshot.time - RACY_MILLIS) {
+                    entry.size = size;
+                    entry.mtime = mtime;
+                    changed.add(path);
+                }
+            }
+            if (changed.size() > 0) {
+                Set<String> modified = command.gitUnCachedFiles(changed);
+                synchronized (snapshot) {
+                    snapshot.modified.removeAll(changed);
+                    for (String path : modified)
+                        snapshot.modified.add(relativePath(root, path));
+                }
+            }
+            if (changed.size() > 0 || !snapshot.verified) {
+                snapshot.verified = true;
+                save(root, snapshot);
+            }
+        }
+
+        Set<String> files = new HashSet<String>();
+        synchronized (snapshot) {
+            for (String path : snapshot.modified)
+                files.add(root.getPath() + "/" + path);
+        }
+        return files;
+    }
+
+    /**
+     * Hands the cached size & modification time of a tracked file to its virtual file, so that it doesn't stat the
+     * file system again.
+     *
+     * @param root The VCS root
+     * @param file The file
+     */
+    public void fillStat(@NotNull VirtualFile root, @NotNull GitVirtualFile file) {
+        String prefix = root.getPath() + "/";
+        if (!file.getPath().startsWith(prefix)) return;
+        Entry entry;
+        synchronized (this) {
+            Snapshot snapshot = snapshots.get(root);
+            entry = snapshot != null ? snapshot.entries.get(file.getPath().substring(prefix.length())) : null;
+        }
+        if (entry != null && entry.size >= 0)
+            file.setStat(entry.size, entry.mtime);
+    }
+
+    private Snapshot createSnapshot(VirtualFile root, GitCommand command, long indexStamp) throws VcsException {
+        synchronized (this) {
+            // anything dirty now is covered by the full check below
+            for (Iterator<String> it = dirtyPaths.iterator(); it.hasNext();) {
+                if (it.next().startsWith(root.getPath() + "/"))
+                    it.remove();
+            }
+        }
+        Snapshot snapshot = new Snapshot(indexStamp, System.currentTimeMillis());
+        // stat before asking git, so a file changed in between looks changed next time
+        for (Map.Entry<String, String> indexEntry : command.indexEntries().entrySet()) {
+            File file = new File(root.getPath(), indexEntry.getKey());
+            long size = file.isFile() ? file.length() : -1;
+            snapshot.entries.put(indexEntry.getKey(), new Entry(size, file.lastModified(), indexEntry.getValue()));
+        }
+        for (String path : command.gitUnCachedFiles())
+            snapshot.modified.add(relativePath(root, path));
+        snapshot.verified = true;
+        synchronized (this) {
+            snapshots.put(root, snapshot);
+        }
+        save(root, snapshot);
+        return snapshot;
+    }
+
+    private synchronized List<String> takeDirtyPaths(VirtualFile root) {
+        String prefix = root.getPath() + "/";
+        List<String> paths = new ArrayList<String>();
+        for (Iterator<String> it = dirtyPaths.iterator(); it.hasNext();) {
+            String path = it.next();
+            if (path.startsWith(prefix)) {
+                paths.add(path.substring(prefix.length()));
+                it.remove();
+            }
+        }
+        return paths;
+    }
+
+    private static String relativePath(VirtualFile root, String path) {
+        String prefix = root.getPath() + "/";
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+    }
+
+    private synchronized void markDirty(VirtualFile file) {
+        if (file.isDirectory()) {
+            // too coarse to track file by file, check everything under it
+            String prefix = file.getPath() + "/";
+            for (Map.Entry<VirtualFile, Snapshot> s : snapshots.entrySet()) {
+                String rootPrefix = s.getKey().getPath() + "/";
+                for (String path : s.getValue().entries.keySet()) {
+                    if ((rootPrefix + path).startsWith(prefix))
+                        dirtyPaths.add(rootPrefix + path);
+                }
+            }
+        } else {
+            dirtyPaths.add(file.getPath());
+        }
+    }
+
+    @Override
+    public void contentsChanged(@NotNull VirtualFileEvent event) {
+        markDirty(event.getFile());
+    }
+
+    @Override
+    public void fileCreated(@NotNull VirtualFileEvent event) {
+        markDirty(event.getFile());
+    }
+
+    @Override
+    public void beforeFileDeletion(@NotNull VirtualFileEvent event) {
+        markDirty(event.getFile());
+    }
+
+    @Override
+    public void beforeFileMovement(@NotNull VirtualFileMoveEvent event) {
+        markDirty(event.getFile());
+    }
+
+    @Override
+    public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+        markDirty(event.getFile());
+    }
+
+    @Override
+    public void beforePropertyChange(@NotNull VirtualFilePropertyEvent event) {
+        if (VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+            markDirty(event.getFile());
+    }
+
+    @Override
+    public void propertyChanged(@NotNull VirtualFilePropertyEvent event) {
+        if (VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+            markDirty(event.getFile());
+    }
+
+    private static File getCacheFile(VirtualFile root) {
+        String name = Integer.toHexString(root.getPath().hashCode());
+        return new File(PathManager.getSystemPath(), "git4idea" + File.separator + "stat-" + name + ".bin");
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private static Snapshot load(VirtualFile root) {
+        File file = getCacheFile(root);
+        if (!file.isFile()) return null;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !in.readUTF().equals(root.getPath()))
+                return null;
+            Snapshot snapshot = new Snapshot(in.readLong(), in.readLong());
+            byte[] id = new byte[20];
+            for (int n = in.readInt(); n > 0; n--) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long mtime = in.readLong();
+                in.readFully(id);
+                snapshot.entries.put(path, new Entry(size, mtime, toHex(id)));
+            }
+            for (int n = in.readInt(); n > 0; n--)
+                snapshot.modified.add(in.readUTF());
+            return snapshot;
+        } catch (IOException e) {
+            return null;        // corrupt or from an older version, start over
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private static void save(VirtualFile root, Snapshot snapshot) {
+        File file = getCacheFile(root);
+        File tmp = new File(file.getPath() + ".tmp");
+        file.getParentFile().mkdirs();
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(root.getPath());
+            out.writeLong(snapshot.indexStamp);
+            out.writeLong(snapshot.time);
+            synchronized (snapshot) {
+                out.writeInt(snapshot.entries.size());
+                for (Map.Entry<String, Entry> e : snapshot.entries.entrySet()) {
+                    Entry entry = e.getValue();
+                    out.writeUTF(e.getKey());
+                    out.writeLong(entry.size);
+                    out.writeLong(entry.mtime);
+                    out.write(fromHex(entry.blobId));
+                }
+                out.writeInt(snapshot.modified.size());
+                for (String path : snapshot.modified)
+                    out.writeUTF(path);
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                file.delete();
+                tmp.renameTo(file);
+            }
+        } catch (IOException e) {
+            tmp.delete();       // only a cache, the next refresh takes a full snapshot
+        } finally {
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private static String toHex(byte[] id) {
+        StringBuilder sb = new StringBuilder(40);
+        for (byte b : id) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String id) {
+        byte[] bytes = new byte[20];
+        for (int i = 0; i < 20 && i * 2 + 1 < id.length(); i++)
+            bytes[i] = (byte) Integer.parseInt(id.substring(i * 2, i * 2 + 2), 16);
+        return bytes;
+    }
+
+    /**
+     * The cached state of a VCS root
+     */
+    private static class Snapshot {
+        final long indexStamp;
+        final long time;
+        final Map<String, Entry> entries = new HashMap<String, Entry>();
+        final Set<String> modified = new HashSet<String>();
+        boolean verified = false;
+
+        Snapshot(long indexStamp, long time) {
+            this.indexStamp = indexStamp;
+            this.time = time;
+        }
+    }
+
+    /**
+     * The cached stat data of a tracked file
+     */
+    private static class Entry {
+        long size;
+        long mtime;
+        final String blobId;
+
+        Entry(long size, long mtime, String blobId) {
+            this.size = size;
+            this.mtime = mtime;
+            this.blobId = blobId;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package git4idea.changes;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileAdapter;
+import com.intellij.openapi.vfs.VirtualFileEvent;
+import com.intellij.openapi.vfs.VirtualFileMoveEvent;
+import com.intellij.openapi.vfs.VirtualFilePropertyEvent;
+import git4idea.GitVcs;
+import git4idea.commands.GitCommand;
+import git4idea.vfs.GitIgnore;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the set of untracked files & directories of every VCS root. The whole root is only listed when the index or
+ * an ignore file changes; otherwise just the paths reported by VFS events are asked about. Ignored directories are
+ * pruned by git and wholly untracked directories are kept as a single entry, so big trees like build output are
+ * never enumerated.
+ */
+public class GitUntrackedFiles extends VirtualFileAdapter {
+    private static final Map<Project, GitUntrackedFiles> instances = new HashMap<Project, GitUntrackedFiles>();
+    private static final String GITIGNORE = ".gitignore";
+
+    private final Project project;
+    private final Map<VirtualFile, State> states = new HashMap<VirtualFile, State>();
+    /* absolute paths reported by VFS events, mapped to whether they still exist */
+    private final Map<String, Boolean> dirtyPaths = new HashMap<String, Boolean>();
+    private boolean excludesChanged = false;
+
+    public static synchronized GitUntrackedFiles getInstance(Project proj) {
+        GitUntrackedFiles files = instances.get(proj);
+        if (files == null) {
+            files = new GitUntrackedFiles(proj);
+            instances.put(proj, files);
+        }
+        return files;
+    }
+
+    public static synchronized void removeInstance(Project proj) {
+        instances.remove(proj);
+    }
+
+    private GitUntrackedFiles(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Returns the untracked files & directories of a root, like {@link GitCommand#gitOtherFiles()}.
+     *
+     * @param root    The root
+     * @param command A git command for the root
+     * @return The absolute paths; directories end with '/'
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Set<String> getUntrackedFiles(@NotNull VirtualFile root, @NotNull GitCommand command) throws VcsException {
+        String prefix = root.getPath() + "/";
+        File gitDir = new File(root.getPath(), ".git");
+        File index = new File(gitDir, "index");
+        File exclude = new File(gitDir, "info" + File.separator + "exclude");
+        long stamp = index.lastModified() ^ index.length() ^ (exclude.lastModified() * 31);
+
+        State state;
+        Map<String, Boolean> dirty = new HashMap<String, Boolean>();
+        boolean full;
+        synchronized (this) {
+            state = states.get(root);
+            full = state == null || state.stamp != stamp || excludesChanged;
+            excludesChanged = false;
+            for (Iterator<Map.Entry<String, Boolean>> it = dirtyPaths.entrySet().iterator(); it.hasNext();) {
+                Map.Entry<String, Boolean> entry = it.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    dirty.put(entry.getKey(), entry.getValue());
+                    it.remove();
+                }
+            }
+        }
+
+        if (full) {
+            state = new State(stamp, command.gitOtherFiles());
+            synchronized (this) {
+                states.put(root, state);
+            }
+        } else if (dirty.size() > 0) {
+            List<String> query = new ArrayList<String>();
+            GitIgnore gitIgnore = GitIgnore.getInstance(GitVcs.getInstance(project).getSettings(), root);
+            synchronized (state) {
+                for (Map.Entry<String, Boolean> entry : dirty.entrySet()) {
+                    String path = entry.getKey();
+                    if (path.startsWith(prefix + ".git/") || isUnderUntrackedDirectory(state.files, path))
+                        continue;       // nothing git would report differently
+                    removeUnder(state.files, path);
+                    String relativePath = path.substring(prefix.length());
+                    if (entry.getValue() && !gitIgnore.isIgnored(relativePath, new File(path).isDirectory()))
+                        query.add(relativePath);
+                }
+            }
+            Set<String> found = command.gitOtherFiles(query);
+            synchronized (state) {
+                state.files.addAll(found);
+            }
+        }
+        synchronized (state) {
+            return new HashSet<String>(state.files);
+        }
+    }
+
+    private static boolean isUnderUntrackedDirectory(Set<String> files, String path) {
+        for (int slash = path.lastIndexOf('/'); slash > 0; slash = path.lastIndexOf('/', slash - 1)) {
+            if (files.contains(path.substring(0, slash + 1)))
+                return true;
+        }
+        return false;
+    }
+
+    private static void removeUnder(Set<String> files, String path) {
+        files.remove(path);
+        String dir = path + "/";
+        for (Iterator<String> it = files.iterator(); it.hasNext();) {
+            if (it.next().startsWith(dir))
+                it.remove();
+        }
+    }
+
+    private synchronized void markDirty(VirtualFile file, boolean exists) {
+        if (file.getName().equals(GITIGNORE))
+            excludesChanged = true;
+        else
+            dirtyPaths.put(file.getPath(), exists);
+    }
+
+    @Override
+    public void fileCreated(@NotNull VirtualFileEvent event) {
+        markDirty(event.getFile(), true);
+    }
+
+    @Override
+    public void contentsChanged(@NotNull VirtualFileEvent event) {
+        if (event.getFile().getName().equals(GITIGNORE))
+            markDirty(event.getFile(), true);
+    }
+
+    @Override
+    public void beforeFileDeletion(@NotNull VirtualFileEvent event) {
+        markDirty(event.getFile(), false);
+    }
+
+    @Override
+    public void beforeFileMovement(@NotNull VirtualFileMoveEvent event) {
+        markDirty(event.getFile(), false);
+    }
+
+    @Override
+    public void fileMoved(@NotNull VirtualFileMoveEvent event) {
+        markDirty(event.getFile(), true);
+    }
+
+    @Override
+    public void beforePropertyChange(@NotNull VirtualFilePropertyEvent event) {
+        if (VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+            markDirty(event.getFile(), false);
+    }
+
+    @Override
+    public void propertyChanged(@NotNull VirtualFilePropertyEvent event) {
+        if (VirtualFile.PROP_NAME.equals(event.getPropertyName()))
+            markDirty(event.getFile(), true);
+    }
+
+    /**
+     * The untracked files of a VCS root
+     */
+    private static class State {
+        final long stamp;
+        final Set<String> files;
+
+        State(long stamp, Set<String> files) {
+            this.stamp = stamp;
+            this.files = files;
+        }
+    }
+}
@@ -17,6 +17,10 @@ package git4idea.commands;
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
 
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.util.text.StringUtil;
 import com.intellij.openapi.vcs.FilePath;
@@ -27,12 +31,14 @@ import com.intellij.openapi.vcs.changes.ChangeListManager;
 import com.intellij.openapi.vcs.changes.ContentRevision;
 import com.intellij.openapi.vcs.changes.VcsDirtyScopeManager;
 import com.intellij.openapi.vcs.history.VcsFileRevision;
-import com.intellij.openapi.vfs.VfsUtil;
 import com.intellij.openapi.vfs.VirtualFile;
-import com.intellij.util.EnvironmentUtil;
 import git4idea.GitUtil;
 import git4idea.GitVcs;
 import git4idea.actions.GitBranch;
+import git4idea.changes.GitCommitRecord;
+import git4idea.changes.GitCommitGraph;
+import git4idea.changes.GitHeadTree;
+import git4idea.config.GitConfig;
 import git4idea.config.GitVcsSettings;
 import git4idea.providers.GitFileAnnotation;
 import git4idea.vfs.GitContentRevision;
@@ -40,15 +46,22 @@ import git4idea.vfs.GitFileRevision;
 import git4idea.vfs.GitRevisionNumber;
 import git4idea.vfs.GitVirtualFile;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
 import java.io.StringReader;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -56,6 +69,7 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
@@ -70,7 +84,8 @@ import java.util.concurrent.locks.ReentrantLock;
  */
 @SuppressWarnings({"ResultOfMethodCallIgnored"})
 public class GitCommand {
-    public final static boolean DEBUG = false;
+    /* enable with "#git4idea.commands.GitCommand" in the log configuration to trace every git invocation */
+    private static final Logger LOG = Logger.getInstance("#git4idea.commands.GitCommand");
     public static final int BUF_SIZE = 16 * 1024;  // 16KB
     public static final int MAX_BUF_ALLOWED = 128 * 1024 * 1024; //128MB (who'll ever need to edit a file that big??? :-)
     public static final String EMPTY_STRING = "";
@@ -100,20 +115,42 @@ public class GitCommand {
     public static final String MERGETOOL_CMD = "mergetool";
     public static final String STATUS_CMD = "ls-files";
     private static final String DIFF_TREE_CMD = "diff-tree";
+    private static final String FOR_EACH_REF_CMD = "for-each-ref";
+    private static final String CAT_FILE_CMD = "cat-file";
     private static final String UPDATE_INDEX_CMD = "update-index";
+    private static final String REV_LIST_CMD = "rev-list";
+    private static final String REV_PARSE_CMD = "rev-parse";
+    private static final String LS_TREE_CMD = "ls-tree";
+
+    /* Max number of commit ids passed to a single "git log --no-walk" invocation */
+    private static final int LOG_BATCH_SIZE = 200;
+    /* Separates the fields of the "git log" lines parsed by parseLog */
+    private static final String LOG_SEPARATOR = "@@@";
+    /* Max number of paths passed to a single command, keeps the command line short enough for Windows */
+    private static final int MAX_PATHS_PER_COMMAND = 200;
+
+    /* Commands that only read the repository, safe to kill when they run too long */
+    private static final Set<String> READ_ONLY_COMMANDS = new HashSet<String>(Arrays.asList(ANNOTATE_CMD, CAT_FILE_CMD,
+            DIFF_CMD, DIFF_TREE_CMD, FOR_EACH_REF_CMD, LOG_CMD, LS_TREE_CMD, REV_LIST_CMD, REV_PARSE_CMD,
+            SHOW_CMD, STATUS_CMD, VERSION_CMD));
+    /* Commands that only transfer objects & refs from or to a remote repository */
+    private static final Set<String> REMOTE_COMMANDS = new HashSet<String>(Arrays.asList(CLONE_CMD, FETCH_CMD, PUSH_CMD));
 
-    private static String fileSep = System.getProperty("os.name").startsWith("Windows") ? "\\" : "/";
-    private static String pathSep = System.getProperty("path.separator", ";");
     private final static String line_sep = "\n";
 
     /* Misc Git constants */
     private static final String HEAD = "HEAD";
     private static final Lock gitWriteLock = new ReentrantLock();
+    private static final Map<String, Lock> remoteLocks = new HashMap<String, Lock>();
+    private static final Map<String, int[]> versions = new HashMap<String, int[]>();
 
     /* Git command env stuff */
     private Project project;
     private final GitVcsSettings settings;
     private VirtualFile vcsRoot;
+    private long timeout = -1;  // use the configured per-command timeouts
+    private GitProcessWatchdog.ErrorListener errorListener = null;
+    private boolean foreground = false;    // user-initiated work run outside of the EDT & modal progress
 
     public GitCommand(@NotNull final Project project, @NotNull GitVcsSettings settings, @NotNull VirtualFile vcsRoot) {
         this.vcsRoot = vcsRoot;
@@ -135,6 +172,64 @@ public class GitCommand {
         return execute(VERSION_CMD);
     }
 
+    /**
+     * Tells whether the git executable is at least the specified version. The version of each executable is asked
+     * only once.
+     *
+     * @param required The version numbers, major first
+     * @return True if the git version is the same or newer
+     * @throws VcsException If the version could not be read
+     */
+    public boolean isVersionAtLeast(int... required) throws VcsException {
+        String executable = getLauncher().getExecutable();
+        int[] actual;
+        synchronized (versions) {
+            actual = versions.get(executable);
+        }
+        if (actual == null) {
+            // "git version 1.6.0.2", "git version 2.39.2.windows.1"...
+            StringTokenizer tokens = new StringTokenizer(version().replace("git version", "").trim(), ".");
+            List<Integer> numbers = new ArrayList<Integer>();
+            try {
+                while (tokens.hasMoreTokens())
+                    numbers.add(Integer.valueOf(tokens.nextToken().trim()));
+            } catch (NumberFormatException e) {
+                // stop at the first non numeric part
+            }
+            actual = new int[numbers.size()];
+            for (int i = 0; i < actual.length; i++)
+                actual[i] = numbers.get(i);
+            synchronized (versions) {
+                versions.put(executable, actual);
+            }
+        }
+        for (int i = 0; i < required.length; i++) {
+            int number = i < actual.length ? actual[i] : 0;
+            if (number != required[i])
+                return number > required[i];
+        }
+        return true;
+    }
+
+    /**
+     * Returns the lock serializing the commands that transfer from or to the remotes of a VCS root, so an unattended
+     * background fetch never runs in the middle of a fetch, pull or push started by the user.
+     *
+     * @param root The VCS root
+     * @return The lock
+     */
+    @NotNull
+    public static Lock getRemoteLock(@NotNull VirtualFile root) {
+        synchronized (remoteLocks) {
+            Lock lock = remoteLocks.get(root.getPath());
+            if (lock == null) {
+                lock = new ReentrantLock();
+                remoteLocks.put(root.getPath(), lock);
+            }
+            return lock;
+        }
+    }
+
     /**
      * Returns a list of all local branches
      *
@@ -156,10 +251,22 @@ public class GitCommand {
         ArrayList<String> args = new ArrayList<String>();
         if (remoteOnly)
             args.add("-r");
-        String result = execute("branch", args, true);
+        return parseBranchList(project, execute("branch", args, true));
+    }
+
+    /**
+     * Parses the output of "git branch".
+     *
+     * @param project The project
+     * @param output  The command output
+     * @return The branches
+     * @throws VcsException If the output could not be read
+     */
+    @NotNull
+    private static List<GitBranch> parseBranchList(@NotNull Project project, @NotNull String output) throws VcsException {
         List<GitBranch> branches = new ArrayList<GitBranch>();
 
-        BufferedReader in = new BufferedReader(new StringReader(result));
+        BufferedReader in = new BufferedReader(new StringReader(output));
         String line;
         try {
             while ((line = in.readLine()) != null) {
@@ -186,6 +293,87 @@ public class GitCommand {
         return branches;
     }
 
+    /**
+     * Returns the commit ids of the refs matching the specified patterns.
+     *
+     * @param patterns The ref patterns, e.g. "refs/remotes" (all refs if none)
+     * @return The commit ids, keyed by full ref name
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, String> refs(String... patterns) throws VcsException {
+        List<String> args = new ArrayList<String>();
+        args.add("--format=%(objectname) %(refname)");
+        args.addAll(Arrays.asList(patterns));
+        String output = execute(FOR_EACH_REF_CMD, args, true);
+
+        Map<String, String> refs = new HashMap<String, String>();
+        int len = output.length();
+        for (int pos = 0, eol; pos < len; pos = eol + 1) {
+            eol = lineEnd(output, pos);
+            int sp = output.indexOf(' ', pos);
+            if (sp < 0 || sp > eol) continue;
+            refs.put(output.substring(sp + 1, eol), output.substring(pos, sp));
+        }
+        return refs;
+    }
+
+    /**
+     * Returns the configured upstream (tracked) branch of every local branch that has one.
+     *
+     * @return The upstream ref names (e.g. "refs/remotes/origin/master"), keyed by local branch ref name
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, String> upstreams() throws VcsException {
+        String output = execute(FOR_EACH_REF_CMD, new String[]{"--format=%(refname) %(upstream)", "refs/heads"}, true);
+        Map<String, String> upstreams = new HashMap<String, String>();
+        int len = output.length();
+        for (int pos = 0, eol; pos < len; pos = eol + 1) {
+            eol = lineEnd(output, pos);
+            int sp = output.indexOf(' ', pos);
+            if (sp < 0 || sp + 1 >= eol) continue;    // no upstream
+            upstreams.put(output.substring(pos, sp), output.substring(sp + 1, eol));
+        }
+        return upstreams;
+    }
+
+    /**
+     * Fetches the default remote without changing FETCH_HEAD, so a later pull or merge of FETCH_HEAD is not affected.
+     * Unlike {@link #pull(String, boolean)} this does not take the write lock, since fetching only updates
+     * remote-tracking refs, never the index or the working tree. The caller must hold the {@link #getRemoteLock remote
+     * lock} of the root.
+     *
+     * @throws VcsException If an error occurs
+     */
+    public void backgroundFetch() throws VcsException {
+        if (isVersionAtLeast(2, 29)) {
+            execute(FETCH_CMD, new String[]{"--no-write-fetch-head"}, true);
+            return;
+        }
+        // older versions always write FETCH_HEAD, put back what the last fetch or pull of the user left there
+        File fetchHead = new File(vcsRoot.getPath(), ".git" + File.separator + "FETCH_HEAD");
+        byte[] saved = null;
+        try {
+            if (fetchHead.isFile())
+                saved = readFile(fetchHead);
+        } catch (IOException e) {
+            throw new VcsException(e);
+        }
+        try {
+            execute(FETCH_CMD, new String[0], true);
+        } finally {
+            try {
+                if (saved != null)
+                    writeFile(fetchHead, saved);
+                else
+                    fetchHead.delete();
+            } catch (IOException e) {
+                LOG.warn("Could not restore " + fetchHead, e);
+            }
+        }
+    }
+
     /**
      * Returns the name of the currently active branch
      *
@@ -205,6 +393,18 @@ public class GitCommand {
         return "master";
     }
 
+    /**
+     * Returns the remote a push or fetch without arguments goes to: the remote of the current branch, else "origin".
+     *
+     * @return The remote name
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public String defaultRemote() throws VcsException {
+        String remote = GitConfig.getInstance(settings, vcsRoot).get("branch." + currentBranch() + ".remote");
+        return remote != null && remote.length() > 0 ? remote : "origin";
+    }
+
     /**
      * Returns the remote repository URL, that a specified remote branch comes from.
      *
@@ -216,13 +416,7 @@ public class GitCommand {
         String bname = branch.getName();
         if (!branch.isRemote()) return null;
         String remoteAlias = bname.substring(0, bname.indexOf("/"));
-
-        List<String> args = new ArrayList<String>();
-
-        args.add("--get");
-        args.add("remote." + remoteAlias + ".url");
-
-        return execute(CONFIG_CMD, args, true);
+        return GitConfig.getInstance(settings, vcsRoot).get("remote." + remoteAlias + ".url");
     }
 
     /**
@@ -232,30 +426,59 @@ public class GitCommand {
      * @throws VcsException If an error occurs
      */
     public Set<GitVirtualFile> gitCachedFiles() throws VcsException {
-        Set<GitVirtualFile> files = new HashSet<GitVirtualFile>();
         String output;
         List<String> args = new ArrayList<String>();
         args.add("--cached");
         args.add("--name-status");
-        args.add("--diff-filter=ADMRUX");
+        args.add("-z");
+        args.add("-M");
+        args.add("-C");
+        args.add("--diff-filter=ACDMRUX");
         args.add("--");
         output = execute(DIFF_CMD, args, true);
+        return parseCachedFiles(project, getBasePath(), output);
+    }
 
-        StringTokenizer tokenizer;
-        if (output != null && output.length() > 0) {
-            if (output.startsWith("null"))
-                output = output.substring(4);
-            tokenizer = new StringTokenizer(output, "\n");
-            while (tokenizer.hasMoreTokens()) {
-                final String s = tokenizer.nextToken();
-                String[] larr = s.split("\t");
-                if (larr.length == 2) {
-                    GitVirtualFile file = new GitVirtualFile(project, getBasePath() + "/" + larr[1], convertStatus(larr[0]));
-                    files.add(file);
-                }
+    /**
+     * Parses the output of "git diff --cached --name-status -z -M -C". Renamed & copied files carry their source
+     * path.
+     *
+     * @param project  The project
+     * @param basePath The VCS root path
+     * @param output   The command output
+     * @return The changed files
+     */
+    @NotNull
+    private static Set<GitVirtualFile> parseCachedFiles(@NotNull Project project, @NotNull String basePath, String output) {
+        Set<GitVirtualFile> files = new HashSet<GitVirtualFile>();
+        if (output == null || output.length() == 0)
+            return files;
+        int pos = output.startsWith("null") ? 4 : 0;
+        int len = output.length();
+        while (pos < len) {
+            // entries are "<status>\0<path>\0", or "<R|C><score>\0<source>\0<path>\0" for renames & copies
+            int end = output.indexOf('\0', pos);
+            if (end < 0) break;
+            String status = output.substring(pos, end).trim();
+            pos = end + 1;
+            if (status.length() == 0) continue;
+            String source = null;
+            if (status.charAt(0) == 'R' || status.charAt(0) == 'C') {
+                end = output.indexOf('\0', pos);
+                if (end < 0) break;
+                source = output.substring(pos, end);
+                pos = end + 1;
             }
+            end = output.indexOf('\0', pos);
+            if (end < 0) end = len;
+            String path = output.substring(pos, end);
+            pos = end + 1;
+            if (path.length() == 0) continue;
+            GitVirtualFile file = new GitVirtualFile(project, basePath + "/" + path, toStatus(status.substring(0, 1)));
+            if (source != null)
+                file.setOrigin(basePath + "/" + source);
+            files.add(file);
         }
-
         return files;
     }
 
@@ -266,12 +489,35 @@ public class GitCommand {
      * @throws VcsException If an error occurs
      */
     public Set<String> gitUnCachedFiles() throws VcsException {
+        return gitUnCachedFiles(null);
+    }
+
+    /**
+     * Returns the changed Git filenames not yet cached into the Git index among the specified files.
+     *
+     * @param relativePaths The paths relative to the VCS root to check, or null for all files
+     * @return The set of changed files
+     * @throws VcsException If an error occurs
+     */
+    public Set<String> gitUnCachedFiles(Collection<String> relativePaths) throws VcsException {
+        if (relativePaths == null)
+            return gitUnCachedFiles(null, 0);
+        Set<String> files = new HashSet<String>();
+        List<String> paths = new ArrayList<String>(relativePaths);
+        for (int start = 0; start < paths.size(); start += MAX_PATHS_PER_COMMAND)
+            files.addAll(gitUnCachedFiles(paths, start));
+        return files;
+    }
+
+    private Set<String> gitUnCachedFiles(List<String> paths, int start) throws VcsException {
         Set<String> files = new HashSet<String>();
         String output;
         List<String> args = new ArrayList<String>();
         args.add("--name-status");
         args.add("--diff-filter=MRU");
         args.add("--");
+        if (paths != null)
+            args.addAll(paths.subList(start, Math.min(start + MAX_PATHS_PER_COMMAND, paths.size())));
         output = execute(DIFF_CMD, args, true);
 
         StringTokenizer tokenizer;
@@ -298,20 +544,43 @@ public class GitCommand {
      * @throws VcsException If an error occurs
      */
     public Set<String> gitOtherFiles() throws VcsException {
+        return gitOtherFiles(null);
+    }
+
+    /**
+     * Returns the Git-unversioned filenames among the specified paths. Files ignored by .gitignore & friends are left
+     * out, and directories containing no tracked files are reported as a whole (with a trailing '/') rather than
+     * file by file, so ignored & untracked trees are never enumerated.
+     *
+     * @param relativePaths The paths relative to the VCS root to check, or null for the whole root
+     * @return The set of unversioned files & directories
+     * @throws VcsException If an error occurs
+     */
+    public Set<String> gitOtherFiles(Collection<String> relativePaths) throws VcsException {
         Set<String> files = new HashSet<String>();
-        String output;
-        List<String> args = new ArrayList<String>();
-        args.add("--others");
-        args.add("--");
-        output = execute(STATUS_CMD, args, true);
-        if (output != null && output.length() > 0) {
-            StringTokenizer tokenizer = new StringTokenizer(output, line_sep);
-            while (tokenizer.hasMoreTokens()) {
-                final String s = tokenizer.nextToken();
-                files.add(getBasePath() + "/" + s.trim());
+        List<String> paths = relativePaths != null ? new ArrayList<String>(relativePaths) : null;
+        if (paths != null && paths.size() == 0)
+            return files;
+        int start = 0;
+        do {
+            List<String> args = new ArrayList<String>();
+            args.add("--others");
+            args.add("--directory");
+            args.add("--exclude-standard");
+            args.add("-z");
+            args.add("--");
+            if (paths != null)
+                args.addAll(paths.subList(start, Math.min(start + MAX_PATHS_PER_COMMAND, paths.size())));
+            byte[] output = executeRaw(STATUS_CMD, args, true);
+            int mark = 0;
+            for (int i = 0; i < output.length; i++) {
+                if (output[i] != 0) continue;
+                if (i > mark)
+                    files.add(getBasePath() + "/" + decodeUTF8(output, mark, i));
+                mark = i + 1;
             }
-        }
-
+            start += MAX_PATHS_PER_COMMAND;
+        } while (paths != null && start < paths.size());
         return files;
     }
 
@@ -325,7 +594,9 @@ public class GitCommand {
         Set<String> files = new HashSet<String>();
         String output;
         List<String> args = new ArrayList<String>();
-        args.add("--ignored ");
+        args.add("--others");
+        args.add("--ignored");
+        args.add("--directory");
         args.add("--exclude-standard");
         args.add("--");
         output = execute(STATUS_CMD, args, true);
@@ -341,13 +612,14 @@ public class GitCommand {
     }
 
     /**
-     * Loads the specified revision of a file from Git.
+     * Loads the specified revision of a file from Git, byte for byte.
      *
      * @param path     The path to the file.
      * @param revision The revision to load. If the revision is null, then HEAD will be loaded.
-     * @return The contents of the revision as a String.
+     * @return The raw contents of the revision, empty if the file doesn't exist in that revision.
      */
-    public String getContents(@NotNull String path, String revision) {
+    @NotNull
+    public byte[] getContents(@NotNull String path, String revision) {
         StringBuffer revCmd = new StringBuffer();
         if (revision != null) {
             if (revision.length() > 40)       // this is the date & revision-id encoded string
@@ -361,9 +633,10 @@ public class GitCommand {
 
         String vcsPath = revCmd.append(getRelativeFilePath(path, vcsRoot)).toString();
         try {
-            return execute(SHOW_CMD, Collections.singletonList(vcsPath), true);
+            // "cat-file blob" never applies textconv filters, unlike "show"
+            return executeRaw(CAT_FILE_CMD, Arrays.asList("blob", vcsPath), true);
         } catch (VcsException e) {
-            return "";
+            return new byte[0];
         }
     }
 
@@ -373,8 +646,7 @@ public class GitCommand {
      */
     public String getCommitTemplate() {
         try {
-            String [] args = { "commit.template" };
-            String commitTemplateName = execute(CONFIG_CMD, null, args, true);
+            String commitTemplateName = GitConfig.getInstance(settings, vcsRoot).getPath("commit.template");
             if (commitTemplateName == null || commitTemplateName.trim().length() == 0) return null;
 
             File commitTemplateFile  = new File(commitTemplateName.trim());
@@ -416,7 +688,8 @@ public class GitCommand {
                         "-l5",
                         "--find-copies-harder",
                         "-n50",
-                        "--pretty=format:%H@@@%an <%ae>@@@%ct@@@%s",
+                        "--encoding=" + GitCommitRecord.ENCODING,
+                        "--pretty=format:%H" + LOG_SEPARATOR + "%an <%ae>" + LOG_SEPARATOR + "%ct" + LOG_SEPARATOR + "%s",
                         "--"
                 };
 
@@ -426,19 +699,31 @@ public class GitCommand {
                 };
 
         String result = execute(LOG_CMD, options, args);
+        return parseLog(project, filePath, result);
+    }
 
+    /**
+     * Parses the output of "git log --pretty=format:%H@@@%an &lt;%ae&gt;@@@%ct@@@%s".
+     *
+     * @param project  The project
+     * @param filePath The file the log was requested for
+     * @param output   The command output
+     * @return The file revisions, newest first
+     * @throws VcsException If the output could not be read
+     */
+    @NotNull
+    private static List<VcsFileRevision> parseLog(@NotNull Project project, @NotNull FilePath filePath, @NotNull String output)
+            throws VcsException {
         List<VcsFileRevision> revisions = new ArrayList<VcsFileRevision>();
 
         // Pull the result apart...
-        BufferedReader in = new BufferedReader(new StringReader(result));
+        BufferedReader in = new BufferedReader(new StringReader(output));
         String line;
-        //SimpleDateFormat df = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
         try {
             while ((line = in.readLine()) != null) {
                 if (line.length() == 0) continue;
-                String[] values = line.split("@@@");
+                String[] values = line.split(LOG_SEPARATOR);
                 Date commitDate = new Date(Long.valueOf(values[2]) * 1000);
-                //String revstr = df.format(commitDate) + " [" + values[0] + "]";
                 String revstr = values[0];
                 GitFileRevision revision = new GitFileRevision(
                         project,
@@ -733,6 +1018,8 @@ public class GitCommand {
      * @throws VcsException If an error occurs
      */
     public void pull(String repoURL, boolean merge) throws VcsException {
+        Lock remoteLock = getRemoteLock(vcsRoot);
+        remoteLock.lock();
         gitWriteLock.lock();
         try {
             String cmd;
@@ -742,11 +1029,13 @@ public class GitCommand {
                 cmd = FETCH_CMD;
 
             String result = execute(cmd, repoURL);
-            GitVcs.getInstance(project).showMessages(result);
-            result = execute(cmd, "--tags", repoURL);
+            // a fetch of its own, before git 1.9 "fetch --tags" fetches only the tags and "pull --tags" fails
+            if (settings.FETCH_ALL_TAGS)
+                result += execute(FETCH_CMD, "--tags", repoURL);
             GitVcs.getInstance(project).showMessages(result);
         } finally {
             gitWriteLock.unlock();
+            remoteLock.unlock();
         }
     }
 
@@ -756,10 +1045,15 @@ public class GitCommand {
      * @throws VcsException If an error occurs
      */
     public void push() throws VcsException {
-        String result = execute(PUSH_CMD);
-        GitVcs.getInstance(project).showMessages(result);
-        result = execute(PUSH_CMD, "--tags");
-        GitVcs.getInstance(project).showMessages(result);
+        Lock remoteLock = getRemoteLock(vcsRoot);
+        remoteLock.lock();
+        try {
+            // the matching branches (":") & every tag, lightweight ones included, in a single round-trip
+            String result = execute(PUSH_CMD, new String[]{"--tags"}, new String[]{defaultRemote(), ":"});
+            GitVcs.getInstance(project).showMessages(result);
+        } finally {
+            remoteLock.unlock();
+        }
     }
 
     /**
@@ -902,17 +1196,11 @@ public class GitCommand {
      * @throws VcsException If an error occurs
      */
     public void mergetool(String[] files) throws VcsException {
-        String gitcmd;
-        File gitExec = new File(settings.GIT_EXECUTABLE);
-        if (gitExec.exists())  // use absolute path if we can
-            gitcmd = gitExec.getAbsolutePath();
-        else
-            gitcmd = "git";
-
+        GitCommandLauncher launcher = getLauncher();
         Process proc;
         try {
             List<String> cmdLine = new LinkedList<String>();
-            cmdLine.add(gitcmd);
+            cmdLine.add(launcher.getExecutable());
             cmdLine.add(MERGETOOL_CMD);
             if (files != null && files.length > 0) {
                 for (String file : files) {
@@ -921,25 +1209,10 @@ public class GitCommand {
                 }
             }
 
-            File directory = VfsUtil.virtualToIoFile(vcsRoot);
-            ProcessBuilder pb = new ProcessBuilder(cmdLine);
-            // copy IDEA configured env into process exec env
-            Map<String, String> pbenv = pb.environment();
-            pbenv.putAll(EnvironmentUtil.getEnviromentProperties());
-            if (pbenv.get("GIT_DIR") == null)
-                pbenv.put("GIT_DIR", directory.getAbsolutePath() + fileSep + ".git");
-            String PATH = pbenv.get("PATH");    // fix up path...
-            pbenv.put("PATH", gitExec.getParent() + pathSep + PATH);
-            pb.directory(directory);
-            pb.redirectErrorStream(true);
-
-            if (DEBUG) {
-                String cmdStr = StringUtil.join(cmdLine, " ");
-                GitVcs.getInstance(project).showMessages("DEBUG: work-dir: [" + directory.getAbsolutePath() + "]" +
-                        " exec: [" + cmdStr + "]");
-            }
+            if (LOG.isDebugEnabled())
+                LOG.debug("work-dir: [" + launcher.getDirectory().getAbsolutePath() + "] exec: [" + StringUtil.join(cmdLine, " ") + "]");
 
-            proc = pb.start();     // we're not waiting for the process, let IDEA continue
+            proc = launcher.startTool(cmdLine);     // we're not waiting for the process, let IDEA continue
             try {
                 Thread.sleep(1000);
             } catch (InterruptedException e) {  // let it fire up, don't care if we get interrupted
@@ -959,66 +1232,64 @@ public class GitCommand {
     }
 
     /**
-     * Use gitk to show revision graph for specified file.
+     * Streams the commit graph of HEAD & all branches, remote branches & tags to the consumer, children first, from a
+     * single "git rev-list --topo-order --parents" pass. Only the line being parsed is buffered. Large histories take
+     * a while to list, so the listing has no time limit; interrupt the calling thread to stop it. When limited to
+     * paths, only the commits touching them are listed, and their parents are rewritten to the nearest such commit.
      *
-     * @param file The file to show
-     * @throws VcsException if an error occurs
+     * @param paths    The paths relative to the VCS root to limit the graph to, empty for the whole history
+     * @param consumer The consumer of the commits & their parents
+     * @throws VcsException If an error occurs
      */
-    public void revisionGraph(VirtualFile file) throws VcsException {
-        String wishcmd;
-        String gitkcmd;
-        File gitExec = new File(settings.GIT_EXECUTABLE);
-        if (gitExec.exists()) {  // use absolute path if we can
-            gitkcmd = gitExec.getParent() + fileSep + "gitk";
-            String wishExe = settings.GIT_EXECUTABLE.endsWith(".exe") ? "wish84.exe" : "wish84";
-            wishcmd = gitExec.getParent() + fileSep + wishExe;
-            File wc = new File(wishcmd);
-            if (!wc.exists()) // sometimes wish isn't where git is...
-                wishcmd = "wish";
-        } else {    // otherwise, assume user has $PATH setup
-            wishcmd = "wish84";
-            gitkcmd = "gitk";
-        }
-
-        String filename = getRelativeFilePath(file, vcsRoot);
-
-        Process proc;
-        try {
-            File directory = VfsUtil.virtualToIoFile(vcsRoot);
-            ProcessBuilder pb = new ProcessBuilder(wishcmd, gitkcmd, filename);
-            // copy IDEA configured env into process exec env
-            Map<String, String> pbenv = pb.environment();
-            pbenv.putAll(EnvironmentUtil.getEnviromentProperties());
-            if (pbenv.get("GIT_DIR") == null)
-                pbenv.put("GIT_DIR", directory.getAbsolutePath() + fileSep + ".git");
-            String PATH = pbenv.get("PATH");    // fix up path so wish can find git when it needs it...
-
-            pbenv.put("PATH", gitExec.getParent() + pathSep + PATH);
-            pb.directory(directory);
-            pb.redirectErrorStream(true);
-
-            if (DEBUG) {
-                String[] cmdLine = new String[]{wishcmd, gitkcmd, filename};
-                String cmdStr = StringUtil.join(cmdLine, " ");
-                GitVcs.getInstance(project).showMessages("DEBUG: work-dir: [" + directory.getAbsolutePath() + "]" +
-                        " exec: [" + cmdStr + "]");
+    public void revisionGraph(@NotNull Collection<String> paths, @NotNull final GitCommitGraph.Consumer consumer)
+            throws VcsException {
+        List<String> args = new ArrayList<String>(
+                Arrays.asList("--topo-order", "--parents", "--branches", "--remotes", "--tags", HEAD, "--"));
+        args.addAll(paths);
+        stream(REV_LIST_CMD, args, 0, new RecordHandler((byte) '\n') {
+            void record(@NotNull byte[] buf, int len) {
+                parseGraphLine(buf, consumer);
             }
+        });
+    }
 
-            proc = pb.start();     // we're not waiting for the process, let IDEA continue
-            try {
-                Thread.sleep(1000);
-            } catch (InterruptedException e) {  // let it fire up, don't care if we get interrupted
-            }
-        } catch (Exception e) {
-            throw new VcsException(e);
-        }
+    private static void parseGraphLine(byte[] line, GitCommitGraph.Consumer consumer) {
+        // format is: "<commit-id> <parent-id>..."
+        String[] ids = decodeUTF8(line, 0, line.length).trim().split(" ");
+        if (ids[0].length() != 40) return;
+        String[] parents = new String[ids.length - 1];
+        System.arraycopy(ids, 1, parents, 0, parents.length);
+        consumer.consume(ids[0], parents);
+    }
 
-        try {
-            if (proc.exitValue() != 0)
-                throw new VcsException("Error executing gitk!");
-        } catch (IllegalThreadStateException ie) {
-            // ignore if we get this since it means it just hasn't terminated yet... probably working!
+    /**
+     * Returns the author, author date & subject of the specified commits, read in batches of "git log --no-walk".
+     *
+     * @param commitIds The ids of the commits
+     * @return The author, the author date (seconds since the epoch) & the subject, keyed by commit id
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, String[]> commitSummaries(@NotNull List<String> commitIds) throws VcsException {
+        Map<String, String[]> summaries = new HashMap<String, String[]>();
+        for (int start = 0; start < commitIds.size(); start += LOG_BATCH_SIZE) {
+            List<String> cmdLine = new ArrayList<String>();
+            cmdLine.add("--no-walk");
+            cmdLine.add("-z");
+            cmdLine.add("--encoding=UTF-8");
+            cmdLine.add("--pretty=format:%H%x01%an%x01%at%x01%s");
+            cmdLine.addAll(commitIds.subList(start, Math.min(start + LOG_BATCH_SIZE, commitIds.size())));
+            byte[] output = executeRaw(LOG_CMD, cmdLine, true);
+            int mark = 0;
+            for (int i = 0; i <= output.length; i++) {
+                if (i < output.length && output[i] != 0) continue;
+                String[] fields = decodeUTF8(output, mark, i).split("\u0001", 4);
+                mark = i + 1;
+                if (fields.length == 4 && fields[0].length() == 40)
+                    summaries.put(fields[0], new String[]{fields[1], fields[2], fields[3]});
+            }
         }
+        return summaries;
     }
 
     /**
@@ -1030,45 +1301,62 @@ public class GitCommand {
      *          If it fails...
      */
     public GitFileAnnotation annotate(FilePath filePath) throws VcsException {
-        String[] options = new String[]{"-c", "-C", "-l", "--"};
-        String[] args = new String[]{getRelativeFilePath(filePath.getPath(), vcsRoot)};
+        List<String> args = Arrays.asList("-c", "-C", "-l", "--", getRelativeFilePath(filePath.getPath(), vcsRoot));
 
-        GitFileAnnotation annotation = new GitFileAnnotation(project);
-        String cmdOutput = execute(ANNOTATE_CMD, options, args);
-        if (cmdOutput == null || cmdOutput.length() == 0) return annotation;
+        // raw bytes, the line contents are in the file's encoding
+        byte[] cmdOutput = executeRaw(ANNOTATE_CMD, args, false);
+        return parseAnnotations(project, cmdOutput, filePath.getCharset());
+    }
 
-        BufferedReader in = new BufferedReader(new StringReader(cmdOutput));
+    /**
+     * Parses the output of "git blame -c -l". Revisions, authors, dates & line numbers are decoded as UTF-8, the line
+     * contents with the charset of the file.
+     *
+     * @param project The project
+     * @param output  The raw command output
+     * @param charset The charset of the annotated file
+     * @return The file annotation
+     * @throws VcsException If the output is malformed
+     */
+    @NotNull
+    private static GitFileAnnotation parseAnnotations(@NotNull Project project, @NotNull byte[] output,
+                                                      @NotNull Charset charset) throws VcsException {
+        GitFileAnnotation annotation = new GitFileAnnotation(project);
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss Z");
-        String Line;
         try {
-            while ((Line = in.readLine()) != null) {
-                String annValues[] = Line.split("\t", 4);
-                if (annValues.length != 4) {
+            for (int pos = 0, eol; pos < output.length; pos = eol + 1) {
+                eol = indexOf(output, '\n', pos, output.length);
+                if (eol < 0) eol = output.length;
+                int end = eol > pos && output[eol - 1] == '\r' ? eol - 1 : eol;
+
+                // <revision>\t(<author>\t<date>\t<line number>)<line contents>
+                int tab1 = indexOf(output, '\t', pos, end);
+                int tab2 = tab1 < 0 ? -1 : indexOf(output, '\t', tab1 + 1, end);
+                int tab3 = tab2 < 0 ? -1 : indexOf(output, '\t', tab2 + 1, end);
+                if (tab3 < 0) {
                     throw new VcsException("Framing error: unexpected number of values");
                 }
 
-                String revision = annValues[0];
-                String user = annValues[1];
-                String dateStr = annValues[2];
-                String numberedLine = annValues[3];
+                String revision = decodeUTF8(output, pos, tab1);
+                String user = decodeUTF8(output, tab1 + 1, tab2);
+                String dateStr = decodeUTF8(output, tab2 + 1, tab3);
 
                 if (revision.length() != 40) {
                     throw new VcsException("Framing error: Illegal revision number: " + revision);
                 }
 
-                int idx = numberedLine.indexOf(')');
-                if (!user.startsWith("(") || idx <= 0) {
+                int idx = indexOf(output, ')', tab3 + 1, end);
+                if (!user.startsWith("(") || idx <= tab3 + 1) {
                     continue;
                 }
                 user = user.substring(1).trim(); // Ditch the (
-                Long lineNumber = Long.valueOf(numberedLine.substring(0, idx));
-                String lineContents = numberedLine.substring(idx + 1);
+                Long lineNumber = Long.valueOf(decodeUTF8(output, tab3 + 1, idx));
+                String lineContents = decode(output, idx + 1, end, charset);
 
                 Date date = dateFormat.parse(dateStr);
                 annotation.appendLineInfo(date, new GitRevisionNumber(revision, date), user, lineContents, lineNumber);
             }
-
-        } catch (IOException e) {
+        } catch (NumberFormatException e) {
             throw new VcsException("Failed to load annotations", e);
         } catch (ParseException e) {
             throw new VcsException("Failed to load annotations", e);
@@ -1076,6 +1364,15 @@ public class GitCommand {
         return annotation;
     }
 
+    /* the index of the first c in buf[from, to), else -1 */
+    private static int indexOf(byte[] buf, char c, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == c)
+                return i;
+        }
+        return -1;
+    }
+
     /**
      * Builds collection of changed files for a given commit.
      *
@@ -1084,13 +1381,27 @@ public class GitCommand {
      * @throws VcsException if an error occurs
      */
     public Collection<Change> getChangesForCommit(String commitId) throws VcsException {
-        final ArrayList<Change> result = new ArrayList<Change>();
-
         String[] options = new String[]{"-r", "--root", "--pretty=format:%P"}; // Show parent commit if it present
         String[] args = new String[]{commitId};
 
         String cmdOutput = execute(DIFF_TREE_CMD, options, args);
-        final String[] changes = cmdOutput.split("\n");
+        return parseCommitChanges(project, vcsRoot, commitId, cmdOutput);
+    }
+
+    /**
+     * Parses the output of "git diff-tree -r --root --pretty=format:%P".
+     *
+     * @param project  The project
+     * @param vcsRoot  The VCS root
+     * @param commitId The commit the output was produced for
+     * @param output   The command output
+     * @return The changes made by the commit
+     */
+    @NotNull
+    private static Collection<Change> parseCommitChanges(@NotNull Project project, @NotNull VirtualFile vcsRoot,
+                                                         @NotNull String commitId, @NotNull String output) {
+        final ArrayList<Change> result = new ArrayList<Change>();
+        final String[] changes = output.split("\n");
 
         if (changes.length == 0) {
             return result;
@@ -1114,9 +1425,7 @@ public class GitCommand {
             // :000000 100644 0000000000000000000000000000000000000000 984ca539b1c469fb2bbd6d6e26fe5fcd25ab76f1 A	src/git4idea/GitRefactoringListenerProvider.java
             final String[] tokens = gitChnage.split("[ \t]");
             assert tokens.length > 5;
-            final String blogIdBefore = tokens[2];
-            final String blobIdAfter = tokens[3];
-            final GitVirtualFile.Status status = convertStatus(tokens[4].substring(0, 1));
+            final GitVirtualFile.Status status = toStatus(tokens[4].substring(0, 1));
             final String pathArg1 = vcsRoot.getPath() + "/" + tokens[5];
             final String pathArg2 = tokens.length > 6 ? (vcsRoot.getPath() + "/" + tokens[6]) : null;
 
@@ -1156,10 +1465,474 @@ public class GitCommand {
         return result;
     }
 
+    /**
+     * Returns the end of the line starting at the specified position: the index of its '\n', else the output length.
+     *
+     * @param output The command output
+     * @param pos    The start of the line
+     * @return The end of the line
+     */
+    private static int lineEnd(@NotNull String output, int pos) {
+        int eol = output.indexOf('\n', pos);
+        return eol < 0 ? output.length() : eol;
+    }
+
+    /**
+     * Returns the raw contents of a blob.
+     *
+     * @param blobId The blob id
+     * @return The blob contents
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public byte[] catBlob(@NotNull String blobId) throws VcsException {
+        return executeRaw(CAT_FILE_CMD, Arrays.asList("blob", blobId), true);
+    }
+
+    /**
+     * Returns the raw change entries between two trees (or commits), with rename detection.
+     *
+     * @param from The tree-ish to compare from
+     * @param to   The tree-ish to compare to
+     * @return The change entries
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public List<GitCommitRecord.Entry> diffTree(@NotNull String from, @NotNull String to) throws VcsException {
+        byte[] output = executeRaw(DIFF_TREE_CMD, Arrays.asList("-r", "-z", "--no-abbrev", "-M", from, to, "--"), true);
+        try {
+            return GitCommitRecord.parseRawEntries(output, output.length);
+        } catch (IOException e) {
+            throw new VcsException(e);
+        }
+    }
+
+    /**
+     * Returns the raw change entries between a tree (or commit) and the index, with rename detection. Paths left
+     * unmerged by a merge or rebase are reported with status 'U'.
+     *
+     * @param from The tree-ish to compare from
+     * @return The change entries
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public List<GitCommitRecord.Entry> diffIndex(@NotNull String from) throws VcsException {
+        byte[] output = executeRaw(DIFF_CMD, Arrays.asList("--cached", "--raw", "-z", "--no-abbrev", "-M", from, "--"), true);
+        try {
+            return GitCommitRecord.parseRawEntries(output, output.length);
+        } catch (IOException e) {
+            throw new VcsException(e);
+        }
+    }
+
+    /**
+     * Returns the paths of the files which differ between two trees (or commits), from a single "git diff-tree" pass.
+     *
+     * @param from The tree-ish to compare from
+     * @param to   The tree-ish to compare to
+     * @return The paths relative to the VCS root
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public List<String> changedPaths(@NotNull String from, @NotNull String to) throws VcsException {
+        return splitPaths(executeRaw(DIFF_TREE_CMD, Arrays.asList("-r", "-z", "--name-only", "--no-renames", from, to, "--"), true));
+    }
+
+    /**
+     * Returns the paths of the tracked files whose working copy differs from HEAD, staged or not.
+     *
+     * @return The paths relative to the VCS root
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public List<String> modifiedPaths() throws VcsException {
+        return splitPaths(executeRaw(DIFF_CMD, Arrays.asList("-z", "--name-only", "--no-renames", HEAD, "--"), true));
+    }
+
+    /**
+     * Returns the paths of the tracked files whose index entry differs from HEAD.
+     *
+     * @return The paths relative to the VCS root
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public List<String> stagedPaths() throws VcsException {
+        return splitPaths(executeRaw(DIFF_CMD,
+                Arrays.asList("--cached", "-z", "--name-only", "--no-renames", HEAD, "--"), true));
+    }
+
+    private static List<String> splitPaths(byte[] output) {
+        List<String> paths = new ArrayList<String>();
+        int mark = 0;
+        for (int i = 0; i < output.length; i++) {
+            if (output[i] != 0) continue;
+            if (i > mark)
+                paths.add(decodeUTF8(output, mark, i));
+            mark = i + 1;
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the ids of the commits reachable from the specified revision, newest first.
+     *
+     * @param revision The revision (branch, tag or commit id) to start from
+     * @param since    If not null, only list commits made after this date
+     * @param until    If not null, only list commits made before this date
+     * @param maxCount The maximum number of commit ids to return, zero for no limit
+     * @return The list of commit ids
+     * @throws VcsException If an error occurs
+     */
+    public List<String> revisionList(@NotNull String revision, Date since, Date until, int maxCount) throws VcsException {
+        return revisionList(revision, since, until, null, maxCount);
+    }
+
+    /**
+     * Returns the ids of the commits reachable from the specified revision, newest first.
+     *
+     * @param revision The revision (branch, tag or commit id) to start from
+     * @param since    If not null, only list commits made after this date
+     * @param until    If not null, only list commits made before this date
+     * @param author   If not null, only list commits whose author name or e-mail contains this text, ignoring case
+     * @param maxCount The maximum number of matching commit ids to return, zero for no limit
+     * @return The list of commit ids
+     * @throws VcsException If an error occurs
+     */
+    public List<String> revisionList(@NotNull String revision, Date since, Date until, String author, int maxCount)
+            throws VcsException {
+        List<String> args = new ArrayList<String>();
+        if (maxCount > 0)
+            args.add("--max-count=" + maxCount);
+        if (since != null)
+            args.add("--since=" + (since.getTime() / 1000));
+        if (until != null)
+            args.add("--until=" + (until.getTime() / 1000));
+        if (author != null && author.length() > 0) {
+            args.add("--regexp-ignore-case");
+            args.add("--author=" + quoteBasicRegexp(author));
+        }
+        args.add(revision);
+        args.add("--");
+
+        String output = execute(REV_LIST_CMD, args, true);
+        List<String> ids = new ArrayList<String>();
+        StringTokenizer tokenizer = new StringTokenizer(output, line_sep);
+        while (tokenizer.hasMoreTokens()) {
+            String id = tokenizer.nextToken().trim();
+            if (id.length() == 40)
+                ids.add(id);
+        }
+        return ids;
+    }
+
+    /* escapes the characters special in a POSIX basic regular expression, as git matches --author with one */
+    private static String quoteBasicRegexp(String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 8);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if ("\\.[]*^$".indexOf(c) >= 0)
+                sb.append('\\');
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Streams the commit headers & raw change entries of the specified commits to the consumer, one commit at a
+     * time, without buffering the whole git log output.
+     *
+     * @param commitIds The ids of the commits to load
+     * @param consumer  The consumer of the parsed commit records
+     * @throws VcsException If an error occurs
+     */
+    public void commitRecords(@NotNull List<String> commitIds, @NotNull GitCommitRecord.Consumer consumer) throws VcsException {
+        for (int start = 0; start < commitIds.size(); start += LOG_BATCH_SIZE) {
+            List<String> cmdLine = new ArrayList<String>();
+            cmdLine.add("--no-walk");
+            cmdLine.add("--raw");
+            cmdLine.add("-z");
+            cmdLine.add("--no-abbrev");
+            cmdLine.add("-M");
+            cmdLine.add("--encoding=" + GitCommitRecord.ENCODING);
+            cmdLine.add("--pretty=format:" + GitCommitRecord.LOG_FORMAT);
+            cmdLine.addAll(commitIds.subList(start, Math.min(start + LOG_BATCH_SIZE, commitIds.size())));
+            streamCommitRecords(cmdLine, null, consumer);
+        }
+    }
+
+    /**
+     * Streams the commit headers & raw change entries of all commits reachable from the included revisions but not
+     * from the excluded ones, newest first. The revisions are passed through stdin, so any number of refs may be
+     * given. Renames are not detected.
+     *
+     * @param include  The revisions to start from
+     * @param exclude  The revisions whose history to leave out
+     * @param consumer The consumer of the parsed commit records
+     * @throws VcsException If an error occurs, e.g. an excluded revision no longer exists
+     */
+    public void reachableCommitRecords(@NotNull Collection<String> include, @NotNull Collection<String> exclude,
+                                       @NotNull GitCommitRecord.Consumer consumer) throws VcsException {
+        if (include.size() == 0) return;
+        List<String> cmdLine = new ArrayList<String>();
+        cmdLine.add("--raw");
+        cmdLine.add("-z");
+        cmdLine.add("--no-abbrev");
+        cmdLine.add("--no-renames");
+        cmdLine.add("--encoding=" + GitCommitRecord.ENCODING);
+        cmdLine.add("--pretty=format:" + GitCommitRecord.LOG_FORMAT);
+        cmdLine.add("--stdin");
+        List<String> revisions = new ArrayList<String>(include);
+        for (String revision : exclude)
+            revisions.add("^" + revision);
+        streamCommitRecords(cmdLine, revisions, consumer);
+    }
+
+    private void streamCommitRecords(@NotNull List<String> args, @Nullable final List<String> stdin,
+                                     @NotNull final GitCommitRecord.Consumer consumer) throws VcsException {
+        stream(LOG_CMD, args, getTimeout(LOG_CMD), new RecordHandler(GitCommitRecord.RECORD_START) {
+            void read(@NotNull Process proc, @NotNull InputStream in) throws IOException, VcsException {
+                if (stdin != null) {
+                    // git reads all revisions before it starts writing, so they can be written up front
+                    OutputStream out = proc.getOutputStream();
+                    for (String line : stdin)
+                        out.write((line + "\n").getBytes("UTF-8"));
+                    out.close();
+                }
+                super.read(proc, in);
+            }
+
+            void record(@NotNull byte[] buf, int len) throws IOException {
+                consumer.consume(GitCommitRecord.parse(buf, len));
+            }
+        });
+    }
+
+    /**
+     * Returns the unmerged (conflicted) index entries, read in a single "git ls-files -u" pass.
+     *
+     * @return The blob ids of the base, ours & theirs stages (null where a stage is missing), keyed by the path
+     *         relative to the VCS root
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, String[]> unmergedEntries() throws VcsException {
+        byte[] output = executeRaw(STATUS_CMD, Arrays.asList("-u", "-z"), true);
+        Map<String, String[]> entries = new HashMap<String, String[]>();
+        int start = 0;
+        for (int i = 0; i < output.length; i++) {
+            if (output[i] != 0) continue;
+            // format is: "<mode> <blob-id> <stage>\t<path>"
+            String entry = decodeUTF8(output, start, i);
+            start = i + 1;
+            int tab = entry.indexOf('\t');
+            if (tab < 2) continue;
+            int stage = entry.charAt(tab - 1) - '0';
+            int sp = entry.indexOf(' ');
+            if (stage < 1 || stage > 3 || sp < 0) continue;
+            String path = entry.substring(tab + 1);
+            String[] stages = entries.get(path);
+            if (stages == null) {
+                stages = new String[3];
+                entries.put(path, stages);
+            }
+            stages[stage - 1] = entry.substring(sp + 1, sp + 41);
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the blob ids of all files in the index, read in a single "git ls-files -s" pass.
+     *
+     * @return The blob ids keyed by the path relative to the VCS root
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, String> indexEntries() throws VcsException {
+        byte[] output = executeRaw(STATUS_CMD, Arrays.asList("-s", "-z"), true);
+        Map<String, String> entries = new HashMap<String, String>();
+        int start = 0;
+        for (int i = 0; i < output.length; i++) {
+            if (output[i] != 0) continue;
+            // format is: "<mode> <blob-id> <stage>\t<path>"
+            String entry = decodeUTF8(output, start, i);
+            start = i + 1;
+            int tab = entry.indexOf('\t');
+            int sp = entry.indexOf(' ');
+            if (tab < 0 || sp < 0 || sp + 41 > tab) continue;
+            entries.put(entry.substring(tab + 1), entry.substring(sp + 1, sp + 41));
+        }
+        return entries;
+    }
+
+    /**
+     * Returns the ids of the commit HEAD points to & of its tree.
+     *
+     * @return The commit id & the tree id, or null if HEAD can't be resolved (e.g. no commits yet)
+     */
+    @Nullable
+    public String[] headIds() {
+        try {
+            String[] ids = execute(REV_PARSE_CMD, Arrays.asList(HEAD, HEAD + "^{tree}"), true).trim().split("\\s+");
+            return ids.length == 2 && ids[0].length() == 40 && ids[1].length() == 40 ? ids : null;
+        } catch (VcsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Streams the file entries of a tree, recursively, to the consumer from a single "git ls-tree -r -z" pass. Only
+     * the entry being parsed is buffered, not the whole listing. Submodule (commit) entries are skipped.
+     *
+     * @param treeish  The tree, or commit, to list
+     * @param consumer The consumer of the entries
+     * @throws VcsException If an error occurs
+     */
+    public void treeEntries(@NotNull String treeish, @NotNull final GitHeadTree.Consumer consumer) throws VcsException {
+        List<String> args = Arrays.asList("-r", "-z", "--full-tree", treeish);
+        stream(LS_TREE_CMD, args, getTimeout(LS_TREE_CMD), new RecordHandler((byte) 0) {
+            void record(@NotNull byte[] buf, int len) {
+                parseTreeEntry(buf, consumer);
+            }
+        });
+    }
+
+    private static void parseTreeEntry(byte[] entry, GitHeadTree.Consumer consumer) {
+        // format is: "<mode> <type> <object-id>\t<path>"
+        int tab = 0;
+        while (tab < entry.length && entry[tab] != '\t')
+            tab++;
+        if (tab == entry.length) return;
+        String header = decodeUTF8(entry, 0, tab);
+        int sp = header.indexOf(' ');
+        if (sp < 0 || !header.startsWith("blob ", sp + 1)) return;
+        try {
+            int mode = Integer.parseInt(header.substring(0, sp), 8);
+            consumer.consume(decodeUTF8(entry, tab + 1, entry.length), mode, header.substring(sp + "blob ".length() + 1));
+        } catch (NumberFormatException e) {
+            // not an entry we know how to handle
+        }
+    }
+
+    /**
+     * Reads the raw contents of several blobs through a single "git cat-file --batch" pipe.
+     *
+     * @param blobIds The blob ids
+     * @return The blob contents keyed by blob id; ids git doesn't know are left out
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public Map<String, byte[]> catBlobs(@NotNull Collection<String> blobIds) throws VcsException {
+        final List<String> ids = new ArrayList<String>(new HashSet<String>(blobIds));
+        final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+        if (ids.size() == 0) return blobs;
+
+        stream(CAT_FILE_CMD, Collections.singletonList("--batch"), getTimeout(CAT_FILE_CMD), new OutputHandler() {
+            void read(@NotNull Process proc, @NotNull InputStream in) throws IOException, VcsException {
+                // feed the ids from another thread, git blocks writing blobs we don't read while we're still writing ids
+                final OutputStream out = proc.getOutputStream();
+                Thread feeder = new Thread("Git cat-file feeder") {
+                    @SuppressWarnings({"EmptyCatchBlock"})
+                    public void run() {
+                        try {
+                            for (String id : ids)
+                                out.write((id + "\n").getBytes("US-ASCII"));
+                        } catch (IOException e) {
+                            // process died, the reader reports it
+                        } finally {
+                            try {
+                                out.close();
+                            } catch (IOException e) {}
+                        }
+                    }
+                };
+                feeder.setDaemon(true);
+                feeder.start();
+
+                for (int n = 0; n < ids.size(); n++) {
+                    // header is: "<id> blob <size>" or "<id> missing"
+                    String header = readLine(in);
+                    if (header == null)
+                        throw new VcsException("git cat-file --batch ended unexpectedly");
+                    bytesRead += header.length() + 1;
+                    String[] fields = header.split(" ");
+                    if (fields.length < 3)
+                        continue;
+                    byte[] content;
+                    try {
+                        content = new byte[Integer.parseInt(fields[2])];
+                    } catch (NumberFormatException e) {
+                        throw new VcsException("Framing error: " + e.getMessage());
+                    }
+                    int pos = 0;
+                    while (pos < content.length) {
+                        int rlen = in.read(content, pos, content.length - pos);
+                        if (rlen == -1)
+                            throw new VcsException("git cat-file --batch ended unexpectedly");
+                        pos += rlen;
+                    }
+                    in.read();      // the blob is followed by a newline
+                    bytesRead += content.length + 1;
+                    blobs.put(fields[0], content);
+                }
+            }
+        });
+        return blobs;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1)
+                return line.size() == 0 ? null : line.toString("US-ASCII");
+            line.write(b);
+        }
+        return line.toString("US-ASCII");
+    }
+
+    private static String decodeUTF8(byte[] buf, int start, int end) {
+        try {
+            return new String(buf, start, end - start, GitCommitRecord.ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            return new String(buf, start, end - start);
+        }
+    }
+
+    private static String decode(byte[] buf, int start, int end, Charset charset) {
+        try {
+            return new String(buf, start, end - start, charset.name());
+        } catch (UnsupportedEncodingException e) {
+            return new String(buf, start, end - start);
+        }
+    }
+
     /////////////////////////////////////////////////////////////////////////////////////////////
     // Private worker & helper methods
     ////////////////////////////////////////////////////////////////////////////////////////////
 
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream contents = new ByteArrayOutputStream((int) file.length());
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = in.read(buf)) > 0)
+                contents.write(buf, 0, n);
+            return contents.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] contents) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+    }
+
     public String getRelativeFilePath(VirtualFile file, @NotNull final VirtualFile baseDir) {
         if (file == null) return null;
         return getRelativeFilePath(file.getPath(), baseDir);
@@ -1250,96 +2023,283 @@ public class GitCommand {
     }
 
     public String execute(@NotNull String cmd, List<String> cmdArgs, boolean silent) throws VcsException {
+        int[] len = new int[1];
+        byte[] output = execute(cmd, cmdArgs, silent, len);
+        // metadata only (file contents, blame included, go through executeRaw): git writes paths & re-encoded log
+        // messages as UTF-8
+        return len[0] == 0 ? EMPTY_STRING : decodeUTF8(output, 0, len[0]);
+    }
+
+    /**
+     * Executes a git subcommand & returns its raw output, e.g. the contents of a binary file.
+     *
+     * @param cmd     The git subcommand
+     * @param cmdArgs The subcommand options & arguments
+     * @param silent  True to not echo the command line & its messages to the version control console
+     * @return The bytes written to stdout
+     * @throws VcsException If the command failed
+     */
+    @NotNull
+    public byte[] executeRaw(@NotNull String cmd, List<String> cmdArgs, boolean silent) throws VcsException {
+        int[] len = new int[1];
+        byte[] output = execute(cmd, cmdArgs, silent, len);
+        if (output.length == len[0])
+            return output;
+        byte[] result = new byte[len[0]];
+        System.arraycopy(output, 0, result, 0, len[0]);
+        return result;
+    }
+
+    /**
+     * Runs a git subcommand, returning the buffer its stdout was read into; the number of valid bytes in the buffer
+     * is stored in outputLen[0].
+     */
+    private byte[] execute(@NotNull final String cmd, List<String> cmdArgs, final boolean silent, final int[] outputLen)
+            throws VcsException {
         int bufsize = BUF_SIZE;
-        List<String> cmdLine = new ArrayList<String>();
-        cmdLine.add(settings.GIT_EXECUTABLE);
-        cmdLine.add(cmd);
+        List<String> args = new ArrayList<String>();
         if (cmdArgs != null) {
 
             for (String arg : cmdArgs) {
                 if (arg != null)
-                    cmdLine.add(arg);
+                    args.add(arg);
             }
         }
 
-        if (cmd.equals(SHOW_CMD) || cmd.equals(ANNOTATE_CMD)) {
+        if (cmd.equals(SHOW_CMD) || cmd.equals(CAT_FILE_CMD) || cmd.equals(ANNOTATE_CMD)) {
             bufsize = BUF_SIZE * 8; // start with bigger buffer when getting contents of files
         }
 
-        File directory = VfsUtil.virtualToIoFile(vcsRoot);
-
-        String cmdStr = null;
-        if (DEBUG) {
-            cmdStr = StringUtil.join(cmdLine, " ");
-            GitVcs.getInstance(project).showMessages("DEBUG: work-dir: [" + directory.getAbsolutePath() + "]" +
-                    " exec: [" + cmdStr + "]");
+        if (!silent) {
+            GitVcs.getInstance(project).showMessages("git " + cmd + " " + StringUtil.join(args, " "));
         }
 
-        if (!silent && !DEBUG) { // dont' print twice in DEBUG mode
-            if (cmdStr == null)
-                cmdStr = StringUtil.join(cmdLine, " ");
-            GitVcs.getInstance(project).showMessages("git" + cmdStr.substring(settings.GIT_EXECUTABLE.length()));
-        }
+        OutputCollector collector = new OutputCollector(bufsize) {
+            void finish(int exitValue, @NotNull String errors) throws VcsException {
+                // empty repo with no commits yet...
+                if (cmd.equals(DIFF_CMD) && errors.contains("No HEAD commit to compare with"))
+                    return;     // outputLen[0] is still 0
+
+                if (exitValue != 0)
+                    throw new VcsException(errors.length() > 0 ? errors : decodeUTF8(buf, 0, (int) bytesRead));
+
+                if (!silent && errors.length() > 0)     // progress & status messages (e.g. from checkout) go to stderr
+                    GitVcs.getInstance(project).showMessages(errors);
+
+                outputLen[0] = (int) bytesRead;
+            }
+        };
+        stream(cmd, args, getTimeout(cmd), collector);
+        return collector.buf;
+    }
 
+    /**
+     * Runs a git subcommand, handing its output to the handler as it is read. The process is killed if it outlives
+     * the timeout, or when the calling thread is interrupted.
+     *
+     * @param cmd     The git subcommand
+     * @param args    The subcommand options & arguments
+     * @param timeout The maximum run time in milliseconds, zero for no limit
+     * @param handler The handler of the process input & output
+     * @throws VcsException If git could not be run or failed, or the handler failed
+     */
+    private void stream(@NotNull String cmd, @NotNull List<String> args, long timeout, @NotNull OutputHandler handler)
+            throws VcsException {
         Process proc = null;
+        GitProcessWatchdog watchdog = null;
         BufferedInputStream in = null;
+        long start = System.nanoTime();
+        int exitValue = GitCommandStats.ABORTED;
         try {
-            ProcessBuilder pb = new ProcessBuilder(cmdLine);
-            // copy IDEA configured env into process exec env
-            Map<String, String> pbenv = pb.environment();
-            pbenv.putAll(EnvironmentUtil.getEnviromentProperties());
-            if (pbenv.get("GIT_DIR") == null)
-                pbenv.put("GIT_DIR", directory.getAbsolutePath() + fileSep + ".git");
-            pb.directory(directory);
-            pb.redirectErrorStream(true);
-            proc = pb.start();
-
-            // Get the output from the process.
-            in = new BufferedInputStream(proc.getInputStream());
-
-            byte[] workBuf = new byte[bufsize];
-            byte[] retBuf = new byte[bufsize];
+            proc = getLauncher().start(cmd, args, isForeground());
+            watchdog = new GitProcessWatchdog(proc, cmd, timeout, errorListener);
+            in = new BufferedInputStream(proc.getInputStream(), BUF_SIZE);
+            handler.read(proc, in);
+            exitValue = watchdog.waitFor();
+            handler.finish(exitValue, watchdog.getErrorOutput());
+        } catch (IOException e) {
+            if (watchdog != null) watchdog.checkAborted();
+            throw new VcsException(e.getMessage());
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+            if (watchdog != null) watchdog.stop();
+            else if (proc != null) proc.destroy();
+            recordExecution(cmd, args, System.nanoTime() - start, handler.bytesRead, exitValue);
+        }
+    }
+
+    /**
+     * Writes the input & reads the output of a git process started by {@link #stream}.
+     */
+    private abstract static class OutputHandler {
+        long bytesRead = 0;
+
+        /**
+         * Writes the process input, if any, & reads the whole process output, counting the bytes read.
+         *
+         * @param proc The started process
+         * @param in   The buffered process output
+         */
+        abstract void read(@NotNull Process proc, @NotNull InputStream in) throws IOException, VcsException;
+
+        /**
+         * Checks the outcome of the process once its output was read. Fails on a non-zero exit value by default.
+         *
+         * @param exitValue The exit value
+         * @param errors    The error output
+         */
+        void finish(int exitValue, @NotNull String errors) throws VcsException {
+            if (exitValue != 0)
+                throw new VcsException(errors);
+        }
+    }
+
+    /**
+     * Splits the output into records at a delimiter byte. Only the record being read is buffered, empty records are
+     * skipped.
+     */
+    private abstract static class RecordHandler extends OutputHandler {
+        private final byte delimiter;
+
+        RecordHandler(byte delimiter) {
+            this.delimiter = delimiter;
+        }
+
+        /**
+         * Handles a record, without its delimiter.
+         *
+         * @param buf The record bytes; the buffer is not reused
+         * @param len The record length
+         */
+        abstract void record(@NotNull byte[] buf, int len) throws IOException;
+
+        void read(@NotNull Process proc, @NotNull InputStream in) throws IOException, VcsException {
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            byte[] workBuf = new byte[BUF_SIZE];
+            int rlen;
+            while ((rlen = in.read(workBuf)) != -1) {
+                bytesRead += rlen;
+                int mark = 0;
+                for (int i = 0; i < rlen; i++) {
+                    if (workBuf[i] != delimiter) continue;
+                    record.write(workBuf, mark, i - mark);
+                    mark = i + 1;
+                    if (record.size() > 0)
+                        record(record.toByteArray(), record.size());
+                    record.reset();
+                }
+                record.write(workBuf, mark, rlen - mark);
+            }
+            if (record.size() > 0)
+                record(record.toByteArray(), record.size());
+        }
+    }
+
+    /**
+     * Collects the whole output in a buffer, doubled as needed up to {@link #MAX_BUF_ALLOWED}.
+     */
+    private static class OutputCollector extends OutputHandler {
+        byte[] buf;
+
+        OutputCollector(int bufsize) {
+            buf = new byte[bufsize];
+        }
+
+        void read(@NotNull Process proc, @NotNull InputStream in) throws IOException, VcsException {
+            byte[] workBuf = new byte[buf.length];
             int rlen = in.read(workBuf);   // length of current read
-            int wpos = 0; // total count of all bytes read (also write position in retBuf)
             while (rlen != -1) {
-                if ((wpos + rlen) > retBuf.length) {  // handle *big* output....
-                    if ((retBuf.length * 2) >= MAX_BUF_ALLOWED)
+                int wpos = (int) bytesRead;
+                if ((wpos + rlen) > buf.length) {  // handle *big* output....
+                    if ((buf.length * 2) >= MAX_BUF_ALLOWED)
                         throw new VcsException("Git command output limit exceeded, cannot process!");
-                    byte[] newbuf = new byte[retBuf.length * 2];
-                    System.arraycopy(retBuf, 0, newbuf, 0, wpos);
-                    retBuf = newbuf;
+                    byte[] newbuf = new byte[buf.length * 2];
+                    System.arraycopy(buf, 0, newbuf, 0, wpos);
+                    buf = newbuf;
                 }
-                System.arraycopy(workBuf, 0, retBuf, wpos, rlen);
-                wpos += rlen;
+                System.arraycopy(workBuf, 0, buf, wpos, rlen);
+                bytesRead += rlen;
                 rlen = in.read(workBuf);
             }
+        }
+    }
 
-            try {
-                proc.waitFor();
-            } catch (InterruptedException ie) {
-                return EMPTY_STRING;
-            }
+    private void recordExecution(String cmd, List<String> args, long nanos, long bytesRead, int exitValue) {
+        GitCommandStats.record(cmd, nanos, bytesRead, exitValue);
+        if (LOG.isDebugEnabled())
+            LOG.debug("git " + cmd + " " + StringUtil.join(args, " ") + " [" + vcsRoot.getPath() + "] exit: " + exitValue +
+                    " time: " + (nanos / 1000000) + "ms read: " + bytesRead + " bytes");
+    }
+
+    /**
+     * Sets the listener receiving the stderr lines of the commands executed by this instance, e.g. to track the
+     * "--progress" output of remote operations.
+     *
+     * @param listener The listener, or null for none
+     */
+    public void setErrorListener(GitProcessWatchdog.ErrorListener listener) {
+        errorListener = listener;
+    }
+
+    /**
+     * Overrides the run time limit of the commands executed by this instance.
+     *
+     * @param millis The maximum run time in milliseconds, zero for no limit
+     */
+    public void setTimeout(long millis) {
+        timeout = millis;
+    }
 
-            if (wpos == 0) return EMPTY_STRING;
-            String output = new String(retBuf, 0, wpos);
+    /**
+     * Marks the commands executed by this instance as user-initiated, for work the user waits for that runs on a
+     * pooled thread. Commands run on the EDT or under a modal progress dialog are foreground anyway.
+     *
+     * @param foreground True if the user waits for the commands
+     */
+    public void setForeground(boolean foreground) {
+        this.foreground = foreground;
+    }
 
-            // empty repo with no commits yet...
-            if (cmd.equals(DIFF_CMD) && output.contains("No HEAD commit to compare with"))
-                return EMPTY_STRING;
+    /**
+     * Tells whether the user is waiting for the command about to be started, in which case low priority git work
+     * (prefetching) gives way to it. Background monitors & change list updates are not foreground.
+     *
+     * @return True for user-initiated commands
+     */
+    private boolean isForeground() {
+        if (foreground || ApplicationManager.getApplication().isDispatchThread())
+            return true;
+        ProgressIndicator indicator = ProgressManager.getInstance().getProgressIndicator();
+        return indicator != null && indicator.isModal();
+    }
 
-            if (proc.exitValue() != 0)
-                throw new VcsException(output);
+    /**
+     * Returns the run time limit for the specified git subcommand. Commands changing the index, the working tree or
+     * local refs (commit, merge, rebase, checkout, pull, stash, gc...) get no limit by default: killing them half way
+     * leaves index.lock or a half applied merge behind, so they only stop when the user cancels them.
+     *
+     * @param cmd The git subcommand
+     * @return The maximum run time in milliseconds, zero for no limit
+     */
+    private long getTimeout(@NotNull String cmd) {
+        if (timeout >= 0)
+            return timeout;
+        if (READ_ONLY_COMMANDS.contains(cmd))
+            return settings.LOCAL_COMMAND_TIMEOUT * 1000L;
+        if (REMOTE_COMMANDS.contains(cmd))
+            return settings.REMOTE_COMMAND_TIMEOUT * 1000L;
+        return 0;
+    }
 
-            return output;
-        }
-        catch (IOException e) {
-            throw new VcsException(e.getMessage());
-        } finally {
-            try {
-                if(in != null) in.close();
-            } catch (IOException e) {}
-            if(proc != null) proc.destroy();
-        }
+    /**
+     * Returns the process launcher for this command's VCS root.
+     *
+     * @return The launcher
+     */
+    private GitCommandLauncher getLauncher() {
+        return GitCommandLauncher.getInstance(settings, vcsRoot);
     }
 
     /**
@@ -1360,6 +2320,10 @@ public class GitCommand {
      *          something bad had happened
      */
     public GitVirtualFile.Status convertStatus(String status) throws VcsException {
+        return toStatus(status);
+    }
+
+    private static GitVirtualFile.Status toStatus(String status) {
         if (status.equals("M"))
             return GitVirtualFile.Status.MODIFIED;
         else if (status.equals("H"))
@@ -0,0 +1,251 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.vfs.VfsUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.EnvironmentUtil;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+/**
+ * Per VCS root process launcher. The process environment, GIT_DIR and the resolved git executable are computed once
+ * and reused for every spawned git process, until the configured git executable changes.
+ */
+public class GitCommandLauncher {
+    private static final boolean IS_WINDOWS = System.getProperty("os.name").startsWith("Windows");
+    private static final Map<String, GitCommandLauncher> launchers = new HashMap<String, GitCommandLauncher>();
+
+    /* spawn overhead metric, shared by all launchers */
+    private static long spawnCount = 0;
+    private static long spawnNanos = 0;
+    /* threads running low priority git work, interrupted whenever another thread starts foreground git work */
+    private static final Set<Thread> yieldingThreads = new HashSet<Thread>();
+
+    private final String configuredExecutable;
+    private final String executable;
+    private final File directory;
+    private final Map<String, String> environment;
+    private final Map<String, String> toolEnvironment;
+
+    /**
+     * Returns the launcher for the specified VCS root, creating it if the root has none yet or the configured git
+     * executable has changed since it was created.
+     *
+     * @param settings The Git VCS settings
+     * @param vcsRoot  The VCS root
+     * @return The launcher
+     */
+    @NotNull
+    public static synchronized GitCommandLauncher getInstance(@NotNull GitVcsSettings settings, @NotNull VirtualFile vcsRoot) {
+        GitCommandLauncher launcher = launchers.get(vcsRoot.getPath());
+        if (launcher == null || !launcher.configuredExecutable.equals(settings.GIT_EXECUTABLE)) {
+            launcher = new GitCommandLauncher(settings.GIT_EXECUTABLE, VfsUtil.virtualToIoFile(vcsRoot));
+            launchers.put(vcsRoot.getPath(), launcher);
+        }
+        return launcher;
+    }
+
+    /**
+     * Drops all cached launchers, e.g. after the Git VCS settings were changed.
+     */
+    public static synchronized void invalidateAll() {
+        launchers.clear();
+    }
+
+    private GitCommandLauncher(@NotNull String configuredExecutable, @NotNull File directory) {
+        this.configuredExecutable = configuredExecutable;
+        this.directory = directory;
+
+        Map<String, String> env = new HashMap<String, String>(System.getenv());
+        env.putAll(EnvironmentUtil.getEnviromentProperties());
+        if (env.get("GIT_DIR") == null)
+            env.put("GIT_DIR", directory.getAbsolutePath() + File.separator + ".git");
+        env.put("GIT_TERMINAL_PROMPT", "0");    // there is no terminal, fail instead of hanging on a prompt
+        this.executable = resolveExecutable(configuredExecutable, env.get("PATH"));
+        this.environment = Collections.unmodifiableMap(env);
+
+        // external tools (mergetool, gitk) need to find git itself on the PATH
+        Map<String, String> toolEnv = new HashMap<String, String>(env);
+        String gitDir = getExecutableDirectory();
+        if (gitDir != null)
+            toolEnv.put("PATH", gitDir + File.pathSeparator + env.get("PATH"));
+        this.toolEnvironment = Collections.unmodifiableMap(toolEnv);
+    }
+
+    /**
+     * Returns the canonical path of the git executable, or the configured value if it could not be resolved.
+     *
+     * @return The git executable
+     */
+    @NotNull
+    public String getExecutable() {
+        return executable;
+    }
+
+    /**
+     * Returns the directory containing the git executable, or null if it could not be resolved.
+     *
+     * @return The directory, else null
+     */
+    public String getExecutableDirectory() {
+        return new File(executable).getParent();
+    }
+
+    /**
+     * Returns the working directory of spawned processes (the VCS root).
+     *
+     * @return The working directory
+     */
+    @NotNull
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Starts a git subcommand. Its stderr is kept separate from stdout, and must be drained by the caller (see
+     * {@link GitProcessWatchdog}).
+     *
+     * @param cmd        The git subcommand
+     * @param args       The subcommand options & arguments
+     * @param foreground True if the user waits for the command, which interrupts the low priority git work
+     * @return The started process
+     * @throws IOException If the process could not be started
+     */
+    @NotNull
+    public Process start(@NotNull String cmd, @NotNull List<String> args, boolean foreground) throws IOException {
+        if (foreground)
+            yieldToCurrentThread();
+        List<String> cmdLine = new ArrayList<String>(args.size() + 2);
+        cmdLine.add(executable);
+        cmdLine.add(cmd);
+        cmdLine.addAll(args);
+        return start(cmdLine, environment, false);
+    }
+
+    /**
+     * Starts an external tool (e.g. gitk) with git on its PATH. The process is not tracked any further.
+     *
+     * @param cmdLine The full tool command line
+     * @return The started process
+     * @throws IOException If the process could not be started
+     */
+    @NotNull
+    public Process startTool(@NotNull List<String> cmdLine) throws IOException {
+        return start(cmdLine, toolEnvironment, true);
+    }
+
+    private Process start(List<String> cmdLine, Map<String, String> env, boolean mergeErrors) throws IOException {
+        long start = System.nanoTime();
+        ProcessBuilder pb = new ProcessBuilder(cmdLine);
+        Map<String, String> pbenv = pb.environment();
+        pbenv.clear();
+        pbenv.putAll(env);
+        pb.directory(directory);
+        pb.redirectErrorStream(mergeErrors);
+        Process proc = pb.start();
+        recordSpawn(System.nanoTime() - start);
+        return proc;
+    }
+
+    /**
+     * Marks the calling thread as running low priority git work (e.g. prefetching). The thread is interrupted as soon
+     * as foreground git work is started by any other thread, which makes the {@link GitProcessWatchdog} kill its running process.
+     * Must be paired with {@link #endYielding()} in a finally block.
+     */
+    public static synchronized void beginYielding() {
+        yieldingThreads.add(Thread.currentThread());
+    }
+
+    /**
+     * Ends the low priority work started with {@link #beginYielding()} & clears the thread's interrupted flag.
+     *
+     * @return True if the work was interrupted by another thread starting foreground git work
+     */
+    public static synchronized boolean endYielding() {
+        yieldingThreads.remove(Thread.currentThread());
+        return Thread.interrupted();
+    }
+
+    private static synchronized void yieldToCurrentThread() {
+        Thread current = Thread.currentThread();
+        if (yieldingThreads.size() == 0 || yieldingThreads.contains(current)) return;
+        for (Thread thread : yieldingThreads)
+            thread.interrupt();
+    }
+
+    private static synchronized void recordSpawn(long nanos) {
+        spawnCount++;
+        spawnNanos += nanos;
+    }
+
+    /**
+     * Returns the number of processes spawned by all launchers.
+     *
+     * @return The spawn count
+     */
+    public static synchronized long getSpawnCount() {
+        return spawnCount;
+    }
+
+    /**
+     * Returns the average time spent setting up & starting a process, in microseconds.
+     *
+     * @return The average per-spawn overhead
+     */
+    public static synchronized long getAverageSpawnMicros() {
+        return spawnCount == 0 ? 0 : spawnNanos / spawnCount / 1000;
+    }
+
+    private static String resolveExecutable(String configured, String path) {
+        File exe = new File(configured);
+        if (exe.isAbsolute() || configured.contains(File.separator))
+            return canonical(exe, configured);
+
+        if (path != null) {
+            StringTokenizer dirs = new StringTokenizer(path, File.pathSeparator);
+            while (dirs.hasMoreTokens()) {
+                String dir = dirs.nextToken();
+                File candidate = new File(dir, configured);
+                if (candidate.isFile())
+                    return canonical(candidate, configured);
+                if (IS_WINDOWS) {
+                    candidate = new File(dir, configured + ".exe");
+                    if (candidate.isFile())
+                        return canonical(candidate, configured);
+                }
+            }
+        }
+        return configured;     // hope the OS finds it
+    }
+
+    private static String canonical(File exe, String configured) {
+        if (!exe.exists()) return configured;
+        try {
+            return exe.getCanonicalPath();
+        } catch (IOException e) {
+            return exe.getAbsolutePath();
+        }
+    }
+}
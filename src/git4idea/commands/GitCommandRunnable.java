@@ -115,7 +115,7 @@ public class GitCommandRunnable implements Runnable {
     }
 
     /**
-     * Returns the output (stdout & stderr) from the command.
+     * Returns the output (stdout) from the command, stderr goes to the version control console unless silent.
      *
      * @return the command output
      */
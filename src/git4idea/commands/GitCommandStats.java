@@ -0,0 +1,109 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Application wide execution statistics of git subcommands: invocation counts, latency histogram, bytes read and
+ * exit codes. Collected by {@link GitCommand} for every git process it runs.
+ */
+public class GitCommandStats {
+    /* exit code recorded for processes that were killed or failed to start */
+    public static final int ABORTED = -1;
+    /* upper bounds (ms) of the latency histogram buckets, the last bucket is open ended */
+    private static final long[] BUCKETS = {10, 50, 100, 500, 1000, 5000};
+
+    private static final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+    /**
+     * Records a single git invocation.
+     *
+     * @param cmd       The git subcommand
+     * @param nanos     The wall clock time from spawn to reaping the process
+     * @param bytesRead The number of bytes read from the process's stdout
+     * @param exitCode  The process exit code, or {@link #ABORTED}
+     */
+    public static synchronized void record(@NotNull String cmd, long nanos, long bytesRead, int exitCode) {
+        Entry entry = entries.get(cmd);
+        if (entry == null) {
+            entry = new Entry();
+            entries.put(cmd, entry);
+        }
+        entry.count++;
+        entry.totalNanos += nanos;
+        entry.maxNanos = Math.max(entry.maxNanos, nanos);
+        entry.bytesRead += bytesRead;
+        if (exitCode != 0)
+            entry.failures++;
+        long millis = nanos / 1000000;
+        int bucket = 0;
+        while (bucket < BUCKETS.length && millis >= BUCKETS[bucket])
+            bucket++;
+        entry.histogram[bucket]++;
+        Integer codeCount = entry.exitCodes.get(exitCode);
+        entry.exitCodes.put(exitCode, codeCount == null ? 1 : codeCount + 1);
+    }
+
+    /**
+     * Clears all collected statistics.
+     */
+    public static synchronized void reset() {
+        entries.clear();
+    }
+
+    /**
+     * Returns a printable table of the collected statistics, one line per git subcommand.
+     *
+     * @return The statistics
+     */
+    @NotNull
+    public static synchronized String dump() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Git command statistics (processes spawned: ").append(GitCommandLauncher.getSpawnCount())
+                .append(", avg spawn overhead: ").append(GitCommandLauncher.getAverageSpawnMicros()).append("us)\n");
+        sb.append(String.format("%-12s %7s %7s %9s %9s %11s  ", "command", "count", "failed", "avg ms", "max ms", "KB read"));
+        long lower = 0;
+        for (long upper : BUCKETS) {
+            sb.append(String.format("%9s", lower + "-" + upper));
+            lower = upper;
+        }
+        sb.append(String.format("%9s", ">" + lower)).append("  exit codes\n");
+
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            Entry entry = e.getValue();
+            sb.append(String.format("%-12s %7d %7d %9.1f %9.1f %11d  ", e.getKey(), entry.count, entry.failures,
+                    entry.totalNanos / 1e6 / entry.count, entry.maxNanos / 1e6, entry.bytesRead / 1024));
+            for (long n : entry.histogram)
+                sb.append(String.format("%9d", n));
+            sb.append("  ").append(entry.exitCodes).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Statistics of a single git subcommand
+     */
+    private static class Entry {
+        long count;
+        long failures;
+        long totalNanos;
+        long maxNanos;
+        long bytesRead;
+        final long[] histogram = new long[BUCKETS.length + 1];
+        final Map<Integer, Integer> exitCodes = new TreeMap<Integer, Integer>();
+    }
+}
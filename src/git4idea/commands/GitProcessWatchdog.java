@@ -0,0 +1,256 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.progress.ProcessCanceledException;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.vcs.VcsException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a running git process: drains its stderr on a pooled thread, and destroys the process when its deadline
+ * passes, the calling thread's progress indicator is canceled or the calling thread is interrupted.
+ */
+public class GitProcessWatchdog {
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final int MAX_STDERR = 1024 * 1024;
+
+    private static final ThreadFactory DAEMON_FACTORY = new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Git process watchdog");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(DAEMON_FACTORY);
+    private static final ExecutorService drainers = Executors.newCachedThreadPool(DAEMON_FACTORY);
+
+    private enum Reason {TIMEOUT, CANCELED, INTERRUPTED}
+
+    private final Process process;
+    private final String cmd;
+    private final long timeout;
+    private final long deadline;
+    private final ProgressIndicator indicator;
+    private final Thread owner;
+    private final ErrorListener listener;
+    private final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+    private final Future<?> drain;
+    private final ScheduledFuture<?> watch;
+    private volatile Reason killed = null;
+
+    /**
+     * Starts watching the process. Must be called on the thread which waits for the process.
+     *
+     * @param process       The git process
+     * @param cmd           The git subcommand, for error messages
+     * @param timeoutMillis The maximum run time of the process, zero for no limit
+     */
+    public GitProcessWatchdog(@NotNull Process process, @NotNull String cmd, long timeoutMillis) {
+        this(process, cmd, timeoutMillis, null);
+    }
+
+    /**
+     * Starts watching the process, passing every stderr line to the listener as soon as it is read. Must be called on
+     * the thread which waits for the process.
+     *
+     * @param process       The git process
+     * @param cmd           The git subcommand, for error messages
+     * @param timeoutMillis The maximum run time of the process, zero for no limit
+     * @param listener      The stderr line listener, or null
+     */
+    public GitProcessWatchdog(@NotNull Process process, @NotNull String cmd, long timeoutMillis,
+                              @Nullable ErrorListener listener) {
+        this.process = process;
+        this.listener = listener;
+        this.cmd = cmd;
+        this.timeout = timeoutMillis;
+        this.deadline = timeoutMillis > 0 ? System.currentTimeMillis() + timeoutMillis : 0;
+        this.indicator = ProgressManager.getInstance().getProgressIndicator();
+        this.owner = Thread.currentThread();
+
+        drain = drainers.submit(new Runnable() {
+            public void run() {
+                drainStderr();
+            }
+        });
+        watch = scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                check();
+            }
+        }, POLL_INTERVAL_MS, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void check() {
+        if (killed != null) return;
+        if (deadline > 0 && System.currentTimeMillis() > deadline)
+            kill(Reason.TIMEOUT);
+        else if (indicator != null && indicator.isCanceled())
+            kill(Reason.CANCELED);
+        else if (owner.isInterrupted())
+            kill(Reason.INTERRUPTED);
+    }
+
+    private void kill(Reason reason) {
+        killed = reason;
+        watch.cancel(false);
+        process.destroy();      // closes our ends of the pipes too, so children of git see EOF
+    }
+
+    /**
+     * Waits for the process to exit.
+     *
+     * @return The process exit value
+     * @throws VcsException If the process was killed or the waiting thread was interrupted
+     */
+    public int waitFor() throws VcsException {
+        try {
+            int exitValue = process.waitFor();
+            checkAborted();
+            return exitValue;
+        } catch (InterruptedException e) {
+            kill(Reason.INTERRUPTED);
+            Thread.currentThread().interrupt();
+            throw new VcsException("Git " + cmd + " interrupted");
+        }
+    }
+
+    /**
+     * Throws if the process was killed by this watchdog.
+     *
+     * @throws VcsException If the deadline passed or the owning thread was interrupted
+     * @throws ProcessCanceledException If the progress indicator was canceled
+     */
+    public void checkAborted() throws VcsException {
+        Reason reason = killed;
+        if (reason == null) return;
+        switch (reason) {
+            case CANCELED:
+                throw new ProcessCanceledException();
+            case TIMEOUT:
+                throw new VcsException("Git " + cmd + " timed out after " + (timeout / 1000) + " seconds");
+            default:
+                throw new VcsException("Git " + cmd + " interrupted");
+        }
+    }
+
+    /**
+     * Stops watching & destroys the process if it is still running. Always call this in a finally block.
+     */
+    public void stop() {
+        watch.cancel(false);
+        process.destroy();
+    }
+
+    /**
+     * Returns everything the process wrote to stderr, waiting (briefly) for the drain to finish.
+     *
+     * @return The stderr output
+     */
+    @NotNull
+    public String getErrorOutput() {
+        try {
+            drain.get(POLL_INTERVAL_MS * 10, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            // return what we've got so far
+        }
+        synchronized (stderr) {
+            return decode(stderr.toByteArray(), stderr.size());
+        }
+    }
+
+    private static String decode(byte[] bytes, int len) {
+        try {
+            return new String(bytes, 0, len, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return new String(bytes, 0, len);
+        }
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private void drainStderr() {
+        InputStream err = process.getErrorStream();
+        byte[] buf = new byte[1024];
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        try {
+            int len;
+            while ((len = err.read(buf)) != -1) {
+                if (listener == null) {
+                    append(buf, 0, len);
+                    continue;
+                }
+                // progress lines are terminated by '\r', so they can be reported while they're being redrawn
+                int mark = 0;
+                for (int i = 0; i < len; i++) {
+                    if (buf[i] != '\r' && buf[i] != '\n') continue;
+                    line.write(buf, mark, i - mark);
+                    mark = i + 1;
+                    emit(line);
+                }
+                line.write(buf, mark, len - mark);
+            }
+            if (listener != null)
+                emit(line);
+        } catch (IOException e) {
+            // process destroyed
+        } finally {
+            try {
+                err.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private void emit(ByteArrayOutputStream line) {
+        if (line.size() == 0) return;
+        byte[] bytes = line.toByteArray();
+        line.reset();
+        if (!listener.onLine(decode(bytes, bytes.length))) {
+            append(bytes, 0, bytes.length);
+            append(new byte[]{'\n'}, 0, 1);
+        }
+    }
+
+    private void append(byte[] buf, int off, int len) {
+        synchronized (stderr) {
+            if (stderr.size() < MAX_STDERR)
+                stderr.write(buf, off, len);
+        }
+    }
+
+    /**
+     * Receives the stderr lines of a watched process
+     */
+    public interface ErrorListener {
+        /**
+         * Called on the drain thread for every stderr line.
+         *
+         * @param line The line, without its line terminator
+         * @return True if the line was consumed (e.g. progress output), false to keep it in the error output
+         */
+        boolean onLine(@NotNull String line);
+    }
+}
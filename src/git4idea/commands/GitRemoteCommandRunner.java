@@ -0,0 +1,241 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.GitVcs;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Runs a remote operation (fetch, pull or push) on several VCS roots concurrently, under a single modal progress
+ * dialog. At most {@link GitVcsSettings#REMOTE_PARALLELISM} roots are processed at once; the "--progress" output of
+ * every root is combined into the dialog's progress bar.
+ */
+public class GitRemoteCommandRunner {
+    private static final long POLL_INTERVAL_MS = 100;
+    private static final String[] OPTIONS = {"--progress"};
+    private static final String[] TAG_OPTIONS = {"--progress", "--tags"};
+
+    private final Project project;
+    private final GitVcsSettings settings;
+    private final String cmd;
+    private final Map<VirtualFile, String> roots = new LinkedHashMap<VirtualFile, String>();
+
+    /**
+     * @param project  The project
+     * @param settings The Git VCS settings
+     * @param cmd      The git subcommand, {@link GitCommand#FETCH_CMD}, {@link GitCommand#PULL_CMD} or {@link GitCommand#PUSH_CMD}
+     */
+    public GitRemoteCommandRunner(@NotNull Project project, @NotNull GitVcsSettings settings, @NotNull String cmd) {
+        this.project = project;
+        this.settings = settings;
+        this.cmd = cmd;
+    }
+
+    /**
+     * Adds a root to run the command in.
+     *
+     * @param root The VCS root
+     * @param repo The repository & refspecs to pass to git, or null for the configured default
+     */
+    public void addRoot(@NotNull VirtualFile root, @Nullable String repo) {
+        roots.put(root, repo != null && repo.trim().length() > 0 ? repo.trim() : null);
+    }
+
+    /**
+     * Runs the command on all added roots, showing a modal progress dialog.
+     *
+     * @param title The progress dialog title
+     * @return The errors per root, empty if all roots succeeded
+     */
+    @NotNull
+    public Map<VirtualFile, VcsException> run(@NotNull String title) {
+        final Map<VirtualFile, VcsException> errors = new LinkedHashMap<VirtualFile, VcsException>();
+        if (roots.size() == 0) return errors;
+        ProgressManager.getInstance().runProcessWithProgressSynchronously(new Runnable() {
+            public void run() {
+                runAll(ProgressManager.getInstance().getProgressIndicator(), errors);
+            }
+        }, title, true, project);
+        return errors;
+    }
+
+    /**
+     * Runs the command on all added roots under an existing progress indicator, e.g. of a background task.
+     *
+     * @param indicator The progress indicator, or null
+     * @return The errors per root, empty if all roots succeeded or the indicator was canceled
+     */
+    @NotNull
+    public Map<VirtualFile, VcsException> runUnder(@Nullable ProgressIndicator indicator) {
+        Map<VirtualFile, VcsException> errors = new LinkedHashMap<VirtualFile, VcsException>();
+        if (roots.size() > 0)
+            runAll(indicator, errors);
+        return errors;
+    }
+
+    /**
+     * Formats the errors returned by {@link #run(String)} for an error dialog, one root after the other.
+     *
+     * @param errors The errors per root
+     * @return The message
+     */
+    @NotNull
+    public static String formatErrors(@NotNull Map<VirtualFile, VcsException> errors) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<VirtualFile, VcsException> entry : errors.entrySet()) {
+            if (sb.length() > 0) sb.append("\n");
+            sb.append(entry.getKey().getPath()).append(":\n").append(entry.getValue().getMessage());
+        }
+        return sb.toString();
+    }
+
+    private void runAll(ProgressIndicator indicator, Map<VirtualFile, VcsException> errors) {
+        int parallelism = Math.max(1, Math.min(settings.REMOTE_PARALLELISM, roots.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        List<Task> tasks = new ArrayList<Task>(roots.size());
+        try {
+            for (Map.Entry<VirtualFile, String> entry : roots.entrySet()) {
+                Task task = new Task(entry.getKey(), entry.getValue());
+                task.future = executor.submit(task);
+                tasks.add(task);
+            }
+            if (indicator != null)
+                indicator.setIndeterminate(false);
+
+            for (Task task : tasks) {
+                while (true) {
+                    if (indicator != null) {
+                        if (indicator.isCanceled()) {
+                            // interrupting the workers makes their process watchdogs kill git
+                            for (Task t : tasks)
+                                t.future.cancel(true);
+                            return;
+                        }
+                        updateProgress(indicator, tasks);
+                    }
+                    try {
+                        task.future.get(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                        break;
+                    } catch (TimeoutException e) {
+                        // poll again
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        task.error = cause instanceof VcsException ? (VcsException) cause : new VcsException(cause);
+                        break;
+                    }
+                }
+                if (task.error != null)
+                    errors.put(task.root, task.error);
+                else if (task.output != null)
+                    GitVcs.getInstance(project).showMessages(task.output);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void updateProgress(ProgressIndicator indicator, List<Task> tasks) {
+        double total = 0;
+        String text = null;
+        for (Task task : tasks) {
+            if (task.future.isDone()) {
+                total += 1;
+            } else {
+                total += task.progress.getFraction();
+                if (text == null && task.progress.getPhase().length() > 0)
+                    text = task.root.getName() + ": " + task.progress.getPhase();
+            }
+        }
+        indicator.setFraction(total / tasks.size());
+        if (text != null)
+            indicator.setText2(text);
+    }
+
+    /**
+     * The command running on a single root
+     */
+    private class Task implements Runnable {
+        final VirtualFile root;
+        final String repo;
+        final GitRemoteProgress progress = new GitRemoteProgress();
+        Future<?> future;
+        volatile String output;
+        volatile VcsException error;
+
+        Task(VirtualFile root, String repo) {
+            this.root = root;
+            this.repo = repo;
+        }
+
+        public void run() {
+            GitCommand command = new GitCommand(project, settings, root);
+            command.setErrorListener(progress);
+            command.setForeground(true);    // runs on a pool thread, the user waits for it all the same
+            String[] args = repo != null ? repo.split("\\s+") : null;
+            Lock lock = GitCommand.getRemoteLock(root);
+            try {
+                lock.lockInterruptibly();   // waits for a background fetch of the root to finish
+            } catch (InterruptedException e) {
+                return;     // canceled
+            }
+            try {
+                if (cmd.equals(GitCommand.PUSH_CMD)) {
+                    // "--tags" pushes every tag, lightweight ones included, next to the matching branches (":") or
+                    // the given refspecs, in a single round-trip; unlike "--follow-tags" it works with any git
+                    List<String> pushArgs = new ArrayList<String>();
+                    if (args != null)
+                        pushArgs.addAll(Arrays.asList(args));
+                    else
+                        pushArgs.add(command.defaultRemote());
+                    if (pushArgs.size() == 1)
+                        pushArgs.add(":");
+                    output = command.execute(cmd, TAG_OPTIONS, pushArgs.toArray(new String[pushArgs.size()]), false);
+                } else {
+                    String result = command.execute(cmd, OPTIONS, args, false);
+                    // before git 1.9 "fetch --tags" fetches only tags while "pull --tags" fails, so fetch them apart
+                    if (settings.FETCH_ALL_TAGS)
+                        result += command.execute(GitCommand.FETCH_CMD, TAG_OPTIONS,
+                                args != null ? new String[]{args[0]} : null, false);
+                    output = result;
+                }
+            } catch (VcsException e) {
+                error = e;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package git4idea.commands;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the "--progress" stderr output of fetch, pull, push & clone into a completion fraction. Each phase git
+ * reports ("Counting objects", "Receiving objects"...) is mapped onto a fixed share of the whole operation.
+ */
+public class GitRemoteProgress implements GitProcessWatchdog.ErrorListener {
+    private static final Pattern PROGRESS = Pattern.compile("(?:remote: )?([A-Za-z ]+):\\s+(\\d+)% .*");
+    /* phase name, start & end of its share of the whole operation */
+    private static final Object[][] PHASES = {
+            {"Enumerating objects", 0.0, 0.05},
+            {"Counting objects", 0.0, 0.1},
+            {"Compressing objects", 0.1, 0.2},
+            {"Receiving objects", 0.2, 0.9},
+            {"Writing objects", 0.2, 0.9},
+            {"Resolving deltas", 0.9, 1.0},
+            {"Checking out files", 0.9, 1.0},
+            {"Updating files", 0.9, 1.0}
+    };
+
+    private volatile double fraction = 0;
+    private volatile String phase = "";
+
+    public boolean onLine(@NotNull String line) {
+        Matcher m = PROGRESS.matcher(line);
+        if (!m.matches())
+            return false;
+        String name = m.group(1).trim();
+        int percent = Integer.parseInt(m.group(2));
+        for (Object[] p : PHASES) {
+            if (!p[0].equals(name)) continue;
+            double start = (Double) p[1];
+            double end = (Double) p[2];
+            double value = start + (end - start) * Math.min(percent, 100) / 100;
+            if (value > fraction)       // phases may be skipped or repeated, never go backwards
+                fraction = value;
+            break;
+        }
+        phase = name + " " + percent + "%";
+        return true;
+    }
+
+    /**
+     * Returns the estimated completion of the operation.
+     *
+     * @return The completion fraction, 0.0 to 1.0
+     */
+    public double getFraction() {
+        return fraction;
+    }
+
+    /**
+     * Returns the last reported phase & its percentage, e.g. "Receiving objects 45%".
+     *
+     * @return The current phase, empty until git reported progress
+     */
+    @NotNull
+    public String getPhase() {
+        return phase;
+    }
+}
@@ -0,0 +1,425 @@
+package git4idea.config;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommandLauncher;
+import git4idea.vfs.GitPathPattern;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the git configuration of a VCS root in process, without spawning "git config". The system, global, repository
+ * & worktree files are merged with git's precedence (later files win), "include" & "includeIf" directives are
+ * followed, and the result is cached until one of the files involved changes.
+ */
+public class GitConfig {
+    private static final Map<String, GitConfig> instances = new HashMap<String, GitConfig>();
+    private static final int MAX_INCLUDE_DEPTH = 10;
+
+    private final File gitDir;
+    private final List<File> baseFiles = new ArrayList<File>();
+    private Snapshot snapshot = null;
+
+    /**
+     * Returns the configuration of a VCS root.
+     *
+     * @param settings The Git VCS settings, to locate the system configuration
+     * @param root     The VCS root
+     * @return The configuration
+     */
+    @NotNull
+    public static synchronized GitConfig getInstance(@NotNull GitVcsSettings settings, @NotNull VirtualFile root) {
+        GitConfig config = instances.get(root.getPath());
+        if (config == null) {
+            String exeDir = GitCommandLauncher.getInstance(settings, root).getExecutableDirectory();
+            config = new GitConfig(new File(root.getPath(), ".git"), exeDir);
+            instances.put(root.getPath(), config);
+        }
+        return config;
+    }
+
+    /**
+     * Drops all cached configurations, e.g. after the git executable was changed.
+     */
+    public static synchronized void invalidateAll() {
+        instances.clear();
+    }
+
+    private GitConfig(File gitDir, String exeDir) {
+        this.gitDir = gitDir;
+        if (System.getenv("GIT_CONFIG_NOSYSTEM") == null)
+            baseFiles.add(systemFile(exeDir));
+        String global = System.getenv("GIT_CONFIG_GLOBAL");
+        if (global != null) {
+            baseFiles.add(new File(global));
+        } else {
+            String xdg = System.getenv("XDG_CONFIG_HOME");
+            if (xdg == null || xdg.length() == 0)
+                xdg = System.getProperty("user.home") + File.separator + ".config";
+            baseFiles.add(new File(xdg, "git" + File.separator + "config"));
+            baseFiles.add(new File(System.getProperty("user.home"), ".gitconfig"));
+        }
+        baseFiles.add(new File(gitDir, "config"));
+        baseFiles.add(new File(gitDir, "config.worktree"));     // only used if extensions.worktreeConfig is set
+    }
+
+    private static File systemFile(String exeDir) {
+        String env = System.getenv("GIT_CONFIG_SYSTEM");
+        if (env != null)
+            return new File(env);
+        if (exeDir != null) {
+            // installations outside /usr (Windows, Homebrew) keep it relative to the executable
+            File relative = new File(new File(exeDir).getParentFile(), "etc" + File.separator + "gitconfig");
+            if (relative.isFile())
+                return relative;
+        }
+        return new File("/etc/gitconfig");
+    }
+
+    /**
+     * Returns the value of a variable.
+     *
+     * @param name The variable name, e.g. "core.autocrlf" or "branch.master.merge"; section & key are case insensitive
+     * @return The last value set for the variable, "true" for a key without value, or null if the variable is not set
+     */
+    @Nullable
+    public String get(@NotNull String name) {
+        List<String> values = getAll(name);
+        return values.size() == 0 ? null : values.get(values.size() - 1);
+    }
+
+    /**
+     * Returns all values of a multi-valued variable (e.g. "remote.origin.fetch"), in the order git would list them.
+     *
+     * @param name The variable name
+     * @return The values, empty if the variable is not set
+     */
+    @NotNull
+    public List<String> getAll(@NotNull String name) {
+        List<String> values = getSnapshot().values.get(canonicalName(name));
+        return values == null ? Collections.<String>emptyList() : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * Returns a boolean variable.
+     *
+     * @param name         The variable name
+     * @param defaultValue The value to return if the variable is not set or not a boolean
+     * @return The value
+     */
+    public boolean getBoolean(@NotNull String name, boolean defaultValue) {
+        String value = get(name);
+        if (value == null) return defaultValue;
+        value = value.toLowerCase();
+        if (value.equals("true") || value.equals("yes") || value.equals("on") || value.equals("1"))
+            return true;
+        if (value.equals("false") || value.equals("no") || value.equals("off") || value.equals("0") || value.length() == 0)
+            return false;
+        return defaultValue;
+    }
+
+    /**
+     * Returns a path variable with a leading "~/" expanded to the home directory.
+     *
+     * @param name The variable name
+     * @return The path, or null if the variable is not set
+     */
+    @Nullable
+    public String getPath(@NotNull String name) {
+        String value = get(name);
+        return value == null ? null : expandHome(value);
+    }
+
+    private static String canonicalName(String name) {
+        // section & key are case insensitive, a subsection in between is not
+        int first = name.indexOf('.');
+        int last = name.lastIndexOf('.');
+        if (first < 0) return name.toLowerCase();
+        return name.substring(0, first).toLowerCase() + name.substring(first, last) + name.substring(last).toLowerCase();
+    }
+
+    private static String expandHome(String path) {
+        if (path.startsWith("~/"))
+            return System.getProperty("user.home") + path.substring(1);
+        return path;
+    }
+
+    private synchronized Snapshot getSnapshot() {
+        if (snapshot == null || snapshot.isStale()) {
+            Snapshot s = new Snapshot();
+            for (File file : baseFiles) {
+                if (file.getName().equals("config.worktree") && !isTrue(s.values.get("extensions.worktreeconfig"))) {
+                    s.track(file);      // reload once the extension gets enabled
+                    continue;
+                }
+                read(s, file, 0);
+            }
+            snapshot = s;
+        }
+        return snapshot;
+    }
+
+    private static boolean isTrue(List<String> values) {
+        return values != null && values.size() > 0 && values.get(values.size() - 1).equalsIgnoreCase("true");
+    }
+
+    private void read(Snapshot s, File file, int depth) {
+        s.track(file);
+        if (depth > MAX_INCLUDE_DEPTH || !file.isFile()) return;
+        String text;
+        try {
+            text = load(file);
+        } catch (IOException e) {
+            return;     // unreadable files are skipped, like git does for missing ones
+        }
+        new Parser(s, file, text, depth).parse();
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private static String load(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buf = new byte[4096];
+            int len;
+            while ((len = in.read(buf)) != -1)
+                out.write(buf, 0, len);
+            String text = out.toString("UTF-8");
+            return text.startsWith("\uFEFF") ? text.substring(1) : text;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private boolean includeApplies(String condition, File includingFile) {
+        boolean ignoreCase = condition.startsWith("gitdir/i:");
+        if (condition.startsWith("gitdir:") || ignoreCase) {
+            String pattern = condition.substring(condition.indexOf(':') + 1);
+            if (pattern.startsWith("./"))
+                pattern = includingFile.getParent().replace('\\', '/') + pattern.substring(1);
+            pattern = expandHome(pattern).replace('\\', '/');
+            if (!pattern.startsWith("/") && !(pattern.length() > 1 && pattern.charAt(1) == ':'))
+                pattern = "**/" + pattern;
+            if (pattern.endsWith("/"))
+                pattern = pattern + "**";
+            String dir = gitDir.getAbsolutePath().replace('\\', '/');
+            if (ignoreCase) {
+                pattern = pattern.toLowerCase();
+                dir = dir.toLowerCase();
+            }
+            GitPathPattern matcher = new GitPathPattern(pattern.startsWith("/") ? pattern : "/" + pattern);
+            return matcher.matches(dir.startsWith("/") ? dir.substring(1) : dir, true);
+        }
+        if (condition.startsWith("onbranch:")) {
+            String branch = currentBranch();
+            if (branch == null) return false;
+            String pattern = condition.substring("onbranch:".length());
+            if (pattern.endsWith("/"))
+                pattern = pattern + "**";
+            return new GitPathPattern("/" + pattern).matches(branch, false);
+        }
+        return false;
+    }
+
+    @Nullable
+    private String currentBranch() {
+        try {
+            String head = load(new File(gitDir, "HEAD")).trim();
+            return head.startsWith("ref: refs/heads/") ? head.substring("ref: refs/heads/".length()) : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Merged variables & the files they were read from
+     */
+    private static class Snapshot {
+        final Map<String, List<String>> values = new LinkedHashMap<String, List<String>>();
+        final Map<File, Long> stamps = new LinkedHashMap<File, Long>();
+
+        void track(File file) {
+            stamps.put(file, file.lastModified() ^ file.length());
+        }
+
+        void put(String name, String value) {
+            List<String> list = values.get(name);
+            if (list == null) {
+                list = new ArrayList<String>(1);
+                values.put(name, list);
+            }
+            list.add(value);
+        }
+
+        boolean isStale() {
+            for (Map.Entry<File, Long> stamp : stamps.entrySet()) {
+                File file = stamp.getKey();
+                if ((file.lastModified() ^ file.length()) != stamp.getValue())
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Parser for a single config file
+     */
+    private class Parser {
+        private final Snapshot snapshot;
+        private final File file;
+        private final String text;
+        private final int depth;
+        private int pos = 0;
+        private String section = null;
+
+        Parser(Snapshot snapshot, File file, String text, int depth) {
+            this.snapshot = snapshot;
+            this.file = file;
+            this.text = text;
+            this.depth = depth;
+        }
+
+        void parse() {
+            while (pos < text.length()) {
+                char c = text.charAt(pos);
+                if (Character.isWhitespace(c)) {
+                    pos++;
+                } else if (c == '#' || c == ';') {
+                    skipLine();
+                } else if (c == '[') {
+                    section = parseSection();
+                } else if (Character.isLetter(c) && section != null) {
+                    parseVariable();
+                } else {
+                    skipLine();         // malformed, git would refuse the whole file; be lenient
+                }
+            }
+        }
+
+        private void skipLine() {
+            int eol = text.indexOf('\n', pos);
+            pos = eol < 0 ? text.length() : eol + 1;
+        }
+
+        private String parseSection() {
+            int end = text.indexOf(']', pos);
+            if (end < 0) {
+                pos = text.length();
+                return null;
+            }
+            String header = text.substring(pos + 1, end);
+            pos = end + 1;
+            int quote = header.indexOf('"');
+            if (quote >= 0) {
+                // [section "subsection"], the subsection is case sensitive
+                String name = header.substring(0, quote).trim().toLowerCase();
+                StringBuilder sub = new StringBuilder();
+                for (int i = quote + 1; i < header.length() && header.charAt(i) != '"'; i++) {
+                    char c = header.charAt(i);
+                    if (c == '\\' && i + 1 < header.length())
+                        c = header.charAt(++i);
+                    sub.append(c);
+                }
+                return name + "." + sub;
+            }
+            // [section] or the deprecated [section.subsection], which is case insensitive
+            return header.trim().toLowerCase();
+        }
+
+        private void parseVariable() {
+            int start = pos;
+            while (pos < text.length() && (Character.isLetterOrDigit(text.charAt(pos)) || text.charAt(pos) == '-'))
+                pos++;
+            String key = text.substring(start, pos).toLowerCase();
+            while (pos < text.length() && (text.charAt(pos) == ' ' || text.charAt(pos) == '\t'))
+                pos++;
+            String value;
+            if (pos < text.length() && text.charAt(pos) == '=') {
+                pos++;
+                value = parseValue();
+            } else {
+                value = "true";      // a key without '=' is a boolean true
+                skipLine();
+            }
+            String name = section + "." + key;
+            snapshot.put(name, value);
+            processInclude(name, value);
+        }
+
+        private String parseValue() {
+            StringBuilder value = new StringBuilder();
+            boolean quoted = false;
+            int trimTo = 0;     // trailing whitespace outside quotes is dropped
+            while (pos < text.length()) {
+                char c = text.charAt(pos++);
+                if (c == '\n') break;
+                if (c == '\r' && pos < text.length() && text.charAt(pos) == '\n') continue;
+                if (!quoted && (c == '#' || c == ';')) {
+                    skipLine();
+                    break;
+                }
+                if (c == '"') {
+                    quoted = !quoted;
+                    trimTo = value.length();
+                    continue;
+                }
+                if (c == '\\' && pos < text.length()) {
+                    char e = text.charAt(pos++);
+                    if (e == '\r' && pos < text.length() && text.charAt(pos) == '\n') pos++;
+                    if (e == '\n' || e == '\r') continue;       // line continuation
+                    value.append(e == 'n' ? '\n' : e == 't' ? '\t' : e == 'b' ? '\b' : e);
+                    trimTo = value.length();
+                    continue;
+                }
+                if (value.length() == 0 && !quoted && (c == ' ' || c == '\t')) continue;
+                value.append(!quoted && c == '\t' ? ' ' : c);      // like git, unquoted tabs become spaces
+                if (quoted || (c != ' ' && c != '\t'))
+                    trimTo = value.length();
+            }
+            value.setLength(trimTo);
+            return value.toString();
+        }
+
+        private void processInclude(String name, String value) {
+            String condition = null;
+            if (name.equals("include.path")) {
+                condition = "";
+            } else if (name.startsWith("includeif.") && name.endsWith(".path")) {
+                condition = name.substring("includeif.".length(), name.length() - ".path".length());
+            }
+            if (condition == null || value.length() == 0) return;
+            if (condition.startsWith("onbranch:"))
+                snapshot.track(new File(gitDir, "HEAD"));       // re-evaluate when another branch is checked out
+            if (condition.length() > 0 && !includeApplies(condition, file)) return;
+            File included = new File(expandHome(value));
+            if (!included.isAbsolute())
+                included = new File(file.getParentFile(), value);
+            read(snapshot, included, depth + 1);
+        }
+    }
+}
@@ -23,8 +23,10 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import javax.swing.*;
 
+import git4idea.commands.GitCommandLauncher;
 import git4idea.config.GitVcsPanel;
 import git4idea.config.GitVcsSettings;
+import git4idea.vfs.GitIgnore;
 
 /**
  * Git VCS configurable implementation
@@ -71,6 +73,9 @@ public class GitVcsConfigurable implements Configurable {
     @Override
     public void apply() throws ConfigurationException {
         panel.save(settings);
+        GitCommandLauncher.invalidateAll();
+        GitConfig.invalidateAll();
+        GitIgnore.invalidateAll();
     }
 
     @Override
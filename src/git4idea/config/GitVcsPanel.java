@@ -38,6 +38,12 @@ public class GitVcsPanel {
     private JButton testButton;
     private JComponent panel;
     private TextFieldWithBrowseButton gitField;
+    private JSpinner localTimeoutSpinner;
+    private JSpinner remoteTimeoutSpinner;
+    private JSpinner parallelismSpinner;
+    private JSpinner fetchIntervalSpinner;
+    private JSpinner prefetchBudgetSpinner;
+    private JCheckBox fetchAllTagsCheckBox;
     private Project project;
 
     public GitVcsPanel(@NotNull Project project) {
@@ -54,6 +60,12 @@ public class GitVcsPanel {
                 "Select path to git executable",
                 project,
                 new FileChooserDescriptor(true, false, false, false, false, false));
+
+        localTimeoutSpinner.setModel(new SpinnerNumberModel(0, 0, 24 * 3600, 10));
+        remoteTimeoutSpinner.setModel(new SpinnerNumberModel(0, 0, 24 * 3600, 60));
+        parallelismSpinner.setModel(new SpinnerNumberModel(1, 1, 64, 1));
+        fetchIntervalSpinner.setModel(new SpinnerNumberModel(0, 0, 24 * 60, 5));
+        prefetchBudgetSpinner.setModel(new SpinnerNumberModel(0, 0, 1024 * 1024, 1024));
     }
 
     private void testConnection() {
@@ -80,13 +92,35 @@ public class GitVcsPanel {
 
     public void load(@NotNull GitVcsSettings settings) {
         gitField.setText(settings.GIT_EXECUTABLE);
+        localTimeoutSpinner.setValue(settings.LOCAL_COMMAND_TIMEOUT);
+        remoteTimeoutSpinner.setValue(settings.REMOTE_COMMAND_TIMEOUT);
+        parallelismSpinner.setValue(settings.REMOTE_PARALLELISM);
+        fetchIntervalSpinner.setValue(settings.AUTO_FETCH_INTERVAL);
+        prefetchBudgetSpinner.setValue(settings.PREFETCH_BUDGET_KB);
+        fetchAllTagsCheckBox.setSelected(settings.FETCH_ALL_TAGS);
     }
 
     public boolean isModified(@NotNull GitVcsSettings settings) {
-        return !settings.GIT_EXECUTABLE.equals(gitField.getText());
+        return !settings.GIT_EXECUTABLE.equals(gitField.getText())
+                || settings.LOCAL_COMMAND_TIMEOUT != getInt(localTimeoutSpinner)
+                || settings.REMOTE_COMMAND_TIMEOUT != getInt(remoteTimeoutSpinner)
+                || settings.REMOTE_PARALLELISM != getInt(parallelismSpinner)
+                || settings.AUTO_FETCH_INTERVAL != getInt(fetchIntervalSpinner)
+                || settings.PREFETCH_BUDGET_KB != getInt(prefetchBudgetSpinner)
+                || settings.FETCH_ALL_TAGS != fetchAllTagsCheckBox.isSelected();
     }
 
     public void save(@NotNull GitVcsSettings settings) {
         settings.GIT_EXECUTABLE = gitField.getText();
+        settings.LOCAL_COMMAND_TIMEOUT = getInt(localTimeoutSpinner);
+        settings.REMOTE_COMMAND_TIMEOUT = getInt(remoteTimeoutSpinner);
+        settings.REMOTE_PARALLELISM = getInt(parallelismSpinner);
+        settings.AUTO_FETCH_INTERVAL = getInt(fetchIntervalSpinner);
+        settings.PREFETCH_BUDGET_KB = getInt(prefetchBudgetSpinner);
+        settings.FETCH_ALL_TAGS = fetchAllTagsCheckBox.isSelected();
+    }
+
+    private static int getInt(JSpinner spinner) {
+        return ((Number) spinner.getValue()).intValue();
     }
 }
\ No newline at end of file
@@ -44,6 +44,18 @@ public class GitVcsSettings implements PersistentStateComponent<GitVcsSettings>
     public static final String DEFAULT_UNIX_GIT_EXEC = "/usr/bin/git";
     public static final String DEFAULT_GIT_EXEC = "git";
     public String GIT_EXECUTABLE = defaultGit();
+    /* Max run time in seconds of read-only local git commands (status, log, diff...), zero for no limit */
+    public int LOCAL_COMMAND_TIMEOUT = 120;
+    /* Max run time in seconds of fetch, push & clone, zero for no limit. Commands changing the worktree have none */
+    public int REMOTE_COMMAND_TIMEOUT = 900;
+    /* Max number of VCS roots fetched, pulled or pushed concurrently */
+    public int REMOTE_PARALLELISM = 4;
+    /* Also fetch the tags not pointing into the fetched history when fetching or pulling */
+    public boolean FETCH_ALL_TAGS = false;
+    /* Minutes between background fetches of every VCS root, zero to disable */
+    public int AUTO_FETCH_INTERVAL = 15;
+    /* Max kilobytes of base contents read ahead for diffs of modified files, zero to disable */
+    public int PREFETCH_BUDGET_KB = 16 * 1024;
 
     @Override
     public GitVcsSettings getState() {
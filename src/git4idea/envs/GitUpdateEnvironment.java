@@ -12,10 +12,13 @@ package git4idea.envs;
 * Copyright 2008 MQSoftware
 * Authors: Mark Scott
 */
+import com.intellij.openapi.vcs.update.FileGroup;
 import com.intellij.openapi.vcs.update.UpdateEnvironment;
 import com.intellij.openapi.vcs.update.UpdatedFiles;
 import com.intellij.openapi.vcs.update.UpdateSession;
 import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.progress.ProgressIndicator;
 import com.intellij.openapi.progress.ProcessCanceledException;
 import com.intellij.openapi.options.Configurable;
@@ -23,13 +26,31 @@ import com.intellij.openapi.project.Project;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
+import git4idea.GitUtil;
+import git4idea.changes.GitBranchTracker;
+import git4idea.changes.GitCommitRecord;
+import git4idea.changes.GitOperationRefresher;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitRemoteCommandRunner;
 import git4idea.config.GitVcsSettings;
 import git4idea.envs.GitUpdateSession;
 
 /**
- * Git update environment implementation
+ * Git update environment implementation. All roots are pulled concurrently (git merges or rebases as configured by
+ * pull.rebase & branch.&lt;name&gt;.rebase), then the files each pull changed are read from a single diff of the
+ * HEAD before & after, and reported in the {@link UpdatedFiles} groups.
  */
 public class GitUpdateEnvironment implements UpdateEnvironment {
     private Project project;
@@ -50,7 +71,101 @@ public class GitUpdateEnvironment implements UpdateEnvironment {
     @Override
     @NotNull
     public UpdateSession updateDirectories(@NotNull FilePath[] contentRoots, UpdatedFiles updatedFiles, ProgressIndicator progressIndicator) throws ProcessCanceledException {
-          return new GitUpdateSession(null);
+        Set<VirtualFile> roots = new LinkedHashSet<VirtualFile>();
+        for (FilePath path : contentRoots) {
+            VirtualFile root = GitUtil.getVcsRoot(project, path);
+            if (root != null)
+                roots.add(root);
+        }
+
+        // remember where every root was, the diff against it is exactly what the pull changed
+        Map<VirtualFile, String> oldHeads = new LinkedHashMap<VirtualFile, String>();
+        Map<VirtualFile, Set<String>> stagedBefore = new HashMap<VirtualFile, Set<String>>();
+        List<VcsException> exceptions = new ArrayList<VcsException>();
+        GitRemoteCommandRunner runner = new GitRemoteCommandRunner(project, settings, GitCommand.PULL_CMD);
+        for (VirtualFile root : roots) {
+            if (GitOperationRefresher.isOperationInProgress(root)) {
+                // git refuses to pull anyway, & what a pull changed couldn't be told from what was merged before
+                exceptions.add(new VcsException(root.getPath() +
+                        ": a merge or rebase is in progress, commit or abort it first"));
+                continue;
+            }
+            GitCommand command = new GitCommand(project, settings, root);
+            String[] ids = command.headIds();
+            oldHeads.put(root, ids != null ? ids[0] : null);
+            try {
+                stagedBefore.put(root, new HashSet<String>(command.stagedPaths()));
+            } catch (VcsException e) {
+                stagedBefore.put(root, Collections.<String>emptySet());
+            }
+            runner.addRoot(root, null);
+        }
+        Map<VirtualFile, VcsException> errors = runner.runUnder(progressIndicator);
+        boolean canceled = progressIndicator != null && progressIndicator.isCanceled();
+
+        exceptions.addAll(errors.values());
+        for (Map.Entry<VirtualFile, String> entry : oldHeads.entrySet()) {
+            try {
+                fillUpdatedFiles(entry.getKey(), entry.getValue(), stagedBefore.get(entry.getKey()), updatedFiles);
+            } catch (VcsException e) {
+                exceptions.add(e);
+            }
+        }
+        GitBranchTracker.getInstance(project).updateStatusBar();
+        return new GitUpdateSession(exceptions, canceled);
+    }
+
+    /**
+     * Reports the files changed since the specified HEAD, and the files left with conflicts, of a root. A merge or
+     * rebase stopped at conflicts hasn't committed (or moved HEAD past) the cleanly merged files yet, those are read
+     * from the index instead, leaving out the files staged before the pull.
+     */
+    private void fillUpdatedFiles(VirtualFile root, String oldHead, Set<String> stagedBefore, UpdatedFiles updatedFiles)
+            throws VcsException {
+        GitCommand command = new GitCommand(project, settings, root);
+        Set<String> conflicts = command.unmergedEntries().keySet();
+        Set<String> skipped = new HashSet<String>(conflicts);
+        String[] ids = command.headIds();
+        List<GitCommitRecord.Entry> changes = null;
+        if (oldHead != null && GitOperationRefresher.isOperationInProgress(root)) {
+            changes = command.diffIndex(oldHead);
+            skipped.addAll(stagedBefore);
+        } else if (oldHead != null && ids != null && !oldHead.equals(ids[0]))
+            changes = command.diffTree(oldHead, ids[0]);
+        if (changes != null) {
+            for (GitCommitRecord.Entry change : changes) {
+                String path = change.getPath();
+                switch (change.getStatus()) {
+                    case 'A':
+                        add(updatedFiles, FileGroup.CREATED_ID, root, path, skipped);
+                        break;
+                    case 'D':
+                        add(updatedFiles, FileGroup.REMOVED_FROM_REPOSITORY_ID, root, path, skipped);
+                        break;
+                    case 'R':
+                        add(updatedFiles, FileGroup.REMOVED_FROM_REPOSITORY_ID, root, path, skipped);
+                        add(updatedFiles, FileGroup.CREATED_ID, root, change.getNewPath(), skipped);
+                        break;
+                    case 'C':
+                        add(updatedFiles, FileGroup.CREATED_ID, root, change.getNewPath(), skipped);
+                        break;
+                    default:
+                        add(updatedFiles, FileGroup.UPDATED_ID, root, path, skipped);
+                }
+            }
+        }
+        for (String path : conflicts)
+            updatedFiles.getGroupById(FileGroup.MERGED_WITH_CONFLICT_ID).add(toFile(root, path));
+    }
+
+    private static void add(UpdatedFiles updatedFiles, String groupId, VirtualFile root, String path,
+                            Set<String> skipped) {
+        if (path == null || skipped.contains(path)) return;      // a conflict, or not changed by the pull
+        updatedFiles.getGroupById(groupId).add(toFile(root, path));
+    }
+
+    private static String toFile(VirtualFile root, String path) {
+        return new File(root.getPath(), path).getPath();
     }
 
     @Override
@@ -24,12 +24,18 @@ import java.util.ArrayList;
  */
 public class GitUpdateSession implements UpdateSession {
     private List<VcsException> exceptions;
+    private final boolean canceled;
 
     public GitUpdateSession(@Nullable List<VcsException> exceptions) {
+        this(exceptions, false);
+    }
+
+    public GitUpdateSession(@Nullable List<VcsException> exceptions, boolean canceled) {
         if(exceptions == null)
             this.exceptions = new ArrayList<VcsException>();
         else
             this.exceptions = exceptions;
+        this.canceled = canceled;
     }
 
     public List<VcsException> getExceptions() {
@@ -40,6 +46,6 @@ public class GitUpdateSession implements UpdateSession {
     }
 
     public boolean isCanceled() {
-        return false;
+        return canceled;
     }
 }
@@ -31,15 +31,22 @@ import com.intellij.openapi.vcs.changes.VcsDirtyScope;
 import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.vcsUtil.VcsUtil;
 import git4idea.changes.ChangeMonitor;
+import git4idea.changes.GitHeadTree;
+import git4idea.changes.GitStatCache;
 import git4idea.commands.GitCommand;
 import git4idea.config.GitVcsSettings;
+import git4idea.vfs.GitBlobCache;
+import git4idea.vfs.GitBlobContentRevision;
 import git4idea.vfs.GitContentRevision;
+import git4idea.vfs.GitIgnore;
 import git4idea.vfs.GitRevisionNumber;
 import git4idea.vfs.GitVirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 
 /**
@@ -58,9 +65,14 @@ public class GitChangeProvider implements ChangeProvider {
     public void getChanges(VcsDirtyScope dirtyScope, ChangelistBuilder builder, ProgressIndicator progress) throws VcsException {
         Collection<VirtualFile> roots = dirtyScope.getAffectedContentRoots();
         ChangeMonitor mon = ChangeMonitor.getInstance(project);
+        GitStatCache statCache = GitStatCache.getInstance(project);
+        GitHeadTree headTree = GitHeadTree.getInstance(project);
+        GitBlobCache blobCache = GitBlobCache.getInstance(project);
         FileTypeManager ftm = FileTypeManager.getInstance();
         for (VirtualFile root : roots) {
             GitCommand command = new GitCommand(project, settings, root);
+            GitHeadTree.Snapshot head = headTree.getSnapshot(root, command);
+            List<GitBlobContentRevision> bases = new ArrayList<GitBlobContentRevision>();
 
             // process Git cached/indexed files
             Set<GitVirtualFile> files = command.gitCachedFiles();
@@ -69,9 +81,12 @@ public class GitChangeProvider implements ChangeProvider {
                         builder.processIgnoredFile(file);
                      continue;
                  }
-                Change c = getChange(file);
-                if (c != null)
+                statCache.fillStat(root, file);
+                Change c = getChange(root, head, file);
+                if (c != null) {
                     builder.processChange(c);
+                    addBase(bases, c);
+                }
             }
             // process Git uncached modified files
             Set<String> unCachedFilenames = mon.getUncachedFiles(root);
@@ -79,16 +94,25 @@ public class GitChangeProvider implements ChangeProvider {
                 for (String filename : unCachedFilenames) {
                     if (filename == null || ftm.isFileIgnored(filename)) continue;
                     GitVirtualFile file = new GitVirtualFile(project, filename, GitVirtualFile.Status.MODIFIED);
-                    Change c = getChange(file);
-                    if (c != null)
+                    statCache.fillStat(root, file);
+                    Change c = getChange(root, head, file);
+                    if (c != null) {
                         builder.processChange(c);
+                        addBase(bases, c);
+                    }
                 }
             }
             // process Git unversioned files
             Set<String> otherFilenames = mon.getOtherFiles(root);
             if (otherFilenames != null && otherFilenames.size() > 0) {
+                GitIgnore gitIgnore = GitIgnore.getInstance(settings, root);
+                String rootPrefix = root.getPath() + "/";
                 for (String filename : otherFilenames) {
                     if (filename == null) continue;
+                    // listed before an ignore rule was added, git itself will drop it on the next full listing
+                    if (filename.startsWith(rootPrefix)
+                            && gitIgnore.isIgnored(filename.substring(rootPrefix.length()), filename.endsWith("/")))
+                        continue;
                     if (ftm.isFileIgnored(filename)) // IDEA (not Git) is configured to ignore this file
                         builder.processIgnoredFile(
                                 new GitVirtualFile(project, filename, GitVirtualFile.Status.IGNORED));
@@ -106,18 +130,24 @@ public class GitChangeProvider implements ChangeProvider {
 //                                new GitVirtualFile(project, filename, GitVirtualFile.Status.IGNORED));
 //                }
 //            }
+            // warm the cache for the diffs the user is likely to open next
+            blobCache.prefetch(root, bases);
         }
     }
 
+    private static void addBase(List<GitBlobContentRevision> bases, Change change) {
+        if (change.getAfterRevision() != null && change.getBeforeRevision() instanceof GitBlobContentRevision)
+            bases.add((GitBlobContentRevision) change.getBeforeRevision());
+    }
+
     @Override
     public boolean isModifiedDocumentTrackingRequired() {
         return false;
     }
 
-    private Change getChange(GitVirtualFile file) {
+    private Change getChange(VirtualFile root, GitHeadTree.Snapshot head, GitVirtualFile file) {
         if (file == null) return null;
-        ContentRevision beforeRev = new GitContentRevision(file, new GitRevisionNumber(
-                GitRevisionNumber.TIP, new Date(file.getModificationStamp())), project);
+        ContentRevision beforeRev = getHeadRevision(root, head, file);
         ContentRevision afterRev = CurrentContentRevision.create(VcsUtil.getFilePath(file.getPath()));
 
         Change c = null;
@@ -134,8 +164,18 @@ public class GitChangeProvider implements ChangeProvider {
                 c = new Change(beforeRev, null, FileStatus.DELETED);
                 break;
             }
-            case COPY:
-            case RENAME:
+            case RENAME: {
+                // the before revision is the HEAD version of the file it was renamed from
+                if (file.getOriginalPath() != null)
+                    beforeRev = getHeadRevision(root, head, new GitVirtualFile(project, file.getOriginalPath()));
+                c = new Change(beforeRev, afterRev, FileStatus.MODIFIED);
+                break;
+            }
+            case COPY: {
+                // the source file is still there, so a copy is an addition rather than a move
+                c = new Change(null, afterRev, FileStatus.ADDED);
+                break;
+            }
             case MODIFIED: {
                 c = new Change(beforeRev, afterRev, FileStatus.MODIFIED);
                 break;
@@ -154,4 +194,20 @@ public class GitChangeProvider implements ChangeProvider {
         }
         return c;
     }
+
+    /**
+     * Returns the HEAD version of a file. It's backed by the blob id from the HEAD tree snapshot when the file is in
+     * there, so equal contents are recognized (and cached) across refreshes without asking git for them again.
+     */
+    private ContentRevision getHeadRevision(VirtualFile root, GitHeadTree.Snapshot head, GitVirtualFile file) {
+        String prefix = root.getPath() + "/";
+        GitHeadTree.Entry entry = head != null && file.getPath().startsWith(prefix)
+                ? head.get(file.getPath().substring(prefix.length())) : null;
+        if (entry != null) {
+            return new GitBlobContentRevision(project, root, VcsUtil.getFilePath(file.getPath()), entry.getBlobId(),
+                    head.getRevision());
+        }
+        return new GitContentRevision(file, new GitRevisionNumber(
+                GitRevisionNumber.TIP, new Date(file.getModificationStamp())), project);
+    }
 }
\ No newline at end of file
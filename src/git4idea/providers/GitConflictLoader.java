@@ -0,0 +1,210 @@
+package git4idea.providers;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Loads the base, ours & theirs contents of conflicted files of a VCS root. The stage blob ids of all conflicts are
+ * read from the index in one pass, the contents are read as raw bytes through one batch pipe per request, and the
+ * next conflicts are prefetched in the background while the user is busy merging the current one.
+ */
+public class GitConflictLoader {
+    private static final int PREFETCH_COUNT = 8;
+    private static final long MAX_CACHED_BYTES = 32 * 1024 * 1024;
+    private static final byte[] EMPTY = new byte[0];
+    /* git looks for NUL bytes in this many leading bytes to tell binary content from text */
+    static final int BINARY_SNIFF_LENGTH = 8000;
+
+    private final Project project;
+    private final GitVcsSettings settings;
+    private final VirtualFile root;
+    private final File indexFile;
+    private Map<String, String[]> unmerged = null;
+    private List<String> conflictOrder = Collections.emptyList();
+    private long indexStamp = -1;
+    private long cachedBytes = 0;
+    private final Map<String, byte[]> blobs = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    private final Map<String, Boolean> binaryBlobs = new HashMap<String, Boolean>();
+    private boolean prefetching = false;
+
+    public GitConflictLoader(@NotNull Project project, @NotNull GitVcsSettings settings, @NotNull VirtualFile root) {
+        this.project = project;
+        this.settings = settings;
+        this.root = root;
+        this.indexFile = new File(root.getPath(), ".git" + File.separator + "index");
+    }
+
+    /**
+     * Returns the base, ours & theirs contents of a conflicted file.
+     *
+     * @param relativePath The file path relative to the VCS root
+     * @return The three stage contents, empty for missing stages
+     * @throws VcsException If an error occurs
+     */
+    @NotNull
+    public byte[][] load(@NotNull String relativePath) throws VcsException {
+        String[] stages = getStages(relativePath);
+        byte[][] contents = new byte[3][];
+        List<String> missing = new ArrayList<String>(3);
+        synchronized (this) {
+            for (int i = 0; i < 3; i++) {
+                contents[i] = stages[i] == null ? EMPTY : blobs.get(stages[i]);
+                if (contents[i] == null)
+                    missing.add(stages[i]);
+            }
+        }
+        if (missing.size() > 0) {
+            Map<String, byte[]> loaded = new GitCommand(project, settings, root).catBlobs(missing);
+            cache(loaded);
+            for (int i = 0; i < 3; i++) {
+                if (contents[i] == null)
+                    contents[i] = loaded.containsKey(stages[i]) ? loaded.get(stages[i]) : EMPTY;
+            }
+        }
+        prefetchAfter(relativePath);
+        return contents;
+    }
+
+    /**
+     * Tells whether any stage of a conflicted file has binary content, using git's heuristic: a NUL byte within the
+     * first 8000 bytes. The verdict is cached per blob id.
+     *
+     * @param relativePath The file path relative to the VCS root
+     * @return True if the file is binary
+     * @throws VcsException If an error occurs
+     */
+    public boolean isBinary(@NotNull String relativePath) throws VcsException {
+        String[] stages = getStages(relativePath);
+        synchronized (this) {
+            boolean known = true;
+            for (String id : stages) {
+                if (id == null) continue;
+                Boolean binary = binaryBlobs.get(id);
+                if (binary == null)
+                    known = false;
+                else if (binary)
+                    return true;
+            }
+            if (known) return false;
+        }
+        byte[][] contents = load(relativePath);
+        boolean result = false;
+        synchronized (this) {
+            for (int i = 0; i < 3; i++) {
+                if (stages[i] == null) continue;
+                boolean binary = hasNul(contents[i]);
+                binaryBlobs.put(stages[i], binary);
+                result |= binary;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Tells whether content looks binary to git.
+     *
+     * @param content The content
+     * @return True if there is a NUL byte within the first 8000 bytes
+     */
+    public static boolean hasNul(@NotNull byte[] content) {
+        int len = Math.min(content.length, BINARY_SNIFF_LENGTH);
+        for (int i = 0; i < len; i++) {
+            if (content[i] == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the cached stage ids, e.g. after a conflict was resolved.
+     */
+    public synchronized void invalidate() {
+        unmerged = null;
+        conflictOrder = Collections.emptyList();
+    }
+
+    private synchronized String[] getStages(String relativePath) throws VcsException {
+        long stamp = indexFile.lastModified() ^ indexFile.length();
+        if (unmerged == null || stamp != indexStamp) {
+            unmerged = new GitCommand(project, settings, root).unmergedEntries();
+            conflictOrder = new ArrayList<String>(unmerged.keySet());
+            Collections.sort(conflictOrder);
+            indexStamp = stamp;
+        }
+        String[] stages = unmerged.get(relativePath);
+        if (stages == null)
+            throw new VcsException("Not a conflicted file: " + relativePath);
+        return stages;
+    }
+
+    private synchronized void cache(Map<String, byte[]> loaded) {
+        for (Map.Entry<String, byte[]> blob : loaded.entrySet()) {
+            if (blobs.containsKey(blob.getKey())) continue;
+            blobs.put(blob.getKey(), blob.getValue());
+            cachedBytes += blob.getValue().length;
+        }
+        // evict least recently used blobs
+        Iterator<byte[]> it = blobs.values().iterator();
+        while (cachedBytes > MAX_CACHED_BYTES && it.hasNext()) {
+            cachedBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    private void prefetchAfter(String relativePath) {
+        final List<String> ids = new ArrayList<String>();
+        synchronized (this) {
+            if (prefetching || unmerged == null) return;     // invalidated since the stages were read
+            int index = conflictOrder.indexOf(relativePath);
+            for (int i = index + 1; i < conflictOrder.size() && i <= index + PREFETCH_COUNT; i++) {
+                String[] stages = unmerged.get(conflictOrder.get(i));
+                if (stages == null) continue;
+                for (String id : stages) {
+                    if (id != null && !blobs.containsKey(id))
+                        ids.add(id);
+                }
+            }
+            if (ids.size() == 0) return;
+            prefetching = true;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                try {
+                    cache(new GitCommand(project, settings, root).catBlobs(ids));
+                } catch (VcsException e) {
+                    // just a prefetch, the blobs are read again when needed
+                } finally {
+                    synchronized (GitConflictLoader.this) {
+                        prefetching = false;
+                    }
+                }
+            }
+        });
+    }
+}
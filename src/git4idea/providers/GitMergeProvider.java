@@ -24,20 +24,23 @@ import git4idea.GitVcs;
 import git4idea.commands.GitCommand;
 import git4idea.config.GitVcsSettings;
 import git4idea.i18n.GitBundle;
-import git4idea.vfs.GitContentRevision;
+import git4idea.vfs.GitAttributes;
 import git4idea.vfs.GitRevisionNumber;
-import git4idea.vfs.GitVirtualFile;
 import org.jetbrains.annotations.NotNull;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * Merge-changes provider for Git, used by IDEA internal 3-way merge tool
  */
 public class GitMergeProvider implements MergeProvider {
-    private static final String[] binExts = new String[]{
-            ".exe", ".dll", ".so", ".jar", ".war", ".iso", ".class", ".bin", ".zip", ".tgz", ".tar", ".gif", ".png",
-            ".jpg", ".tiff", ".psd"};
     private Project project;
     private GitVcsSettings settings;
+    private final Map<VirtualFile, GitConflictLoader> loaders = new HashMap<VirtualFile, GitConflictLoader>();
+    private final Map<VirtualFile, GitAttributes> attributes = new HashMap<VirtualFile, GitAttributes>();
 
     public GitMergeProvider(Project proj, GitVcs vcs) {
         this.project = proj;
@@ -48,17 +51,15 @@ public class GitMergeProvider implements MergeProvider {
     public MergeData loadRevisions(VirtualFile file) throws VcsException {
         final MergeData mergeData = new MergeData();
         if(file == null) return mergeData;
-        final GitVirtualFile gvFile = new GitVirtualFile(project, file.getPath());
+        final VirtualFile root = GitUtil.getVcsRoot(project, file);
+        final String path = new GitCommand(project, settings, root).getRelativeFilePath(file, root);
 
         VcsRunnable runnable = new VcsRunnable() {
-            @SuppressWarnings({"ConstantConditions"})
             public void run() throws VcsException {
-                GitContentRevision original = new GitContentRevision(gvFile, new GitRevisionNumber(":1"), project);
-                GitContentRevision current = new GitContentRevision(gvFile, new GitRevisionNumber(":2"), project);
-                GitContentRevision last = new GitContentRevision(gvFile, new GitRevisionNumber(":3"), project);
-                mergeData.ORIGINAL = original.getContent().getBytes();
-                mergeData.CURRENT = current.getContent().getBytes();
-                mergeData.LAST = last.getContent().getBytes();
+                byte[][] contents = getLoader(root).load(path);
+                mergeData.ORIGINAL = contents[0];
+                mergeData.CURRENT = contents[1];
+                mergeData.LAST = contents[2];
                 mergeData.LAST_REVISION_NUMBER = new GitRevisionNumber("Theirs");
             }
         };
@@ -69,20 +70,73 @@ public class GitMergeProvider implements MergeProvider {
     @SuppressWarnings({"EmptyCatchBlock"})
     public void conflictResolvedForFile(VirtualFile file) {
         if (file == null) return;
-        GitCommand cmd = new GitCommand(project, settings, GitUtil.getVcsRoot(project, file));
+        VirtualFile root = GitUtil.getVcsRoot(project, file);
+        GitCommand cmd = new GitCommand(project, settings, root);
         try {
             cmd.add(new VirtualFile[]{file});
         } catch (VcsException e) {
         }
+        getLoader(root).invalidate();
+    }
+
+    private synchronized GitConflictLoader getLoader(VirtualFile root) {
+        GitConflictLoader loader = loaders.get(root);
+        if (loader == null) {
+            loader = new GitConflictLoader(project, settings, root);
+            loaders.put(root, loader);
+        }
+        return loader;
     }
 
+    /**
+     * Tells whether a conflicted file is binary. The .gitattributes "binary", "-diff" & "-text" attributes force binary
+     * and plain "text" & "diff" force text; otherwise, including "text=auto" & "diff=&lt;driver&gt;", the stage contents
+     * are checked for NUL bytes, like git does.
+     */
+    @SuppressWarnings({"EmptyCatchBlock"})
     public boolean isBinary(VirtualFile file) {
         if (file == null) return false;
-        String fpath = file.getPath().toLowerCase();
-        for (String ext : binExts) {
-            if (fpath.endsWith(ext))
-                return true;
+        VirtualFile root = GitUtil.getVcsRoot(project, file);
+        String path = new GitCommand(project, settings, root).getRelativeFilePath(file, root);
+        Map<String, String> attrs = getAttributes(root).getAttributes(path);
+        String text = attrs.get("text");
+        String diff = attrs.get("diff");
+        if (GitAttributes.UNSET.equals(text) || GitAttributes.UNSET.equals(diff))
+            return true;
+        if (GitAttributes.SET.equals(text) || GitAttributes.SET.equals(diff))
+            return false;
+        try {
+            return getLoader(root).isBinary(path);
+        } catch (VcsException e) {
+            // not an unmerged file, look at the working copy instead
+        }
+        InputStream in = null;
+        try {
+            in = file.getInputStream();
+            byte[] buf = new byte[GitConflictLoader.BINARY_SNIFF_LENGTH];
+            int len = 0;
+            int rlen;
+            while (len < buf.length && (rlen = in.read(buf, len, buf.length - len)) != -1)
+                len += rlen;
+            for (int i = 0; i < len; i++) {
+                if (buf[i] == 0)
+                    return true;
+            }
+        } catch (IOException e) {
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
         }
         return false;
     }
-}
\ No newline at end of file
+
+    private synchronized GitAttributes getAttributes(VirtualFile root) {
+        GitAttributes attrs = attributes.get(root);
+        if (attrs == null) {
+            attrs = new GitAttributes(root);
+            attributes.put(root, attrs);
+        }
+        return attrs;
+    }
+}
@@ -0,0 +1,467 @@
+package git4idea.providers;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.codeHighlighting.BackgroundEditorHighlighter;
+import com.intellij.ide.structureView.StructureViewBuilder;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileEditor.FileEditor;
+import com.intellij.openapi.fileEditor.FileEditorLocation;
+import com.intellij.openapi.fileEditor.FileEditorState;
+import com.intellij.openapi.fileEditor.FileEditorStateLevel;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.UserDataHolderBase;
+import com.intellij.openapi.vcs.VcsException;
+import git4idea.changes.GitCommitGraph;
+import git4idea.commands.GitCommand;
+import git4idea.config.GitVcsSettings;
+import git4idea.vfs.GitRevisionGraphFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.ListSelectionModel;
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.table.AbstractTableModel;
+import javax.swing.table.TableCellRenderer;
+import javax.swing.table.TableColumn;
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.beans.PropertyChangeListener;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+
+/**
+ * Shows the commit graph of a VCS root. The commits are streamed from git in topological order & appear as they
+ * arrive; the table only paints the rows in view, laying out their lanes on demand, and the author, date & subject of
+ * a row are loaded in pages when it first comes into view, keeping only the most recently viewed pages.
+ */
+public class GitRevisionGraphEditor extends UserDataHolderBase implements FileEditor {
+    static final FileEditorState STATE = new FileEditorState() {
+        public boolean canBeMergedWith(FileEditorState otherState, FileEditorStateLevel level) {
+            return otherState == this;
+        }
+    };
+
+    private static final String[] COLUMNS = {"Graph", "Subject", "Author", "Date", "Id"};
+    private static final int GRAPH_COLUMN = 0;
+    private static final int SUBJECT_COLUMN = 1;
+    private static final int AUTHOR_COLUMN = 2;
+    private static final int DATE_COLUMN = 3;
+    private static final int ID_COLUMN = 4;
+
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_PAGES = 50;
+    /* rows are handed to the table at most this often while the graph streams in */
+    private static final long PUBLISH_INTERVAL_MS = 250;
+    private static final int LANE_WIDTH = 12;
+    private static final int MAX_GRAPH_LANES = 32;
+    private static final Color[] LANE_COLORS = {
+            new Color(0x2060c0), new Color(0x20a040), new Color(0xc04020), new Color(0x8040b0),
+            new Color(0xc09000), new Color(0x20a0a0), new Color(0xb03080), new Color(0x607080)
+    };
+
+    private final Project project;
+    private final GitRevisionGraphFile file;
+    private final GitCommitGraph graph = new GitCommitGraph();
+    private final Map<String, String> labels = new HashMap<String, String>();
+    private final GraphTableModel model = new GraphTableModel();
+    private final JTable table;
+    private final JLabel status = new JLabel("Loading history...");
+    private final JPanel panel = new JPanel(new BorderLayout());
+    private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+
+    /* summary pages by page number, only touched on the event dispatch thread */
+    private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    /* pages waiting to be loaded, most recently requested last, & all pages requested but not loaded yet */
+    private final LinkedList<Integer> requested = new LinkedList<Integer>();
+    private final Set<Integer> loading = new HashSet<Integer>();
+    private boolean loaderRunning = false;
+    private volatile int firstVisibleRow = 0;
+    private volatile int lastVisibleRow = 0;
+
+    private final Future<?> streaming;
+    private volatile boolean disposed = false;
+
+    public GitRevisionGraphEditor(@NotNull Project project, @NotNull GitRevisionGraphFile file) {
+        this.project = project;
+        this.file = file;
+
+        table = new JTable(model);
+        table.setShowGrid(false);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(GRAPH_COLUMN).setCellRenderer(new GraphCellRenderer());
+        setColumnWidth(SUBJECT_COLUMN, 500);
+        setColumnWidth(AUTHOR_COLUMN, 150);
+        setColumnWidth(DATE_COLUMN, 120);
+        setColumnWidth(ID_COLUMN, 70);
+        updateGraphColumnWidth();
+
+        final JScrollPane scrollPane = new JScrollPane(table);
+        scrollPane.getViewport().addChangeListener(new ChangeListener() {
+            public void stateChanged(ChangeEvent e) {
+                Rectangle view = scrollPane.getViewport().getViewRect();
+                int rowHeight = table.getRowHeight();
+                firstVisibleRow = view.y / rowHeight;
+                lastVisibleRow = (view.y + view.height) / rowHeight;
+            }
+        });
+        panel.add(status, BorderLayout.NORTH);
+        panel.add(scrollPane, BorderLayout.CENTER);
+
+        streaming = ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                loadGraph();
+            }
+        });
+    }
+
+    private void setColumnWidth(int column, int width) {
+        table.getColumnModel().getColumn(column).setPreferredWidth(width);
+    }
+
+    private void updateGraphColumnWidth() {
+        TableColumn column = table.getColumnModel().getColumn(GRAPH_COLUMN);
+        int width = (Math.min(Math.max(graph.getMaxLanes(), 1), MAX_GRAPH_LANES) + 1) * LANE_WIDTH;
+        if (column.getPreferredWidth() != width) {
+            column.setMinWidth(LANE_WIDTH);
+            column.setPreferredWidth(width);
+        }
+    }
+
+    /**
+     * Streams the graph into the table, handing over the rows read so far every {@link #PUBLISH_INTERVAL_MS}.
+     */
+    private void loadGraph() {
+        GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), file.getRoot());
+        command.setForeground(true);
+        try {
+            for (Map.Entry<String, String> ref : command.refs("refs/heads", "refs/remotes").entrySet()) {
+                String name = ref.getKey().replaceFirst("^refs/(heads|remotes)/", "");
+                String label = labels.get(ref.getValue());
+                labels.put(ref.getValue(), label == null ? name : label + ", " + name);
+            }
+            command.revisionGraph(file.getPaths(), new GitCommitGraph.Consumer() {
+                private long lastPublished = System.currentTimeMillis();
+
+                public void consume(@NotNull String id, @NotNull String[] parentIds) {
+                    graph.add(id, parentIds);
+                    long now = System.currentTimeMillis();
+                    if (now - lastPublished >= PUBLISH_INTERVAL_MS) {
+                        lastPublished = now;
+                        publish(null, false);
+                    }
+                }
+            });
+            publish(null, true);
+        } catch (VcsException e) {
+            if (!disposed)
+                publish(e.getMessage(), true);
+        }
+    }
+
+    private void publish(final String error, final boolean done) {
+        final int rowCount = graph.getRowCount();
+        ApplicationManager.getApplication().invokeLater(new Runnable() {
+            public void run() {
+                if (disposed) return;
+                model.setRowCount(rowCount);
+                updateGraphColumnWidth();
+                if (error != null)
+                    status.setText("Failed to load history: " + error);
+                else
+                    status.setText(rowCount + " commits" + (done ? "" : ", loading..."));
+            }
+        });
+    }
+
+    /**
+     * @return The author, date & subject of the commit shown in the row, or null if not loaded yet
+     */
+    private String[] getSummary(int row) {
+        int page = row / PAGE_SIZE;
+        Page loaded = pages.get(page);
+        if (loaded == null || row > loaded.lastRow) {
+            // not loaded, or loaded while the page was still streaming in
+            requestPage(page);
+            return null;
+        }
+        return loaded.summaries.get(graph.getId(row));
+    }
+
+    private void requestPage(int page) {
+        synchronized (requested) {
+            if (!loading.add(page)) return;
+            requested.addLast(page);
+            if (loaderRunning) return;
+            loaderRunning = true;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                loadPages();
+            }
+        });
+    }
+
+    /**
+     * Loads the requested pages, newest request first. Pages scrolled out of view before their turn are dropped, &
+     * requested again if they come back into view.
+     */
+    private void loadPages() {
+        GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), file.getRoot());
+        command.setForeground(true);
+        while (true) {
+            final int page;
+            synchronized (requested) {
+                if (requested.isEmpty() || disposed) {
+                    requested.clear();
+                    loading.clear();
+                    loaderRunning = false;
+                    return;
+                }
+                page = requested.removeLast();
+                if (!isVisible(page)) {
+                    loading.remove(page);
+                    continue;
+                }
+            }
+
+            final int first = page * PAGE_SIZE;
+            final int last = Math.min(first + PAGE_SIZE, graph.getRowCount()) - 1;
+            List<String> ids = new ArrayList<String>(PAGE_SIZE);
+            for (int row = first; row <= last; row++)
+                ids.add(graph.getId(row));
+            Map<String, String[]> summaries;
+            try {
+                summaries = command.commitSummaries(ids);
+            } catch (VcsException e) {
+                summaries = new HashMap<String, String[]>();    // show the graph without the details
+            }
+
+            final Map<String, String[]> loaded = summaries;
+            ApplicationManager.getApplication().invokeLater(new Runnable() {
+                public void run() {
+                    synchronized (requested) {
+                        loading.remove(page);
+                    }
+                    if (disposed) return;
+                    pages.put(page, new Page(last, loaded));
+                    model.fireTableRowsUpdated(first, last);
+                }
+            });
+        }
+    }
+
+    private boolean isVisible(int page) {
+        int first = page * PAGE_SIZE;
+        return first + PAGE_SIZE > firstVisibleRow && first <= lastVisibleRow;
+    }
+
+    @NotNull
+    public JComponent getComponent() {
+        return panel;
+    }
+
+    @Nullable
+    public JComponent getPreferredFocusedComponent() {
+        return table;
+    }
+
+    @NotNull
+    public String getName() {
+        return "Revision Graph";
+    }
+
+    @NotNull
+    public FileEditorState getState(@NotNull FileEditorStateLevel level) {
+        return STATE;
+    }
+
+    public void setState(@NotNull FileEditorState state) {
+    }
+
+    public boolean isModified() {
+        return false;
+    }
+
+    public boolean isValid() {
+        return !disposed;
+    }
+
+    public void selectNotify() {
+    }
+
+    public void deselectNotify() {
+    }
+
+    public void addPropertyChangeListener(@NotNull PropertyChangeListener listener) {
+    }
+
+    public void removePropertyChangeListener(@NotNull PropertyChangeListener listener) {
+    }
+
+    @Nullable
+    public BackgroundEditorHighlighter getBackgroundHighlighter() {
+        return null;
+    }
+
+    @Nullable
+    public FileEditorLocation getCurrentLocation() {
+        return null;
+    }
+
+    @Nullable
+    public StructureViewBuilder getStructureViewBuilder() {
+        return null;
+    }
+
+    /**
+     * Stops loading; the git process still listing the graph is killed.
+     */
+    public void dispose() {
+        disposed = true;
+        streaming.cancel(true);
+    }
+
+    private static class Page {
+        private final int lastRow;
+        private final Map<String, String[]> summaries;
+
+        Page(int lastRow, Map<String, String[]> summaries) {
+            this.lastRow = lastRow;
+            this.summaries = summaries;
+        }
+    }
+
+    private class GraphTableModel extends AbstractTableModel {
+        private int rowCount = 0;
+
+        void setRowCount(int count) {
+            int old = rowCount;
+            if (count <= old) return;
+            rowCount = count;
+            fireTableRowsInserted(old, count - 1);
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        public int getColumnCount() {
+            return COLUMNS.length;
+        }
+
+        @Override
+        public String getColumnName(int column) {
+            return COLUMNS[column];
+        }
+
+        public Object getValueAt(int row, int column) {
+            switch (column) {
+                case GRAPH_COLUMN:
+                    return row;
+                case ID_COLUMN:
+                    return graph.getId(row).substring(0, 8);
+            }
+            String[] summary = getSummary(row);
+            if (summary == null)
+                return column == SUBJECT_COLUMN ? "Loading..." : "";
+            switch (column) {
+                case SUBJECT_COLUMN:
+                    String label = labels.get(graph.getId(row));
+                    return label == null ? summary[2] : "[" + label + "] " + summary[2];
+                case AUTHOR_COLUMN:
+                    return summary[0];
+                default:
+                    try {
+                        return dateFormat.format(new Date(Long.parseLong(summary[1]) * 1000));
+                    } catch (NumberFormatException e) {
+                        return "";
+                    }
+            }
+        }
+    }
+
+    /**
+     * Paints the lanes of a row: lanes passing by, lanes ending in the commit, the commit & the edges to its parents
+     */
+    private class GraphCellRenderer extends JComponent implements TableCellRenderer {
+        private GitCommitGraph.Layout layout;
+        private Color background;
+
+        public Component getTableCellRendererComponent(JTable table, Object value, boolean isSelected,
+                                                       boolean hasFocus, int row, int column) {
+            layout = graph.getLayout(row);
+            background = isSelected ? table.getSelectionBackground() : table.getBackground();
+            return this;
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            int height = getHeight();
+            int mid = height / 2;
+            g.setColor(background);
+            g.fillRect(0, 0, getWidth(), height);
+            if (layout == null) return;
+            if (g instanceof Graphics2D)
+                ((Graphics2D) g).setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+            int lane = layout.getLane();
+            for (int i = 0; i < layout.getWidth(); i++) {
+                g.setColor(laneColor(i));
+                if (layout.passesThrough(i))
+                    g.drawLine(x(i), 0, x(i), height);
+                else if (layout.endsInCommit(i))
+                    g.drawLine(x(i), 0, x(lane), mid);
+            }
+            for (int parentLane : layout.getParentLanes()) {
+                g.setColor(laneColor(parentLane));
+                g.drawLine(x(lane), mid, x(parentLane), height);
+            }
+            g.setColor(laneColor(lane));
+            g.fillOval(x(lane) - 3, mid - 3, 7, 7);
+        }
+
+        private int x(int lane) {
+            return lane * LANE_WIDTH + LANE_WIDTH / 2;
+        }
+
+        private Color laneColor(int lane) {
+            return LANE_COLORS[lane % LANE_COLORS.length];
+        }
+    }
+}
@@ -16,6 +16,7 @@ package git4idea.providers;
  *
  * This code was originally derived from the MKS & Mercurial IDEA VCS plugins
  */
+import com.intellij.openapi.components.ApplicationComponent;
 import com.intellij.openapi.fileEditor.FileEditor;
 import com.intellij.openapi.fileEditor.FileEditorPolicy;
 import com.intellij.openapi.fileEditor.FileEditorProvider;
@@ -25,33 +26,31 @@ import com.intellij.openapi.vfs.VirtualFile;
 import org.jdom.Element;
 import org.jetbrains.annotations.NonNls;
 import org.jetbrains.annotations.NotNull;
-import git4idea.vfs.GitVirtualFile;
+import git4idea.vfs.GitRevisionGraphFile;
 
 /**
  * Git revision graph editor
  */
-public class GitRevisionGraphEditorProvider implements FileEditorProvider {
-    //TODO: implement this whole class!!  Do we really need this????
+public class GitRevisionGraphEditorProvider implements ApplicationComponent, FileEditorProvider {
     public boolean accept(@NotNull Project project, @NotNull VirtualFile file) {
-        return file instanceof GitVirtualFile;
+        return file instanceof GitRevisionGraphFile;
     }
 
     @NotNull
     public FileEditor createEditor(@NotNull Project project, @NotNull VirtualFile file) {
-        throw new UnsupportedOperationException("Method createEditor not implemented in " + getClass());
+        return new GitRevisionGraphEditor(project, (GitRevisionGraphFile) file);
     }
 
     public void disposeEditor(@NotNull FileEditor editor) {
-        throw new UnsupportedOperationException("Method disposeEditor not implemented in " + getClass());
+        ((GitRevisionGraphEditor) editor).dispose();
     }
 
     @NotNull
     public FileEditorState readState(@NotNull Element sourceElement, @NotNull Project project, @NotNull VirtualFile file) {
-        throw new UnsupportedOperationException("Method readState not implemented in " + getClass());
+        return GitRevisionGraphEditor.STATE;
     }
 
     public void writeState(@NotNull FileEditorState state, @NotNull Project project, @NotNull Element targetElement) {
-        throw new UnsupportedOperationException("Method writeState not implemented in " + getClass());
     }
 
     @NotNull
@@ -62,6 +61,18 @@ public class GitRevisionGraphEditorProvider implements FileEditorProvider {
 
     @NotNull
     public FileEditorPolicy getPolicy() {
-        throw new UnsupportedOperationException("Method getPolicy not implemented in " + getClass());
+        return FileEditorPolicy.HIDE_DEFAULT_EDITOR;
     }
-}
\ No newline at end of file
+
+    @NotNull
+    @NonNls
+    public String getComponentName() {
+        return "GitRevisionGraphEditorProvider";
+    }
+
+    public void initComponent() {
+    }
+
+    public void disposeComponent() {
+    }
+}
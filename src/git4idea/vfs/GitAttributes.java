@@ -0,0 +1,151 @@
+package git4idea.vfs;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves the git attributes of paths in a VCS root from the .gitattributes files of the working tree and
+ * .git/info/attributes. The parsed rules of every directory are cached until its attributes file changes.
+ */
+public class GitAttributes {
+    public static final String SET = "set";
+    public static final String UNSET = "unset";
+
+    private static final String ATTRIBUTES_FILE = ".gitattributes";
+    private static final String INFO_ATTRIBUTES = ".git/info/attributes";
+
+    private final VirtualFile root;
+    private final Map<String, Rules> rules = new HashMap<String, Rules>();
+
+    public GitAttributes(@NotNull VirtualFile root) {
+        this.root = root;
+    }
+
+    /**
+     * Returns the attributes of a path which are set, unset or have a value.
+     *
+     * @param relativePath The path relative to the VCS root, separated by '/'
+     * @return The attribute values ({@link #SET}, {@link #UNSET} or the value), keyed by attribute name
+     */
+    @NotNull
+    public Map<String, String> getAttributes(@NotNull String relativePath) {
+        Map<String, String> attributes = new HashMap<String, String>();
+        // less specific files first, so deeper files & .git/info/attributes override them
+        apply(attributes, getRules(ATTRIBUTES_FILE), relativePath);
+        int slash = relativePath.indexOf('/');
+        while (slash >= 0) {
+            String file = relativePath.substring(0, slash + 1) + ATTRIBUTES_FILE;
+            apply(attributes, getRules(file), relativePath.substring(slash + 1));
+            slash = relativePath.indexOf('/', slash + 1);
+        }
+        apply(attributes, getRules(INFO_ATTRIBUTES), relativePath);
+        attributes.values().removeAll(Collections.singleton(null));
+        return attributes;
+    }
+
+    private static void apply(Map<String, String> attributes, List<Rule> rules, String path) {
+        for (Rule rule : rules) {
+            if (rule.pattern.matches(path, false))
+                attributes.putAll(rule.attributes);
+        }
+    }
+
+    private synchronized List<Rule> getRules(String file) {
+        File f = new File(root.getPath(), file);
+        long stamp = f.lastModified() ^ f.length();
+        Rules cached = rules.get(file);
+        if (cached == null || cached.stamp != stamp) {
+            cached = new Rules(stamp, f.isFile() ? parse(f) : Collections.<Rule>emptyList());
+            rules.put(file, cached);
+        }
+        return cached.rules;
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private static List<Rule> parse(File file) {
+        List<Rule> result = new ArrayList<Rule>();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                line = line.trim();
+                if (line.length() == 0 || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+");
+                if (fields[0].startsWith("!") || fields.length < 2) continue;   // negative patterns are forbidden
+                Map<String, String> attributes = new HashMap<String, String>();
+                for (int i = 1; i < fields.length; i++)
+                    parseAttribute(fields[i], attributes);
+                result.add(new Rule(new GitPathPattern(fields[0]), attributes));
+            }
+        } catch (IOException e) {
+            // treat unreadable files as empty
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+        return result;
+    }
+
+    private static void parseAttribute(String field, Map<String, String> attributes) {
+        if (field.equals("binary")) {
+            // the only built-in macro
+            attributes.put("binary", SET);
+            attributes.put("diff", UNSET);
+            attributes.put("merge", UNSET);
+            attributes.put("text", UNSET);
+        } else if (field.startsWith("-")) {
+            attributes.put(field.substring(1), UNSET);
+        } else if (field.startsWith("!")) {
+            attributes.put(field.substring(1), null);     // back to unspecified
+        } else if (field.indexOf('=') > 0) {
+            attributes.put(field.substring(0, field.indexOf('=')), field.substring(field.indexOf('=') + 1));
+        } else {
+            attributes.put(field, SET);
+        }
+    }
+
+    private static class Rules {
+        final long stamp;
+        final List<Rule> rules;
+
+        Rules(long stamp, List<Rule> rules) {
+            this.stamp = stamp;
+            this.rules = rules;
+        }
+    }
+
+    private static class Rule {
+        final GitPathPattern pattern;
+        final Map<String, String> attributes;
+
+        Rule(GitPathPattern pattern, Map<String, String> attributes) {
+            this.pattern = pattern;
+            this.attributes = attributes;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package git4idea.vfs;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import git4idea.commands.GitCommandLauncher;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Project wide cache of blob contents, keyed by blob id & bounded by {@link GitVcsSettings#PREFETCH_BUDGET_KB}.
+ * After every refresh of the changes view, the base contents of the modified files are read into it in the
+ * background (files open in editors first), so the first diff doesn't have to wait for git. The prefetch runs at low
+ * priority and gives way as soon as any other git command is started.
+ */
+public class GitBlobCache {
+    private static final Map<Project, GitBlobCache> instances = new HashMap<Project, GitBlobCache>();
+    /* blobs read per "cat-file --batch" call, so an interrupted prefetch keeps what it has read so far */
+    private static final int PREFETCH_BATCH = 16;
+    /* pause after giving way to another git command, before trying again */
+    private static final long YIELD_PAUSE_MS = 500;
+
+    private final Project project;
+    private final Map<String, byte[]> blobs = new LinkedHashMap<String, byte[]>(64, 0.75f, true);
+    private long cachedBytes = 0;
+    private final Map<VirtualFile, List<GitBlobContentRevision>> pending =
+            new LinkedHashMap<VirtualFile, List<GitBlobContentRevision>>();
+    private boolean prefetching = false;
+
+    public static synchronized GitBlobCache getInstance(Project proj) {
+        GitBlobCache cache = instances.get(proj);
+        if (cache == null) {
+            cache = new GitBlobCache(proj);
+            instances.put(proj, cache);
+        }
+        return cache;
+    }
+
+    public static synchronized void removeInstance(Project proj) {
+        instances.remove(proj);
+    }
+
+    private GitBlobCache(Project project) {
+        this.project = project;
+    }
+
+    /**
+     * Returns the cached contents of a blob.
+     *
+     * @param blobId The blob id
+     * @return The contents, or null if the blob isn't cached
+     */
+    @Nullable
+    public synchronized byte[] get(@NotNull String blobId) {
+        return blobs.get(blobId);
+    }
+
+    /**
+     * Caches the contents of a blob, evicting the least recently used blobs if the budget is exceeded.
+     *
+     * @param blobId  The blob id
+     * @param content The blob contents
+     */
+    public synchronized void put(@NotNull String blobId, @NotNull byte[] content) {
+        long budget = getBudget();
+        if (content.length > budget || blobs.containsKey(blobId)) return;
+        blobs.put(blobId, content);
+        cachedBytes += content.length;
+        Iterator<byte[]> it = blobs.values().iterator();
+        while (cachedBytes > budget && it.hasNext()) {
+            cachedBytes -= it.next().length;
+            it.remove();
+        }
+    }
+
+    /**
+     * Schedules reading the given base revisions into the cache in the background. Revisions scheduled earlier for
+     * the same root, but not read yet, are replaced.
+     *
+     * @param root      The VCS root
+     * @param revisions The base revisions of the modified files
+     */
+    public void prefetch(@NotNull VirtualFile root, @NotNull Collection<GitBlobContentRevision> revisions) {
+        if (getBudget() == 0) return;
+        synchronized (this) {
+            if (revisions.size() == 0) {
+                pending.remove(root);
+                return;
+            }
+            pending.put(root, new ArrayList<GitBlobContentRevision>(revisions));
+            if (prefetching) return;
+            prefetching = true;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(new Runnable() {
+            public void run() {
+                Thread thread = Thread.currentThread();
+                int priority = thread.getPriority();
+                thread.setPriority(Thread.MIN_PRIORITY);
+                try {
+                    while (true) {
+                        VirtualFile root;
+                        List<GitBlobContentRevision> revisions;
+                        synchronized (GitBlobCache.this) {
+                            if (pending.size() == 0 || project.isDisposed()) {
+                                pending.clear();
+                                prefetching = false;
+                                return;
+                            }
+                            root = pending.keySet().iterator().next();
+                            revisions = pending.remove(root);
+                        }
+                        if (prefetch(root, revisions)) {
+                            // gave way to another git command: retry later, unless a newer refresh replaced the list
+                            synchronized (GitBlobCache.this) {
+                                if (!pending.containsKey(root))
+                                    pending.put(root, revisions);
+                            }
+                            Thread.sleep(YIELD_PAUSE_MS);
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    synchronized (GitBlobCache.this) {
+                        pending.clear();
+                        prefetching = false;
+                    }
+                } catch (RuntimeException e) {
+                    synchronized (GitBlobCache.this) {
+                        pending.clear();
+                        prefetching = false;
+                    }
+                    throw e;
+                } finally {
+                    thread.setPriority(priority);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return True if the prefetch gave way to another git command
+     */
+    private boolean prefetch(VirtualFile root, List<GitBlobContentRevision> revisions) {
+        // files the user has open are the likeliest to be diffed next
+        Set<String> open = new HashSet<String>();
+        for (VirtualFile file : FileEditorManager.getInstance(project).getOpenFiles())
+            open.add(file.getPath());
+        List<String> ids = new ArrayList<String>(revisions.size());
+        List<String> others = new ArrayList<String>(revisions.size());
+        long budget = getBudget();
+        synchronized (this) {
+            for (GitBlobContentRevision revision : revisions) {
+                if (blobs.containsKey(revision.getBlobId())) continue;
+                // the working copy size is a good guess of the base size, skip what can't fit anyway
+                String path = revision.getFile().getPath();
+                if (new File(path).length() > budget) continue;
+                (open.contains(path) ? ids : others).add(revision.getBlobId());
+            }
+        }
+        ids.addAll(others);
+
+        GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), root);
+        long fetched = 0;
+        boolean interrupted;
+        GitCommandLauncher.beginYielding();
+        try {
+            for (int start = 0; start < ids.size() && fetched < budget; start += PREFETCH_BATCH) {
+                if (Thread.currentThread().isInterrupted()) break;
+                List<String> batch = ids.subList(start, Math.min(start + PREFETCH_BATCH, ids.size()));
+                Map<String, byte[]> loaded = command.catBlobs(batch);
+                for (Map.Entry<String, byte[]> blob : loaded.entrySet()) {
+                    put(blob.getKey(), blob.getValue());
+                    fetched += blob.getValue().length;
+                }
+            }
+        } catch (VcsException e) {
+            // interrupted by foreground git work, or a broken repository; either way the blobs are read when needed
+        } finally {
+            interrupted = GitCommandLauncher.endYielding();
+        }
+        return interrupted;
+    }
+
+    private long getBudget() {
+        return Math.max(0, GitVcsSettings.getInstance(project).PREFETCH_BUDGET_KB) * 1024L;
+    }
+}
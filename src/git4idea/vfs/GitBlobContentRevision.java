@@ -0,0 +1,117 @@
+package git4idea.vfs;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.vcs.FilePath;
+import com.intellij.openapi.vcs.VcsException;
+import com.intellij.openapi.vcs.changes.ContentRevision;
+import com.intellij.openapi.vcs.history.VcsRevisionNumber;
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.commands.GitCommand;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+
+/**
+ * Content revision backed directly by a git blob id. Nothing is read until the content is requested, and the raw
+ * bytes are kept (softly) so the content is read at most once while memory allows.
+ */
+public class GitBlobContentRevision implements ContentRevision {
+    private final Project project;
+    private final VirtualFile vcsRoot;
+    private final FilePath path;
+    private final String blobId;
+    private final GitRevisionNumber revision;
+    private SoftReference<byte[]> bytes = null;
+
+    /**
+     * @param project  The project
+     * @param vcsRoot  The VCS root the blob belongs to
+     * @param path     The path of the file the blob is a version of
+     * @param blobId   The blob id
+     * @param revision The revision shown for this content, e.g. the commit containing the blob
+     */
+    public GitBlobContentRevision(@NotNull Project project, @NotNull VirtualFile vcsRoot, @NotNull FilePath path,
+                                  @NotNull String blobId, @NotNull GitRevisionNumber revision) {
+        this.project = project;
+        this.vcsRoot = vcsRoot;
+        this.path = path;
+        this.blobId = blobId;
+        this.revision = revision;
+    }
+
+    @NotNull
+    public String getBlobId() {
+        return blobId;
+    }
+
+    /**
+     * Returns the raw blob contents.
+     *
+     * @return The blob contents
+     * @throws VcsException If the blob could not be read
+     */
+    @NotNull
+    public synchronized byte[] getBytes() throws VcsException {
+        byte[] content = bytes != null ? bytes.get() : null;
+        if (content == null) {
+            GitBlobCache cache = GitBlobCache.getInstance(project);
+            content = cache.get(blobId);
+            if (content == null) {
+                content = new GitCommand(project, GitVcsSettings.getInstance(project), vcsRoot).catBlob(blobId);
+                cache.put(blobId, content);
+            }
+            bytes = new SoftReference<byte[]>(content);
+        }
+        return content;
+    }
+
+    @Nullable
+    public String getContent() throws VcsException {
+        VirtualFile file = path.getVirtualFile();
+        Charset charset = file != null ? file.getCharset() : Charset.defaultCharset();
+        try {
+            return new String(getBytes(), charset.name());
+        } catch (UnsupportedEncodingException e) {
+            throw new VcsException(e);
+        }
+    }
+
+    @NotNull
+    public FilePath getFile() {
+        return path;
+    }
+
+    @NotNull
+    public VcsRevisionNumber getRevisionNumber() {
+        return revision;
+    }
+
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if ((obj == null) || (obj.getClass() != this.getClass()))
+            return false;
+        GitBlobContentRevision test = (GitBlobContentRevision) obj;
+        return blobId.equals(test.blobId) && path.equals(test.path);
+    }
+
+    public int hashCode() {
+        return blobId.hashCode();
+    }
+}
@@ -28,6 +28,10 @@ import com.intellij.peer.PeerFactory;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.UnsupportedEncodingException;
+import java.lang.ref.SoftReference;
+import java.nio.charset.Charset;
+
 /**
  * Git content revision
  */
@@ -35,6 +39,7 @@ public class GitContentRevision extends CurrentContentRevision  {
     private GitVirtualFile file;
     private GitRevisionNumber revision;
     private Project project;
+    private SoftReference<byte[]> bytes = null;
 
     public GitContentRevision(final FilePath file) {
         super(file);
@@ -47,17 +52,37 @@ public class GitContentRevision extends CurrentContentRevision  {
         this.revision = revision;
     }
 
+    /**
+     * Returns the raw contents of this revision. They are loaded on first use & kept softly.
+     *
+     * @return The contents
+     */
+    @NotNull
+    public synchronized byte[] getBytes() {
+        byte[] content = bytes != null ? bytes.get() : null;
+        if (content == null) {
+            GitCommand command = new GitCommand(
+                    project,
+                    GitVcsSettings.getInstance(project),
+                    GitUtil.getVcsRoot(project,file));
+            content = command.getContents(file.getPath(), revision.getRev());
+            bytes = new SoftReference<byte[]>(content);
+        }
+        return content;
+    }
+
     @Override
     @Nullable
     public String getContent()  {
         if (file == null || revision == null) return super.getContent();
 
-        GitCommand command = new GitCommand(
-                project,
-                GitVcsSettings.getInstance(project),
-                GitUtil.getVcsRoot(project,file));
-
-        return command.getContents(file.getPath(), revision.getRev());
+        // decode with the file's own charset, not the platform default
+        Charset charset = file.getCharset();
+        try {
+            return new String(getBytes(), charset.name());
+        } catch (UnsupportedEncodingException e) {
+            return new String(getBytes());
+        }
     }
 
 
@@ -27,6 +27,7 @@ import com.intellij.openapi.vcs.history.VcsFileRevision;
 import com.intellij.openapi.vcs.history.VcsRevisionNumber;
 
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 import java.util.Date;
 
 import org.jetbrains.annotations.NotNull;
@@ -40,7 +41,7 @@ public class GitFileRevision implements VcsFileRevision,Comparable<VcsFileRevisi
     private GitRevisionNumber revision;
     private String author;
     private String message;
-    private byte[] content;
+    private SoftReference<byte[]> content = null;
     private Project project;
     private String branch;
 
@@ -87,24 +88,22 @@ public class GitFileRevision implements VcsFileRevision,Comparable<VcsFileRevisi
     @Override
     public void loadContent() throws VcsException {
         GitCommand command = new GitCommand(project, GitVcsSettings.getInstance(project), GitUtil.getVcsRoot(project, path));
-        String c = command.getContents(path.getPath(), revision.getRev());
-        if (c != null && c.length() > 0) {
-            content = c.getBytes();
-        } else {
-            content = null;
-        }
+        byte[] c = command.getContents(path.getPath(), revision.getRev());
+        content = c.length > 0 ? new SoftReference<byte[]>(c) : null;
     }
 
     @Override
     public byte[] getContent() throws IOException {
-        if (content == null) {
+        byte[] c = content != null ? content.get() : null;
+        if (c == null) {
             try {
                 loadContent();
             } catch (VcsException e) {
                 throw new IOException(e);
             }
+            c = content != null ? content.get() : null;
         }
-        return content;
+        return c;
     }
 
     @Override
@@ -22,9 +22,11 @@ import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.openapi.project.Project;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.io.IOException;
+import java.lang.ref.SoftReference;
 
 import git4idea.vfs.GitVirtualFile;
 
@@ -36,27 +38,49 @@ public class GitFileSystem extends VcsFileSystem {
     static final String PROTOCOL = "git";
     static final String PREFIX_REV_GRAPH = "revg";
 
-    // per project, store a cache map of path->vfile mappings
-    private Map<Project, Map<String, VirtualFile>> projects = new HashMap<Project, Map<String, VirtualFile>>();
+    /* max number of files cached, least recently used files are dropped first */
+    private static final int MAX_CACHED = 10000;
+
+    // one path->vfile index for all projects: bounded, and softly referenced so the GC may reclaim files any time
+    private final Map<String, CacheEntry> cache = new LinkedHashMap<String, CacheEntry>(256, 0.75f, true) {
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
 
     public static GitFileSystem getInstance() {
         return gitfs;
     }
 
     public VirtualFile findFileByPath(@NotNull Project project, @NotNull final String path) {
-        Map<String, VirtualFile> cache = projects.get(project);
-        if (cache == null) {
-            cache = new HashMap<String, VirtualFile>();
-            projects.put(project, cache);
+        synchronized (cache) {
+            CacheEntry entry = cache.get(path);
+            VirtualFile file = entry != null && entry.project == project ? entry.file.get() : null;
+            if (file != null) return file;
         }
 
-        if (cache.containsKey(path)) return cache.get(path);
-
         final GitVirtualFile file = new GitVirtualFile(project, path);
-        cache.put(path, file);
+        synchronized (cache) {
+            if (!project.isDisposed())
+                cache.put(path, new CacheEntry(project, file));
+        }
         return file;
     }
 
+    /**
+     * Drops the cached files of a project, e.g. when it is closed.
+     *
+     * @param project The project
+     */
+    public void forgetProject(@NotNull Project project) {
+        synchronized (cache) {
+            for (Iterator<CacheEntry> it = cache.values().iterator(); it.hasNext();) {
+                if (it.next().project == project)
+                    it.remove();
+            }
+        }
+    }
+
     @Override
     public String getProtocol() {
         return PROTOCOL;
@@ -74,10 +98,16 @@ public class GitFileSystem extends VcsFileSystem {
 
     @Override
     public VirtualFile refreshAndFindFileByPath(String path) {
-        for (Map<String, VirtualFile> cache : projects.values()) {
-            if (cache.containsKey(path)) return cache.get(path);
+        synchronized (cache) {
+            CacheEntry entry = cache.get(path);
+            if (entry == null) return null;
+            VirtualFile file = entry.file.get();
+            if (file == null || entry.project.isDisposed()) {
+                cache.remove(path);
+                return null;
+            }
+            return file;
         }
-        return null;
     }
 
     @Override
@@ -139,4 +169,17 @@ public class GitFileSystem extends VcsFileSystem {
     public VirtualFile createChildDirectory(Object requestor, VirtualFile vDir, String dirName) throws IOException {
         throw new RuntimeException(COULD_NOT_IMPLEMENT_MESSAGE);
     }
+
+    /**
+     * A cached file & the project it belongs to
+     */
+    private static class CacheEntry {
+        final Project project;
+        final SoftReference<VirtualFile> file;
+
+        CacheEntry(Project project, VirtualFile file) {
+            this.project = project;
+            this.file = new SoftReference<VirtualFile>(file);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,247 @@
+package git4idea.vfs;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.vfs.VirtualFile;
+import git4idea.config.GitConfig;
+import git4idea.config.GitVcsSettings;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process evaluation of git's ignore rules for a VCS root: core.excludesFile, .git/info/exclude and the
+ * .gitignore file of every directory. Each file is parsed once and reparsed only when it changes; verdicts for
+ * directories are memoized so that the ancestors of a path are not matched again for every file below them.
+ */
+public class GitIgnore {
+    private static final Map<String, GitIgnore> instances = new HashMap<String, GitIgnore>();
+    private static final String IGNORE_FILE = ".gitignore";
+    private static final String INFO_EXCLUDE = ".git/info/exclude";
+    /* rule files are checked for changes at most this often */
+    private static final long VALIDATE_INTERVAL_MS = 1000;
+
+    private final GitVcsSettings settings;
+    private final VirtualFile root;
+    private final File rootDir;
+    private File excludesFile = null;
+    private final Map<String, Rules> rules = new HashMap<String, Rules>();
+    private final Map<String, Boolean> directoryVerdicts = new HashMap<String, Boolean>();
+    private long lastValidated = 0;
+
+    /**
+     * Returns the ignore rules of a VCS root.
+     *
+     * @param settings The Git VCS settings
+     * @param root     The VCS root
+     * @return The ignore rules
+     */
+    @NotNull
+    public static synchronized GitIgnore getInstance(@NotNull GitVcsSettings settings, @NotNull VirtualFile root) {
+        GitIgnore ignore = instances.get(root.getPath());
+        if (ignore == null) {
+            ignore = new GitIgnore(settings, root);
+            instances.put(root.getPath(), ignore);
+        }
+        return ignore;
+    }
+
+    /**
+     * Drops all cached rules, e.g. after the git executable was changed.
+     */
+    public static synchronized void invalidateAll() {
+        instances.clear();
+    }
+
+    /**
+     * Drops the cached rules of the specified VCS roots, e.g. when their project is closed.
+     *
+     * @param roots The VCS roots
+     */
+    public static synchronized void forgetRoots(@NotNull VirtualFile[] roots) {
+        for (VirtualFile root : roots)
+            instances.remove(root.getPath());
+    }
+
+    private GitIgnore(GitVcsSettings settings, VirtualFile root) {
+        this.settings = settings;
+        this.root = root;
+        this.rootDir = new File(root.getPath());
+    }
+
+    /* core.excludesFile as currently configured, the configuration is reloaded when one of its files changed */
+    private File resolveExcludesFile() {
+        String excludes = GitConfig.getInstance(settings, root).getPath("core.excludesfile");
+        return excludes != null ? new File(excludes) : defaultExcludesFile();
+    }
+
+    private static File defaultExcludesFile() {
+        String xdg = System.getenv("XDG_CONFIG_HOME");
+        if (xdg == null || xdg.length() == 0)
+            xdg = System.getProperty("user.home") + File.separator + ".config";
+        return new File(xdg, "git" + File.separator + "ignore");
+    }
+
+    /**
+     * Tells whether git ignores a path. A path inside an ignored directory is ignored too, whatever the rules further
+     * down say, since git never looks into ignored directories.
+     *
+     * @param relativePath The path relative to the VCS root, separated by '/'
+     * @param isDirectory  True if the path denotes a directory
+     * @return True if the path is ignored
+     */
+    public synchronized boolean isIgnored(@NotNull String relativePath, boolean isDirectory) {
+        validate();
+        int slash = relativePath.lastIndexOf('/');
+        if (slash > 0 && isIgnoredDirectory(relativePath.substring(0, slash)))
+            return true;
+        return isDirectory ? isIgnoredDirectory(relativePath) : match(relativePath, false);
+    }
+
+    /**
+     * Tells whether git ignores a directory, so that it can be pruned without looking inside.
+     *
+     * @param relativePath The directory path relative to the VCS root, separated by '/'
+     * @return True if the directory is ignored
+     */
+    public synchronized boolean isIgnoredDirectory(@NotNull String relativePath) {
+        validate();
+        Boolean verdict = directoryVerdicts.get(relativePath);
+        if (verdict == null) {
+            int slash = relativePath.lastIndexOf('/');
+            verdict = slash > 0 && isIgnoredDirectory(relativePath.substring(0, slash)) || match(relativePath, true);
+            directoryVerdicts.put(relativePath, verdict);
+        }
+        return verdict;
+    }
+
+    private boolean match(String path, boolean isDirectory) {
+        // lowest precedence first, the last matching rule decides
+        Boolean ignored = null;
+        ignored = match(getRules(excludesFile), path, isDirectory, ignored);
+        ignored = match(getRules(new File(rootDir, INFO_EXCLUDE)), path, isDirectory, ignored);
+        ignored = match(getRules(new File(rootDir, IGNORE_FILE)), path, isDirectory, ignored);
+        for (int slash = path.indexOf('/'); slash > 0; slash = path.indexOf('/', slash + 1)) {
+            File file = new File(rootDir, path.substring(0, slash + 1) + IGNORE_FILE);
+            ignored = match(getRules(file), path.substring(slash + 1), isDirectory, ignored);
+        }
+        return ignored != null && ignored;
+    }
+
+    private static Boolean match(List<Rule> rules, String path, boolean isDirectory, Boolean ignored) {
+        for (Rule rule : rules) {
+            if (rule.pattern.matches(path, isDirectory))
+                ignored = !rule.negated;
+        }
+        return ignored;
+    }
+
+    private List<Rule> getRules(File file) {
+        String key = file.getPath();
+        Rules cached = rules.get(key);
+        if (cached == null) {
+            cached = new Rules(stamp(file), parse(file));
+            rules.put(key, cached);
+        }
+        return cached.rules;
+    }
+
+    private void validate() {
+        long now = System.currentTimeMillis();
+        if (now - lastValidated < VALIDATE_INTERVAL_MS) return;
+        lastValidated = now;
+        boolean changed = false;
+        File excludes = resolveExcludesFile();
+        if (!excludes.equals(excludesFile)) {
+            if (excludesFile != null)
+                rules.remove(excludesFile.getPath());
+            excludesFile = excludes;
+            changed = true;
+        }
+        for (Iterator<Map.Entry<String, Rules>> it = rules.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<String, Rules> entry = it.next();
+            if (entry.getValue().stamp != stamp(new File(entry.getKey()))) {
+                it.remove();
+                changed = true;
+            }
+        }
+        if (changed)
+            directoryVerdicts.clear();
+    }
+
+    private static long stamp(File file) {
+        return file.lastModified() ^ file.length();
+    }
+
+    @SuppressWarnings({"EmptyCatchBlock"})
+    private static List<Rule> parse(File file) {
+        if (!file.isFile()) return Collections.emptyList();
+        List<Rule> result = new ArrayList<Rule>();
+        BufferedReader in = null;
+        try {
+            in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            String line;
+            while ((line = in.readLine()) != null) {
+                int end = line.length();
+                while (end > 0 && line.charAt(end - 1) == ' ' && (end < 2 || line.charAt(end - 2) != '\\'))
+                    end--;      // trailing spaces are ignored unless escaped
+                line = line.substring(0, end);
+                if (line.length() == 0 || line.startsWith("#")) continue;
+                boolean negated = line.startsWith("!");
+                if (negated)
+                    line = line.substring(1);
+                else if (line.startsWith("\\#") || line.startsWith("\\!"))
+                    line = line.substring(1);       // escaped: the pattern starts with a literal '#' or '!'
+                if (line.length() == 0 || line.equals("/")) continue;
+                result.add(new Rule(new GitPathPattern(line), negated));
+            }
+        } catch (IOException e) {
+            // treat unreadable files as empty
+        } finally {
+            try {
+                if (in != null) in.close();
+            } catch (IOException e) {}
+        }
+        return result;
+    }
+
+    private static class Rules {
+        final long stamp;
+        final List<Rule> rules;
+
+        Rules(long stamp, List<Rule> rules) {
+            this.stamp = stamp;
+            this.rules = rules;
+        }
+    }
+
+    private static class Rule {
+        final GitPathPattern pattern;
+        final boolean negated;
+
+        Rule(GitPathPattern pattern, boolean negated) {
+            this.pattern = pattern;
+            this.negated = negated;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package git4idea.vfs;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.regex.Pattern;
+
+/**
+ * A path pattern as used in .gitattributes & .gitignore files. Patterns without a slash match the file name at any
+ * depth, other patterns match the path relative to the directory of the file they were read from.
+ */
+public class GitPathPattern {
+    private final String source;
+    private final Pattern regex;
+    private final boolean nameOnly;
+    private final boolean directoryOnly;
+
+    public GitPathPattern(@NotNull String pattern) {
+        source = pattern;
+        String p = pattern;
+        directoryOnly = p.endsWith("/");
+        if (directoryOnly)
+            p = p.substring(0, p.length() - 1);
+        nameOnly = p.indexOf('/') < 0;
+        if (p.startsWith("/"))
+            p = p.substring(1);
+        regex = Pattern.compile(toRegex(p));
+    }
+
+    /**
+     * Matches a path against this pattern.
+     *
+     * @param path        The path, relative to the directory the pattern was read from, separated by '/'
+     * @param isDirectory True if the path denotes a directory
+     * @return True if the pattern matches
+     */
+    public boolean matches(@NotNull String path, boolean isDirectory) {
+        if (directoryOnly && !isDirectory) return false;
+        String subject = nameOnly ? path.substring(path.lastIndexOf('/') + 1) : path;
+        return regex.matcher(subject).matches();
+    }
+
+    public String toString() {
+        return source;
+    }
+
+    private static String toRegex(String glob) {
+        StringBuilder sb = new StringBuilder(glob.length() * 2);
+        int len = glob.length();
+        for (int i = 0; i < len; i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '*':
+                    if (i + 1 < len && glob.charAt(i + 1) == '*') {
+                        i++;
+                        if (i + 1 < len && glob.charAt(i + 1) == '/') {
+                            i++;
+                            sb.append("(?:.*/)?");      // "**/" matches zero or more directories
+                        } else {
+                            sb.append(".*");
+                        }
+                    } else {
+                        sb.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    sb.append("[^/]");
+                    break;
+                case '[':
+                    int end = glob.indexOf(']', i + 2);
+                    if (end < 0) {
+                        sb.append("\\[");
+                        break;
+                    }
+                    String set = glob.substring(i + 1, end);
+                    if (set.startsWith("!"))
+                        set = "^" + set.substring(1);
+                    sb.append('[').append(set.replace("\\", "\\\\")).append(']');
+                    i = end;
+                    break;
+                case '\\':
+                    if (i + 1 < len)
+                        c = glob.charAt(++i);
+                    sb.append(Pattern.quote(String.valueOf(c)));
+                    break;
+                default:
+                    if (Character.isLetterOrDigit(c) || c == '/')
+                        sb.append(c);
+                    else
+                        sb.append('\\').append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,100 @@
+package git4idea.vfs;
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance
+ * with the License. You may obtain a copy of the License at:
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed
+ * on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for
+ * the specific language governing permissions and limitations under the License.
+ *
+ * Copyright 2008 MQSoftware
+ */
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.testFramework.LightVirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory file standing for the revision graph of a VCS root, or of some paths in it, opened in the revision graph
+ * editor. There is one per root & paths, so showing the same graph again selects the editor already open.
+ */
+public class GitRevisionGraphFile extends LightVirtualFile {
+    private static final Map<String, GitRevisionGraphFile> files = new HashMap<String, GitRevisionGraphFile>();
+
+    private final Project project;
+    private final VirtualFile root;
+    private final List<String> paths;
+
+    /**
+     * Returns the graph file of the specified paths of a VCS root.
+     *
+     * @param project The project
+     * @param root    The VCS root
+     * @param paths   The paths relative to the root to limit the graph to, empty for the whole history
+     * @return The graph file
+     */
+    public static synchronized GitRevisionGraphFile getInstance(@NotNull Project project, @NotNull VirtualFile root,
+                                                                @NotNull Collection<String> paths) {
+        List<String> sorted = new ArrayList<String>(paths);
+        Collections.sort(sorted);
+        String key = root.getPath() + "\0" + StringUtil.join(sorted, "\0");
+        GitRevisionGraphFile file = files.get(key);
+        if (file == null || file.project != project) {
+            file = new GitRevisionGraphFile(project, root, sorted);
+            files.put(key, file);
+        }
+        return file;
+    }
+
+    /**
+     * Drops the graph files of a project, e.g. when it is closed.
+     *
+     * @param project The project
+     */
+    public static synchronized void forgetProject(@NotNull Project project) {
+        for (Iterator<GitRevisionGraphFile> it = files.values().iterator(); it.hasNext();) {
+            if (it.next().project == project)
+                it.remove();
+        }
+    }
+
+    private GitRevisionGraphFile(Project project, VirtualFile root, List<String> paths) {
+        super("Revision Graph: " + root.getName() + (paths.size() > 0 ? " (" + StringUtil.join(paths, ", ") + ")" : ""));
+        this.project = project;
+        this.root = root;
+        this.paths = Collections.unmodifiableList(paths);
+    }
+
+    /**
+     * @return The VCS root whose history is shown
+     */
+    @NotNull
+    public VirtualFile getRoot() {
+        return root;
+    }
+
+    /**
+     * @return The paths relative to the root the graph is limited to, empty for the whole history
+     */
+    @NotNull
+    public List<String> getPaths() {
+        return paths;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return false;
+    }
+}
@@ -30,20 +30,38 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import git4idea.vfs.GitFileSystem;
 
 /**
- * Git implementation of VCS virtual file
+ * Git implementation of VCS virtual file. Instances are flyweights: a file is its parent directory (shared by all
+ * files in it) plus an interned name, the path & URL are built on demand, and the length, time stamp & type of the
+ * file are stat'ed at most once every {@link #STAT_MILLIS}, or until it is refreshed. Whether the file exists is
+ * always asked live.
  */
 public class GitVirtualFile extends VirtualFile {
+    private static final String PROTOCOL_PREFIX = "file://";
+    /* shared directory nodes, collected once no file refers to them any more */
+    private static final Map<String, WeakReference<GitVirtualFile>> directories =
+            new HashMap<String, WeakReference<GitVirtualFile>>();
+    private static final Map<String, WeakReference<String>> names = new WeakHashMap<String, WeakReference<String>>();
+    private static int purgeThreshold = 1024;
+    /* how long stat data is trusted: instances are kept around by GitFileSystem, files change under them */
+    private static final long STAT_MILLIS = 2000;
+
     private final Project project;
-    private final String path;
-    private final String URL;
-    private File file;
+    private final GitVirtualFile parent;
+    private final String name;
+    private final String path;      // only kept for shared directory nodes
+    private int hash = 0;
     private Status status;
-    private static String fileSep = System.getProperty("os.name").startsWith("Windows") ? "\\" : "/";
-
+    private String originalPath = null;
+    private Stat stat = null;
 
     public GitVirtualFile(@NotNull Project project, @NotNull String path, @NotNull Status status) {
         this(project, path);
@@ -51,11 +69,68 @@ public class GitVirtualFile extends VirtualFile {
     }
 
     public GitVirtualFile(@NotNull Project project, @NotNull String path) {
+        this(project, normalize(path), false);
+    }
+
+    private GitVirtualFile(Project project, String normalizedPath, boolean shared) {
+        this.project = project;
+        int slash = normalizedPath.lastIndexOf('/');
+        if (slash < 0 || normalizedPath.length() == 1) {
+            this.parent = null;         // file system root
+            this.name = intern(normalizedPath);
+        } else {
+            this.parent = directory(project, slash == 0 ? "/" : normalizedPath.substring(0, slash));
+            this.name = intern(normalizedPath.substring(slash + 1));
+        }
+        this.path = shared ? normalizedPath : null;
+    }
+
+    private GitVirtualFile(Project project, GitVirtualFile parent, String name) {
         this.project = project;
-        String p = path.replace("/", fileSep);
-        this.file = new File(p);
-        this.path = this.file.getAbsolutePath().replace("\\", "/");
-        this.URL = "file://" + this.path;
+        this.parent = parent;
+        this.name = intern(name);
+        this.path = null;
+    }
+
+    private static String normalize(String path) {
+        String p = path.replace('\\', '/');
+        boolean absolute = p.startsWith("/") || p.length() > 2 && p.charAt(1) == ':' && p.charAt(2) == '/';
+        boolean clean = p.indexOf("//") < 0 && p.indexOf("/./") < 0 && !p.endsWith("/.") && (!p.endsWith("/") || p.length() == 1);
+        if (!absolute || !clean)
+            p = new File(p).getAbsolutePath().replace('\\', '/');
+        return p;
+    }
+
+    private static GitVirtualFile directory(Project project, String path) {
+        synchronized (directories) {
+            WeakReference<GitVirtualFile> ref = directories.get(path);
+            GitVirtualFile dir = ref != null ? ref.get() : null;
+            if (dir != null && dir.project == project) return dir;
+        }
+        GitVirtualFile dir = new GitVirtualFile(project, path, true);
+        synchronized (directories) {
+            directories.put(path, new WeakReference<GitVirtualFile>(dir));
+            if (directories.size() > purgeThreshold) {
+                for (Iterator<WeakReference<GitVirtualFile>> it = directories.values().iterator(); it.hasNext();) {
+                    if (it.next().get() == null)
+                        it.remove();
+                }
+                purgeThreshold = Math.max(1024, directories.size() * 2);
+            }
+        }
+        return dir;
+    }
+
+    private static String intern(String name) {
+        synchronized (names) {
+            WeakReference<String> ref = names.get(name);
+            String interned = ref != null ? ref.get() : null;
+            if (interned == null) {
+                interned = name;
+                names.put(name, new WeakReference<String>(name));
+            }
+            return interned;
+        }
     }
 
     @NotNull
@@ -67,10 +142,51 @@ public class GitVirtualFile extends VirtualFile {
         this.status = status;
     }
 
+    /**
+     * Records the file this file was renamed or copied from.
+     *
+     * @param originalPath The path of the source file
+     */
+    public void setOrigin(@NotNull String originalPath) {
+        this.originalPath = originalPath.replace("\\", "/");
+    }
+
+    /**
+     * @return The path of the file this file was renamed or copied from, or null
+     */
+    @Nullable
+    public String getOriginalPath() {
+        return originalPath;
+    }
+
+    /**
+     * Sets the stat data of this file from data already at hand (e.g. a status snapshot), so the file system needn't
+     * be asked again. Expires like stat data read from the file system, or on
+     * {@link #refresh(boolean, boolean, Runnable)}.
+     *
+     * @param length    The file length
+     * @param timestamp The modification time
+     */
+    public void setStat(long length, long timestamp) {
+        stat = new Stat(false, length, timestamp);
+    }
+
+    private Stat stat() {
+        Stat s = stat;
+        if (s == null || System.currentTimeMillis() - s.taken >= STAT_MILLIS) {
+            File file = getFile();
+            long timestamp = file.lastModified();   // zero if the file doesn't exist, saves asking separately
+            boolean exists = timestamp != 0 || file.exists();
+            s = new Stat(exists && file.isDirectory(), exists ? file.length() : 0, timestamp);
+            stat = s;
+        }
+        return s;
+    }
+
     @Override
     @NotNull
     public String getName() {
-        return file.getName();
+        return name;
     }
 
     @Override
@@ -81,48 +197,50 @@ public class GitVirtualFile extends VirtualFile {
 
     @Override
     public String getPath() {
-        return path;
+        if (path != null) return path;
+        if (parent == null) return name;
+        String parentPath = parent.getPath();
+        return parentPath.endsWith("/") ? parentPath + name : parentPath + "/" + name;
     }
 
     @Override
     @NotNull
     public String getUrl() {
-        return URL;
+        return PROTOCOL_PREFIX + getPath();
     }
 
     @Override
     public boolean isWritable() {
-        return file.canWrite();
+        return getFile().canWrite();
     }
 
     @Override
     public boolean isDirectory() {
-        return file.isDirectory();
+        return stat().directory;
     }
 
     @Override
     public boolean isValid() {
-        return file.exists();
+        return getFile().exists();
     }
 
     @Override
     @Nullable
     public VirtualFile getParent() {
-        String parent = file.getParent();
-        if (parent == null) return null;
-        return new GitVirtualFile(project, parent);
+        return parent;
     }
 
     @Override
     @Nullable
     public VirtualFile[] getChildren() {
-        if (file.isDirectory()) {
-            String[] list = file.list();
+        if (isDirectory()) {
+            String[] list = getFile().list();
             if (list == null || list.length == 0)
                 return null;
+            GitVirtualFile dir = path != null ? this : directory(project, getPath());
             VirtualFile[] files = new VirtualFile[list.length];
             for (int i = 0; i < list.length; i++) {
-                files[i] = new GitVirtualFile(project, list[i]);
+                files[i] = new GitVirtualFile(project, dir, list[i]);
             }
             return files;
         } else {
@@ -132,7 +250,8 @@ public class GitVirtualFile extends VirtualFile {
 
     @Override
     public OutputStream getOutputStream(Object requestor, long newModificationStamp, long newTimeStamp) throws IOException {
-        return new FileOutputStream(path);
+        stat = null;
+        return new FileOutputStream(getPath());
     }
 
     @Override
@@ -142,50 +261,56 @@ public class GitVirtualFile extends VirtualFile {
 
     @Override
     public long getTimeStamp() {
-        return file.lastModified();
+        return stat().timestamp;
     }
 
     @Override
     public long getModificationStamp() {
-        return file.lastModified();
+        return stat().timestamp;
     }
 
     public File getFile() {
-        return file;
+        return new File(getPath());
     }
 
     @Override
     public long getLength() {
-        return file.length();
+        return stat().length;
     }
 
     @Override
     public void refresh(boolean asynchronous, boolean recursive, Runnable postRunnable) {
-        file = new File(getPath());
+        stat = null;
     }
 
     @Override
     public InputStream getInputStream() throws IOException {
-        return new FileInputStream(path);
+        return new FileInputStream(getPath());
     }
 
     @Override
     public boolean isInLocalFileSystem() {
-        return file.exists();
+        return isValid();
     }
 
     @Override
     public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj instanceof GitVirtualFile)
+            return getPath().equals(((GitVirtualFile) obj).getPath());
         if (!(obj instanceof VirtualFile))
             return false;
-
-        VirtualFile that = (VirtualFile) obj;
-        return this == that || getUrl().equals(that.getUrl());
+        return getUrl().equals(((VirtualFile) obj).getUrl());
     }
 
     public int hashCode() {
-        if (path == null) return -1;
-        return getUrl().hashCode();
+        int h = hash;
+        if (h == 0) {
+            h = getUrl().hashCode();
+            hash = h;
+        }
+        return h;
     }
 
     public String toString() {
@@ -196,6 +321,22 @@ public class GitVirtualFile extends VirtualFile {
         return project;
     }
 
+    /**
+     * File system data of a file, taken at once
+     */
+    private static class Stat {
+        final boolean directory;
+        final long length;
+        final long timestamp;
+        final long taken = System.currentTimeMillis();
+
+        Stat(boolean directory, long length, long timestamp) {
+            this.directory = directory;
+            this.length = length;
+            this.timestamp = timestamp;
+        }
+    }
+
     public enum Status {
         MODIFIED,
         COPY,
@@ -207,4 +348,4 @@ public class GitVirtualFile extends VirtualFile {
         UNVERSIONED,
         IGNORED
     }
-}
\ No newline at end of file
+}
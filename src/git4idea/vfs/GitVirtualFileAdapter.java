@@ -94,6 +94,7 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
 
         final VirtualFile file = event.getFile();
         if(!VcsUtil.isFileForVcs(file, project, vcs)) return;
+        if (isIgnoredByGit(file)) return;       // don't offer to add build output & the like
 
         List<VirtualFile> files = new ArrayList<VirtualFile>();
         files.add(file);
@@ -317,6 +318,13 @@ public class GitVirtualFileAdapter extends VirtualFileAdapter implements LocalFi
     ///////////////////////////////////////////////////////////////////////////////////////////////////////////////
     // Private methods
 
+    private boolean isIgnoredByGit(@NotNull VirtualFile file) {
+        VirtualFile vcsRoot = VcsUtil.getVcsRootFor(project, file);
+        if (vcsRoot == null || !file.getPath().startsWith(vcsRoot.getPath() + "/")) return false;
+        String relativePath = file.getPath().substring(vcsRoot.getPath().length() + 1);
+        return GitIgnore.getInstance(vcs.getSettings(), vcsRoot).isIgnored(relativePath, file.isDirectory());
+    }
+
     /**
      * File is not processable if it is outside the vcs scope or it is in the
      * list of excluded project files.